@@ -0,0 +1,227 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.tooling.BuildLauncher;
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ProjectConnection;
+import org.gradle.tooling.internal.consumer.DefaultGradleConnector;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks generateService against synthetic service definitions of increasing size. For every size it measures
+ * a cold run on a fresh project, a warm run that regenerates everything, a run where nothing changed and a run
+ * where a single entity changed. The results are written as JSON to the file in the benchmarkReportFile system
+ * property.
+ * <p/>
+ * Builds run embedded, so the peak heap usage covers servicebuilder only when it runs in process.
+ *
+ * @author Jelmer Kuperus
+ */
+public class ServiceBuilderBenchmark {
+
+    private static final Logger LOGGER = Logging.getLogger(ServiceBuilderBenchmark.class);
+
+    private static final String PROJECTS_DIR_SYSTEM_PROPERTY_NAME = "benchmarkProjectsDir";
+
+    private static final String REPORT_FILE_SYSTEM_PROPERTY_NAME = "benchmarkReportFile";
+
+    private static final String ENTITY_COUNTS_SYSTEM_PROPERTY_NAME = "benchmarkEntityCounts";
+
+    private static final String IN_PROCESS_SYSTEM_PROPERTY_NAME = "benchmarkInProcess";
+
+    private static final String TEMPLATE_PROJECT_NAME = "servicebuilder";
+
+    private final List<Measurement> measurements = new ArrayList<Measurement>();
+
+    @Test
+    public void benchmarkGenerateService() throws Exception {
+        for (String entityCount : System.getProperty(ENTITY_COUNTS_SYSTEM_PROPERTY_NAME, "10").split(",")) {
+            benchmark(Integer.parseInt(entityCount.trim()));
+        }
+
+        File reportFile = new File(System.getProperty(REPORT_FILE_SYSTEM_PROPERTY_NAME));
+        Files.createParentDirs(reportFile);
+        Files.write(toJson(), reportFile, Charsets.UTF_8);
+
+        LOGGER.lifecycle("Benchmark results written to {}", reportFile);
+    }
+
+    private void benchmark(int entityCount) throws IOException {
+        File projectDir = createProject(entityCount);
+        File serviceInputFile = new File(projectDir, "src/main/servicebuilder/service.xml");
+
+        new SyntheticServiceXml(entityCount).writeTo(serviceInputFile);
+
+        measure(entityCount, "cold", projectDir, "generateService");
+
+        // everything is regenerated, but the daemon, class loaders and file system caches are warm
+        measure(entityCount, "warm", projectDir, "generateService", "--rerun-tasks");
+
+        measure(entityCount, "noop", projectDir, "generateService");
+
+        new SyntheticServiceXml(entityCount).withChangedEntity(entityCount / 2).writeTo(serviceInputFile);
+        measure(entityCount, "singleEntityChange", projectDir, "generateService");
+
+        File changedEntityFile = new File(projectDir, "src/service/java/"
+                + SyntheticServiceXml.PACKAGE_PATH.replace('.', '/') + "/model/"
+                + SyntheticServiceXml.entityName(entityCount / 2) + "Model.java");
+        assertTrue(Files.toString(changedEntityFile, Charsets.UTF_8).contains("getChanged()"));
+    }
+
+    private File createProject(int entityCount) throws IOException {
+        File projectsDir = new File(System.getProperty(PROJECTS_DIR_SYSTEM_PROPERTY_NAME));
+        File templateDir = new File(projectsDir, TEMPLATE_PROJECT_NAME);
+        File projectDir = new File(projectsDir, TEMPLATE_PROJECT_NAME + "-" + entityCount);
+
+        FileOperations.delete(projectDir);
+        copyDir(templateDir, projectDir);
+        return projectDir;
+    }
+
+    private void measure(int entityCount, String scenario, File projectDir, String... arguments) {
+        System.gc();
+        resetPeakHeapUsage();
+
+        long start = System.nanoTime();
+        runBuild(projectDir, arguments);
+        long millis = (System.nanoTime() - start) / 1000000L;
+
+        Measurement measurement = new Measurement(entityCount, scenario, millis, getPeakHeapUsage());
+        measurements.add(measurement);
+
+        LOGGER.lifecycle("{}", measurement);
+    }
+
+    private void runBuild(File projectDir, String... arguments) {
+        DefaultGradleConnector connector = (DefaultGradleConnector) GradleConnector.newConnector();
+
+        ProjectConnection connection = connector
+                .embedded(true)
+                .forProjectDirectory(projectDir)
+                .connect();
+        try {
+            List<String> tasks = new ArrayList<String>();
+            List<String> options = new ArrayList<String>();
+            for (String argument : arguments) {
+                if (argument.startsWith("-")) {
+                    options.add(argument);
+                } else {
+                    tasks.add(argument);
+                }
+            }
+            options.add("-PbenchmarkInProcess=" + System.getProperty(IN_PROCESS_SYSTEM_PROPERTY_NAME, "false"));
+
+            BuildLauncher build = connection.newBuild();
+            build.forTasks(tasks.toArray(new String[tasks.size()]));
+            build.withArguments(options.toArray(new String[options.size()]));
+            build.run();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void copyDir(File source, File target) throws IOException {
+        File[] children = source.listFiles();
+        if (children == null) {
+            return;
+        }
+        FileOperations.mkdirs(target);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                if (!"build".equals(child.getName()) && !".gradle".equals(child.getName())) {
+                    copyDir(child, new File(target, child.getName()));
+                }
+            } else {
+                FileOperations.copyFile(child, new File(target, child.getName()));
+            }
+        }
+    }
+
+    private String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"availableProcessors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"inProcess\": ")
+                .append(Boolean.valueOf(System.getProperty(IN_PROCESS_SYSTEM_PROPERTY_NAME))).append(",\n");
+        json.append("  \"measurements\": [");
+        for (int i = 0; i < measurements.size(); i++) {
+            Measurement measurement = measurements.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    { \"entities\": ").append(measurement.entityCount)
+                    .append(", \"scenario\": \"").append(measurement.scenario).append('"')
+                    .append(", \"millis\": ").append(measurement.millis)
+                    .append(", \"peakHeapBytes\": ").append(measurement.peakHeapBytes).append(" }");
+        }
+        json.append("\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static final class Measurement {
+        private final int entityCount;
+        private final String scenario;
+        private final long millis;
+        private final long peakHeapBytes;
+
+        private Measurement(int entityCount, String scenario, long millis, long peakHeapBytes) {
+            this.entityCount = entityCount;
+            this.scenario = scenario;
+            this.millis = millis;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%4d entities %-20s %8d ms %6d MB peak heap", entityCount, scenario, millis,
+                    peakHeapBytes / (1024 * 1024));
+        }
+    }
+}
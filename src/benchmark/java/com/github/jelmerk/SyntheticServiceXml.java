@@ -0,0 +1,169 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Generates servicebuilder service definitions of a given size. Every entity has a number of columns and finders,
+ * refers to the previous entity and every fifth entity has a many to many relation, backed by a mapping table, with
+ * the entity before it. The output is deterministic, so the same size always results in the same definition.
+ *
+ * @author Jelmer Kuperus
+ */
+public class SyntheticServiceXml {
+
+    static final String PACKAGE_PATH = "com.github.jelmerk.benchmark";
+
+    private final int entityCount;
+
+    private int changedEntity = -1;
+
+    /**
+     * Constructs a new SyntheticServiceXml.
+     *
+     * @param entityCount the number of entities in the definition
+     */
+    public SyntheticServiceXml(int entityCount) {
+        this.entityCount = entityCount;
+    }
+
+    /**
+     * Adds an extra column to one entity, to simulate a change to a single entity.
+     *
+     * @param index the index of the entity that is changed
+     * @return this
+     */
+    public SyntheticServiceXml withChangedEntity(int index) {
+        this.changedEntity = index;
+        return this;
+    }
+
+    /**
+     * Returns the name of the entity with an index.
+     *
+     * @param index the index of the entity
+     * @return the name of the entity
+     */
+    public static String entityName(int index) {
+        return String.format("Entity%03d", index);
+    }
+
+    /**
+     * Writes the definition to a file.
+     *
+     * @param file the file to write to
+     * @throws IOException when the file cannot be written
+     */
+    public void writeTo(File file) throws IOException {
+        Files.createParentDirs(file);
+        Files.write(toString(), file, Charsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\"?>\n");
+        xml.append("<!DOCTYPE service-builder PUBLIC \"-//Liferay//DTD Service Builder 6.1.0//EN\" ")
+                .append("\"http://www.liferay.com/dtd/liferay-service-builder_6_1_0.dtd\">\n\n");
+        xml.append("<service-builder package-path=\"").append(PACKAGE_PATH).append("\">\n");
+        xml.append("    <author>Benchmark</author>\n");
+        xml.append("    <namespace>Bench</namespace>\n");
+
+        for (int i = 0; i < entityCount; i++) {
+            appendEntity(xml, i);
+        }
+
+        xml.append("</service-builder>\n");
+        return xml.toString();
+    }
+
+    private void appendEntity(StringBuilder xml, int index) {
+        String name = entityName(index);
+        String idColumn = Character.toLowerCase(name.charAt(0)) + name.substring(1) + "Id";
+
+        xml.append("    <entity name=\"").append(name).append("\" local-service=\"true\" remote-service=\"true\">\n");
+
+        xml.append("        <column name=\"").append(idColumn).append("\" type=\"long\" primary=\"true\" />\n");
+        xml.append("        <column name=\"groupId\" type=\"long\" />\n");
+        xml.append("        <column name=\"companyId\" type=\"long\" />\n");
+        xml.append("        <column name=\"userId\" type=\"long\" />\n");
+        xml.append("        <column name=\"createDate\" type=\"Date\" />\n");
+        xml.append("        <column name=\"modifiedDate\" type=\"Date\" />\n");
+        xml.append("        <column name=\"name\" type=\"String\" />\n");
+        xml.append("        <column name=\"description\" type=\"String\" />\n");
+        xml.append("        <column name=\"priority\" type=\"int\" />\n");
+        xml.append("        <column name=\"active\" type=\"boolean\" />\n");
+
+        if (index > 0) {
+            String previous = entityName(index - 1);
+            String previousIdColumn = Character.toLowerCase(previous.charAt(0)) + previous.substring(1) + "Id";
+            xml.append("        <column name=\"").append(previousIdColumn).append("\" type=\"long\" />\n");
+        }
+
+        if (hasMappingTable(index)) {
+            appendMappingColumn(xml, index, index - 1);
+        }
+        if (hasMappingTable(index + 1) && index + 1 < entityCount) {
+            appendMappingColumn(xml, index, index + 1);
+        }
+
+        if (index == changedEntity) {
+            xml.append("        <column name=\"changed\" type=\"String\" />\n");
+        }
+
+        xml.append("        <order by=\"asc\">\n");
+        xml.append("            <order-column name=\"name\" />\n");
+        xml.append("        </order>\n");
+
+        xml.append("        <finder name=\"GroupId\" return-type=\"Collection\">\n");
+        xml.append("            <finder-column name=\"groupId\" />\n");
+        xml.append("        </finder>\n");
+        xml.append("        <finder name=\"G_N\" return-type=\"").append(name).append("\" unique=\"true\">\n");
+        xml.append("            <finder-column name=\"groupId\" />\n");
+        xml.append("            <finder-column name=\"name\" />\n");
+        xml.append("        </finder>\n");
+        xml.append("        <finder name=\"C_A\" return-type=\"Collection\">\n");
+        xml.append("            <finder-column name=\"companyId\" />\n");
+        xml.append("            <finder-column name=\"active\" />\n");
+        xml.append("        </finder>\n");
+
+        if (index > 0) {
+            xml.append("        <reference package-path=\"").append(PACKAGE_PATH)
+                    .append("\" entity=\"").append(entityName(index - 1)).append("\" />\n");
+        }
+        xml.append("        <reference package-path=\"com.liferay.portal\" entity=\"User\" />\n");
+
+        xml.append("    </entity>\n");
+    }
+
+    private void appendMappingColumn(StringBuilder xml, int index, int other) {
+        String otherName = entityName(other);
+        String table = "Bench_" + entityName(Math.min(index, other)) + "_" + entityName(Math.max(index, other));
+        xml.append("        <column name=\"").append(Character.toLowerCase(otherName.charAt(0)))
+                .append(otherName.substring(1)).append("s\" type=\"Collection\" entity=\"").append(otherName)
+                .append("\" mapping-table=\"").append(table).append("\" />\n");
+    }
+
+    private static boolean hasMappingTable(int index) {
+        return index > 0 && index % 5 == 0;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges the aggregate files servicebuilder writes when it is run for a subset of the entities of a service, eg
+ * ClpSerializer or portlet-hbm.xml, into the versions that were generated for all entities. Servicebuilder rewrites
+ * these files from the entities it is given, so the code of the other entities is missing from them.
+ * <p/>
+ * The two versions are compared line by line. Lines that are only in the subset version are taken over, lines
+ * that are only in the previous version are kept when they belong to an entity that was not regenerated. A line
+ * belongs to the entities it names, in any of the forms servicebuilder emits them in, eg FooClp,
+ * translateInputFoo, _fooLocalService or FOO_Foo. Lines that name no entity belong to the entity named by the
+ * lines before them.
+ *
+ * @author Jelmer Kuperus
+ */
+final class AggregateFileMerger {
+
+    // regions larger than this are replaced as a whole rather than compared line by line
+    private static final long MAX_COMPARED_CELLS = 4000000L;
+
+    private static final int UNOWNED = 0;
+    private static final int OWNED_BY_OTHER = 1;
+    private static final int OWNED_BY_REGENERATED = 2;
+
+    private final Collection<String> regeneratedEntities;
+
+    private final Collection<String> otherEntities;
+
+    /**
+     * Constructs a new AggregateFileMerger.
+     *
+     * @param regeneratedEntities the entities servicebuilder was run for
+     * @param otherEntities the entities of the service that servicebuilder was not run for
+     */
+    AggregateFileMerger(Collection<String> regeneratedEntities, Collection<String> otherEntities) {
+        this.regeneratedEntities = regeneratedEntities;
+        this.otherEntities = otherEntities;
+    }
+
+    /**
+     * Merges the subset version of a file into the previous version.
+     *
+     * @param previous the content generated for all entities
+     * @param subset the content generated for the regenerated entities
+     * @return the merged content
+     */
+    String merge(String previous, String subset) {
+        String[] previousLines = previous.split("\n", -1);
+        String[] subsetLines = subset.split("\n", -1);
+
+        List<Edit> edits = new ArrayList<Edit>();
+        diff(previousLines, 0, previousLines.length, subsetLines, 0, subsetLines.length, edits);
+
+        List<String> merged = new ArrayList<String>();
+        List<String> deleted = new ArrayList<String>();
+        List<String> inserted = new ArrayList<String>();
+        for (Edit edit : edits) {
+            if (edit.type == Edit.EQUAL) {
+                appendHunk(deleted, inserted, merged);
+                merged.add(edit.line);
+            } else if (edit.type == Edit.DELETE) {
+                deleted.add(edit.line);
+            } else {
+                inserted.add(edit.line);
+            }
+        }
+        appendHunk(deleted, inserted, merged);
+
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < merged.size(); i++) {
+            if (i > 0) {
+                content.append('\n');
+            }
+            content.append(merged.get(i));
+        }
+        return content.toString();
+    }
+
+    /**
+     * Returns the entities that were not regenerated, that are named in the previous version of a file but not in
+     * the merged version. These are lost when the merged version is used.
+     *
+     * @param previous the content generated for all entities
+     * @param merged the merged content
+     * @return the entities that were lost
+     */
+    List<String> lostEntities(String previous, String merged) {
+        Set<String> previouslyNamed = namedEntities(previous);
+        Set<String> named = namedEntities(merged);
+
+        List<String> lost = new ArrayList<String>();
+        for (String entityName : otherEntities) {
+            if (previouslyNamed.contains(entityName) && !named.contains(entityName)) {
+                lost.add(entityName);
+            }
+        }
+        return lost;
+    }
+
+    private void appendHunk(List<String> deleted, List<String> inserted, List<String> merged) {
+
+        // lines that name no entity, eg closing braces, belong with the entity the lines before them name
+
+        boolean keep = false;
+        boolean owned = false;
+        List<String> unowned = new ArrayList<String>();
+        for (String line : deleted) {
+            int owner = owner(line);
+            if (owner == UNOWNED) {
+                if (owned && keep) {
+                    merged.add(line);
+                } else if (!owned) {
+                    unowned.add(line);
+                }
+                continue;
+            }
+            keep = owner == OWNED_BY_OTHER;
+            if (!owned && keep) {
+                merged.addAll(unowned);
+            }
+            owned = true;
+            if (keep) {
+                merged.add(line);
+            }
+        }
+        merged.addAll(inserted);
+        deleted.clear();
+        inserted.clear();
+    }
+
+    private int owner(String line) {
+        Set<String> named = namedEntities(line);
+        if (named.isEmpty()) {
+            return UNOWNED;
+        }
+        for (String entityName : regeneratedEntities) {
+            if (named.contains(entityName)) {
+                return OWNED_BY_REGENERATED;
+            }
+        }
+        return OWNED_BY_OTHER;
+    }
+
+    private Set<String> namedEntities(String content) {
+        List<String> entityNames = new ArrayList<String>(regeneratedEntities);
+        entityNames.addAll(otherEntities);
+
+        // the longest name wins where names overlap, eg Entry in FooEntry
+
+        int[] matchEnds = new int[content.length() + 1];
+        String[] matches = new String[content.length() + 1];
+        for (String entityName : entityNames) {
+            int from = 0;
+            while (true) {
+                int index = indexOfName(content, entityName, from);
+                if (index < 0) {
+                    break;
+                }
+                int end = index + entityName.length();
+                if (end > matchEnds[index]) {
+                    matchEnds[index] = end;
+                    matches[index] = entityName;
+                }
+                from = index + 1;
+            }
+        }
+
+        Set<String> named = new HashSet<String>();
+        int coveredUntil = 0;
+        for (int i = 0; i < content.length(); i++) {
+            if (matches[i] != null && i >= coveredUntil) {
+                named.add(matches[i]);
+                coveredUntil = matchEnds[i];
+            }
+        }
+        return named;
+    }
+
+    private static int indexOfName(String content, String name, int from) {
+        if (name.length() == 0) {
+            return -1;
+        }
+        String lowerName = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+        for (int i = from; i <= content.length() - name.length(); i++) {
+            if (!content.startsWith(name, i) && !content.startsWith(lowerName, i)) {
+                continue;
+            }
+
+            // the name must start a word, eg FooClp or translateInputFoo, and end one, so Foo does not match Food
+
+            boolean starts = i == 0 || !Character.isLetter(content.charAt(i - 1))
+                    || Character.isLowerCase(content.charAt(i - 1)) && Character.isUpperCase(content.charAt(i));
+            int end = i + name.length();
+            boolean ends = end == content.length() || !Character.isLowerCase(content.charAt(end));
+            if (starts && ends) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void diff(String[] a, int aStart, int aEnd, String[] b, int bStart, int bEnd, List<Edit> edits) {
+        while (aStart < aEnd && bStart < bEnd && a[aStart].equals(b[bStart])) {
+            edits.add(new Edit(Edit.EQUAL, a[aStart]));
+            aStart++;
+            bStart++;
+        }
+
+        List<Edit> suffix = new ArrayList<Edit>();
+        while (aStart < aEnd && bStart < bEnd && a[aEnd - 1].equals(b[bEnd - 1])) {
+            suffix.add(0, new Edit(Edit.EQUAL, a[aEnd - 1]));
+            aEnd--;
+            bEnd--;
+        }
+
+        if (!diffOnUniqueLines(a, aStart, aEnd, b, bStart, bEnd, edits)) {
+            diffOnCommonSubsequence(a, aStart, aEnd, b, bStart, bEnd, edits);
+        }
+        edits.addAll(suffix);
+    }
+
+    private static boolean diffOnUniqueLines(String[] a, int aStart, int aEnd, String[] b, int bStart, int bEnd,
+                                             List<Edit> edits) {
+
+        // lines that occur exactly once on both sides anchor the comparison, see patience diff
+
+        Map<String, int[]> occurrences = new HashMap<String, int[]>();
+        for (int i = aStart; i < aEnd; i++) {
+            int[] occurrence = occurrences.get(a[i]);
+            if (occurrence == null) {
+                occurrences.put(a[i], new int[] {1, i, 0, -1});
+            } else {
+                occurrence[0]++;
+            }
+        }
+        for (int i = bStart; i < bEnd; i++) {
+            int[] occurrence = occurrences.get(b[i]);
+            if (occurrence != null) {
+                occurrence[2]++;
+                occurrence[3] = i;
+            }
+        }
+
+        List<int[]> anchors = new ArrayList<int[]>();
+        for (int i = aStart; i < aEnd; i++) {
+            int[] occurrence = occurrences.get(a[i]);
+            if (occurrence[0] == 1 && occurrence[2] == 1) {
+                anchors.add(new int[] {i, occurrence[3]});
+            }
+        }
+        anchors = longestIncreasingSubsequence(anchors);
+        if (anchors.isEmpty()) {
+            return false;
+        }
+
+        int aPosition = aStart;
+        int bPosition = bStart;
+        for (int[] anchor : anchors) {
+            diff(a, aPosition, anchor[0], b, bPosition, anchor[1], edits);
+            edits.add(new Edit(Edit.EQUAL, a[anchor[0]]));
+            aPosition = anchor[0] + 1;
+            bPosition = anchor[1] + 1;
+        }
+        diff(a, aPosition, aEnd, b, bPosition, bEnd, edits);
+        return true;
+    }
+
+    private static List<int[]> longestIncreasingSubsequence(List<int[]> anchors) {
+        List<int[]> tails = new ArrayList<int[]>();
+        Map<int[], int[]> previous = new HashMap<int[], int[]>();
+        for (int[] anchor : anchors) {
+            int low = 0;
+            int high = tails.size();
+            while (low < high) {
+                int middle = (low + high) / 2;
+                if (tails.get(middle)[1] < anchor[1]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            if (low > 0) {
+                previous.put(anchor, tails.get(low - 1));
+            }
+            if (low == tails.size()) {
+                tails.add(anchor);
+            } else {
+                tails.set(low, anchor);
+            }
+        }
+
+        List<int[]> result = new ArrayList<int[]>();
+        int[] anchor = tails.isEmpty() ? null : tails.get(tails.size() - 1);
+        while (anchor != null) {
+            result.add(0, anchor);
+            anchor = previous.get(anchor);
+        }
+        return result;
+    }
+
+    private static void diffOnCommonSubsequence(String[] a, int aStart, int aEnd, String[] b, int bStart, int bEnd,
+                                                List<Edit> edits) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        if ((long) n * m > MAX_COMPARED_CELLS) {
+            for (int i = aStart; i < aEnd; i++) {
+                edits.add(new Edit(Edit.DELETE, a[i]));
+            }
+            for (int j = bStart; j < bEnd; j++) {
+                edits.add(new Edit(Edit.INSERT, b[j]));
+            }
+            return;
+        }
+
+        int[][] lengths = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lengths[i][j] = a[aStart + i].equals(b[bStart + j])
+                        ? lengths[i + 1][j + 1] + 1 : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+            }
+        }
+
+        int i = 0;
+        int j = 0;
+        while (i < n && j < m) {
+            if (a[aStart + i].equals(b[bStart + j])) {
+                edits.add(new Edit(Edit.EQUAL, a[aStart + i]));
+                i++;
+                j++;
+            } else if (lengths[i + 1][j] >= lengths[i][j + 1]) {
+                edits.add(new Edit(Edit.DELETE, a[aStart + i]));
+                i++;
+            } else {
+                edits.add(new Edit(Edit.INSERT, b[bStart + j]));
+                j++;
+            }
+        }
+        for (; i < n; i++) {
+            edits.add(new Edit(Edit.DELETE, a[aStart + i]));
+        }
+        for (; j < m; j++) {
+            edits.add(new Edit(Edit.INSERT, b[bStart + j]));
+        }
+    }
+
+    private static final class Edit {
+        private static final int EQUAL = 0;
+        private static final int DELETE = 1;
+        private static final int INSERT = 2;
+
+        private final int type;
+        private final String line;
+
+        private Edit(int type, String line) {
+            this.type = type;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes the signature of the API of compiled classes: the names of all classes and the public and protected
+ * members of the public and protected classes, including the values of constants because the compiler inlines
+ * those. Method bodies, debug information and timestamps are not part of the signature, so the signature only
+ * changes when code compiled against the classes may have to be recompiled. Other files, eg resources, are part of
+ * the signature by their content.
+ * <p/>
+ * Class files are read directly, following chapter 4 of the Java virtual machine specification.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ApiSignature {
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    // access flags that affect code compiled against a class or a member, ACC_SUPER and the like are left out
+
+    private static final int CLASS_ACCESS_MASK = 0x0001 | 0x0010 | 0x0200 | 0x0400 | 0x2000 | 0x4000;
+    private static final int FIELD_ACCESS_MASK = 0x0001 | 0x0004 | 0x0008 | 0x0010 | 0x0040 | 0x0080 | 0x4000;
+    private static final int METHOD_ACCESS_MASK = 0x0001 | 0x0004 | 0x0008 | 0x0010 | 0x0080 | 0x0400;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private ApiSignature() {
+    }
+
+    /**
+     * Computes the signature of the files in a number of folders. Folders that do not exist are ignored.
+     *
+     * @param roots the folders, eg the classes and resources folders of a source set
+     * @return the signature, one line per class, member or other file in a stable order
+     * @throws IOException when a file cannot be read
+     */
+    static String of(Iterable<File> roots) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (File root : roots) {
+            collect(root, "", lines);
+        }
+        Collections.sort(lines);
+
+        StringBuilder signature = new StringBuilder();
+        for (String line : lines) {
+            signature.append(line).append('\n');
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Returns true if a file holds a signature.
+     *
+     * @param signature the signature
+     * @param file the file
+     * @return true if the file exists and holds the signature
+     * @throws IOException when the file cannot be read
+     */
+    static boolean isStoredIn(String signature, File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            FileOperations.copy(in, out);
+            return signature.equals(out.toString("UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Stores a signature in a file.
+     *
+     * @param signature the signature
+     * @param file the file
+     * @throws IOException when the file cannot be written
+     */
+    static void store(String signature, File file) throws IOException {
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(signature.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void collect(File file, String path, List<String> lines) throws IOException {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collect(child, path.length() == 0 ? child.getName() : path + "/" + child.getName(), lines);
+                }
+            }
+        } else if (file.isFile()) {
+            if (file.getName().endsWith(".class")) {
+                readClass(file, lines);
+            } else {
+                lines.add("file " + path + " " + Hashing.hash(file));
+            }
+        }
+    }
+
+    private static void readClass(File file, List<String> lines) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != 0xCAFEBABE) {
+                throw new IOException(file + " is not a class file");
+            }
+            in.readUnsignedShort(); // minor version
+            in.readUnsignedShort(); // major version
+
+            Object[] constants = readConstantPool(in);
+
+            int access = in.readUnsignedShort();
+            String className = className(constants, in.readUnsignedShort());
+            int superIndex = in.readUnsignedShort();
+            String superName = superIndex == 0 ? "" : className(constants, superIndex);
+
+            List<String> interfaces = new ArrayList<String>();
+            int interfaceCount = in.readUnsignedShort();
+            for (int i = 0; i < interfaceCount; i++) {
+                interfaces.add(className(constants, in.readUnsignedShort()));
+            }
+            Collections.sort(interfaces);
+
+            boolean exported = (access & (ACC_PUBLIC | ACC_PROTECTED)) != 0 && (access & ACC_SYNTHETIC) == 0;
+
+            List<String> members = new ArrayList<String>();
+            readMembers(in, constants, className, "field", FIELD_ACCESS_MASK, exported, members);
+            readMembers(in, constants, className, "method", METHOD_ACCESS_MASK, exported, members);
+            Member classAttributes = readAttributes(in, constants);
+
+            if (exported) {
+                lines.add("class " + className + " " + Integer.toHexString(access & CLASS_ACCESS_MASK)
+                        + " extends " + superName + " implements " + interfaces
+                        + classAttributes.describe());
+                lines.addAll(members);
+            } else {
+                // only the name, so a class that code in the api refers to can never be missing
+                lines.add("class " + className);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Object[] readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Object[] constants = new Object[count];
+
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    constants[i] = in.readUTF();
+                    break;
+                case CONSTANT_INTEGER:
+                    constants[i] = in.readInt();
+                    break;
+                case CONSTANT_FLOAT:
+                    constants[i] = in.readFloat();
+                    break;
+                case CONSTANT_LONG:
+                    constants[i++] = in.readLong();
+                    break;
+                case CONSTANT_DOUBLE:
+                    constants[i++] = in.readDouble();
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    constants[i] = new ConstantReference(tag, in.readUnsignedShort());
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                default:
+                    // field, method and interface method refs, name and type, dynamic and invoke dynamic
+                    in.readInt();
+            }
+        }
+        return constants;
+    }
+
+    private static void readMembers(DataInputStream in, Object[] constants, String className, String kind,
+                                    int accessMask, boolean exported, List<String> members) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int access = in.readUnsignedShort();
+            String name = (String) constants[in.readUnsignedShort()];
+            String descriptor = (String) constants[in.readUnsignedShort()];
+            Member attributes = readAttributes(in, constants);
+
+            boolean visible = (access & (ACC_PUBLIC | ACC_PROTECTED)) != 0
+                    && (access & (ACC_SYNTHETIC | ACC_BRIDGE)) == 0;
+
+            if (exported && visible) {
+                members.add(kind + " " + className + "." + name + " " + descriptor + " "
+                        + Integer.toHexString(access & accessMask) + attributes.describe());
+            }
+        }
+    }
+
+    private static Member readAttributes(DataInputStream in, Object[] constants) throws IOException {
+        Member member = new Member();
+
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String name = (String) constants[in.readUnsignedShort()];
+            int length = in.readInt();
+
+            if ("Signature".equals(name)) {
+                member.genericSignature = (String) constants[in.readUnsignedShort()];
+            } else if ("ConstantValue".equals(name)) {
+                member.constantValue = constantValue(constants, in.readUnsignedShort());
+            } else if ("Exceptions".equals(name)) {
+                int exceptionCount = in.readUnsignedShort();
+                List<String> exceptions = new ArrayList<String>();
+                for (int j = 0; j < exceptionCount; j++) {
+                    exceptions.add(className(constants, in.readUnsignedShort()));
+                }
+                Collections.sort(exceptions);
+                member.exceptions = exceptions;
+            } else {
+                skipFully(in, length);
+            }
+        }
+        return member;
+    }
+
+    private static String className(Object[] constants, int index) {
+        ConstantReference reference = (ConstantReference) constants[index];
+        return ((String) constants[reference.index]).replace('/', '.');
+    }
+
+    private static String constantValue(Object[] constants, int index) {
+        Object constant = constants[index];
+        if (constant instanceof ConstantReference) {
+            // a string constant refers to its value
+            return "\"" + constants[((ConstantReference) constant).index] + "\"";
+        }
+        return String.valueOf(constant);
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of class file");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static final class ConstantReference {
+        private final int tag;
+        private final int index;
+
+        private ConstantReference(int tag, int index) {
+            this.tag = tag;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return tag + ":" + index;
+        }
+    }
+
+    private static final class Member {
+        private String genericSignature;
+        private String constantValue;
+        private List<String> exceptions;
+
+        private String describe() {
+            StringBuilder description = new StringBuilder();
+            if (genericSignature != null) {
+                description.append(" signature ").append(genericSignature);
+            }
+            if (constantValue != null) {
+                description.append(" value ").append(constantValue);
+            }
+            if (exceptions != null) {
+                description.append(" throws ").append(exceptions);
+            }
+            return description.toString();
+        }
+    }
+}
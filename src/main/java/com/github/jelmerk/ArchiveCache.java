@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A cache of directory snapshots stored as zip archives and addressed by a key. Entries are looked up in a local
+ * directory first and then in an optional shared directory, eg one that is mounted by all build agents. Archives are
+ * written to a temporary file first and then renamed, so concurrent builds never see a partially written entry.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ArchiveCache {
+
+    private static final String ARCHIVE_EXTENSION = ".zip";
+
+    private final File localDir;
+
+    private final File sharedDir;
+
+    private final boolean pushToShared;
+
+    /**
+     * Constructs a new ArchiveCache.
+     *
+     * @param localDir the directory that holds the local entries
+     * @param sharedDir the directory that holds the shared entries. May be null
+     * @param pushToShared true if entries are stored in the shared directory as well as in the local directory
+     */
+    ArchiveCache(File localDir, File sharedDir, boolean pushToShared) {
+        this.localDir = localDir;
+        this.sharedDir = sharedDir;
+        this.pushToShared = pushToShared;
+    }
+
+    /**
+     * Returns the archive stored under a key. Entries found in the shared directory are copied to the local
+     * directory first.
+     *
+     * @param key the key
+     * @return the archive stored under the key or null if there is none
+     * @throws IOException when a shared entry cannot be copied
+     */
+    File find(String key) throws IOException {
+        File localArchive = new File(localDir, key + ARCHIVE_EXTENSION);
+        if (localArchive.isFile()) {
+            // allows tools that clean up the cache to find out which entries are still used
+            localArchive.setLastModified(System.currentTimeMillis());
+            return localArchive;
+        }
+
+        if (sharedDir != null) {
+            File sharedArchive = new File(sharedDir, key + ARCHIVE_EXTENSION);
+            if (sharedArchive.isFile()) {
+                publish(sharedArchive, localArchive);
+                return localArchive;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the content of a directory under a key.
+     *
+     * @param key the key
+     * @param dir the directory to store
+     * @return the archive that was stored
+     * @throws IOException when the archive cannot be written
+     */
+    File store(String key, File dir) throws IOException {
+        File localArchive = new File(localDir, key + ARCHIVE_EXTENSION);
+        FileOperations.mkdirs(localDir);
+
+        File tempFile = File.createTempFile(key, ".tmp", localDir);
+        try {
+            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                addToArchive(out, dir, "");
+            } finally {
+                out.close();
+            }
+            rename(tempFile, localArchive);
+        } finally {
+            tempFile.delete();
+        }
+
+        if (sharedDir != null && pushToShared) {
+            publish(localArchive, new File(sharedDir, key + ARCHIVE_EXTENSION));
+        }
+        return localArchive;
+    }
+
+    /**
+     * Extracts an archive into a directory, overwriting files that already exist.
+     *
+     * @param archive the archive
+     * @param dir the directory to extract to
+     * @throws IOException when the archive cannot be extracted
+     */
+    static void extract(File archive, File dir) throws IOException {
+        String canonicalDir = dir.getCanonicalPath() + File.separator;
+
+        ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(archive)));
+        try {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                File file = new File(dir, entry.getName());
+                if (!file.getCanonicalPath().startsWith(canonicalDir)) {
+                    throw new IOException("Archive entry " + entry.getName() + " is outside of " + dir);
+                }
+
+                if (entry.isDirectory()) {
+                    FileOperations.mkdirs(file);
+                } else {
+                    FileOperations.mkdirs(file.getParentFile());
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        FileOperations.copy(in, out);
+                    } finally {
+                        out.close();
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void addToArchive(ZipOutputStream out, File file, String path) throws IOException {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    addToArchive(out, child, path.length() == 0 ? child.getName() : path + "/" + child.getName());
+                }
+            }
+        } else if (file.isFile()) {
+            out.putNextEntry(new ZipEntry(path));
+            InputStream in = new FileInputStream(file);
+            try {
+                FileOperations.copy(in, out);
+            } finally {
+                in.close();
+            }
+            out.closeEntry();
+        }
+    }
+
+    private static void publish(File source, File target) throws IOException {
+        FileOperations.mkdirs(target.getParentFile());
+
+        File tempFile = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            FileOperations.copyFile(source, tempFile);
+            rename(tempFile, target);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static void rename(File source, File target) throws IOException {
+        if (!source.renameTo(target)) {
+            // another build may have stored the same entry in the meantime, which is fine
+            if (!target.isFile()) {
+                throw new IOException("Could not rename " + source + " to " + target);
+            }
+        }
+    }
+}
@@ -16,17 +16,24 @@
 
 package com.github.jelmerk;
 
-import org.apache.tools.ant.Project;
-import org.apache.tools.ant.taskdefs.Copy;
-import org.apache.tools.ant.taskdefs.Echo;
-import org.apache.tools.ant.taskdefs.Java;
-import org.apache.tools.ant.taskdefs.Mkdir;
-import org.apache.tools.ant.types.Path;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.ConfigurableFileTree;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Implementation of {@link org.gradle.api.Task} that generates a liferay service
@@ -36,6 +43,11 @@ import java.io.File;
  */
 public class BuildService extends DefaultTask {
 
+    /**
+     * The name of the service definition that is configured through the properties of the task itself.
+     */
+    public static final String MAIN_SERVICE_DEFINITION_NAME = "main";
+
     private FileCollection classpath;
 
     private String pluginName;
@@ -48,178 +60,179 @@ public class BuildService extends DefaultTask {
     private File jalopyInputFile;
     private File serviceInputFile;
 
+    private boolean incremental = true;
+
+    private Boolean cacheEnabled;
+    private File cacheDir;
+    private File sharedCacheDir;
+    private Boolean pushToSharedCache;
+
+    private Boolean inProcess;
+
+    private File reportDir;
+
+    private Collection<ServiceDefinition> serviceDefinitions;
+
+    private Integer maxParallelServices;
+
     /**
      * Performs the build service task.
      */
     @TaskAction
     public void buildService() {
-        File workingDir = prepareWorkingDir();
-        createOutputDirectories();
-        String processOutput = buildService(workingDir);
-        echoOutput(processOutput);
+        List<ServiceDefinition> definitions = getAllServiceDefinitions();
+        validateServiceDefinitions(definitions);
 
-        if (didNotExecuteSuccessfully(processOutput)) {
-            throw new TaskExecutionException(this, null);
+        if (getMaxParallelServices() != null && getMaxParallelServices() <= 0) {
+            throw new InvalidUserDataException("The maximum number of services that are generated at the same time "
+                    + "must be at least 1, was " + getMaxParallelServices());
         }
-    }
 
-    private boolean didNotExecuteSuccessfully(String processOutput) {
-        return processOutput != null && processOutput.contains("Error");
-    }
-
-    private void createOutputDirectories() {
-        Mkdir mkServicebuilderMainSourceSetDir = new Mkdir();
-        mkServicebuilderMainSourceSetDir.setDir(getImplSrcDir());
-        mkServicebuilderMainSourceSetDir.execute();
+        List<File> classpathFiles = new ArrayList<File>(getClasspath().getFiles());
+
+        List<ServiceGenerator> generators = new ArrayList<ServiceGenerator>();
+        for (ServiceDefinition definition : definitions) {
+            if (!definition.getServiceInputFile().exists()) {
+                getLogger().info("Skipping service {}, {} does not exist", definition.getName(),
+                        definition.getServiceInputFile());
+                continue;
+            }
+
+            File workingDir = new File(getProject().getBuildDir(), "servicebuilder/" + definition.getName());
+
+            ServiceGenerator generator = new ServiceGenerator(definition, workingDir, classpathFiles, getLogger());
+            generator.setIncremental(getIncremental());
+            generator.setCache(Boolean.TRUE.equals(getCacheEnabled()), getCacheDir(), getSharedCacheDir(),
+                    Boolean.TRUE.equals(getPushToSharedCache()));
+            generator.setInProcess(Boolean.TRUE.equals(getInProcess()));
+            if (getReportDir() != null) {
+                generator.setReportFile(new File(getReportDir(), definition.getName() + ".json"));
+            }
+            generators.add(generator);
+        }
 
-        Mkdir mkSqlDir = new Mkdir();
-        mkSqlDir.setDir(new File(getWebappSrcDir(), "/WEB-INF/sql"));
-        mkSqlDir.execute();
+        if (generators.size() == 1) {
+            generators.get(0).generate();
+        } else if (generators.size() > 1) {
+            generateConcurrently(generators);
+        }
     }
 
-    private File prepareWorkingDir() {
-
-        // the Jalopy file to use is not a parameter you can pass to service builder it just looks at a number
-        // of predefined locations on the filesystem. So we set up a working dir where we mimic the layout
-        // servicebuilder expects as a workaround
-
-        File workingDir = getProject().mkdir(new File(getProject().getBuildDir(), "servicebuilder"));
-        File miscDir = getProject().mkdir(new File(workingDir, "misc"));
-
-        File jalopyFile = new File(miscDir, "jalopy.xml");
-
-        if (getJalopyInputFile() != null) {
-            Copy copy = new Copy();
-            copy.setProject(getAnt().getProject());
-            copy.setFile(getJalopyInputFile());
-            copy.setTofile(jalopyFile);
-            copy.setOverwrite(true);
-            copy.execute();
+    private void generateConcurrently(List<ServiceGenerator> generators) {
+        int threads = Math.min(generators.size(),
+                getMaxParallelServices() == null ? generators.size() : getMaxParallelServices());
+
+        // servicebuilder runs in worker JVMs, or in process for one service at a time
+        ToolWorkerPool.getInstance().requestWorkers(threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (ServiceGenerator generator : generators) {
+                futures.add(executor.submit(new GenerateServiceCallable(generator)));
+            }
+
+            Throwable firstFailure = null;
+            int failures = 0;
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    getLogger().error(e.getCause().getMessage());
+                    if (firstFailure == null) {
+                        firstFailure = e.getCause();
+                    }
+                    failures++;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new GradleException("Interrupted while generating services", e);
+                }
+            }
+
+            if (firstFailure != null) {
+                throw new GradleException(failures + " of " + generators.size() + " services failed to generate",
+                        firstFailure);
+            }
+        } finally {
+            executor.shutdownNow();
         }
-
-        return workingDir;
     }
 
-    private String buildService(File workingDir) {
-        Java javaTask = new Java();
-        javaTask.setTaskName("service builder");
-        javaTask.setClassname("com.liferay.portal.tools.servicebuilder.ServiceBuilder");
-
-        javaTask.setFork(true); // must fork or the working dir we set below is not picked up
-        javaTask.setDir(workingDir);
-        javaTask.setOutputproperty("service.test.output");
-
-        Project antProject = getAnt().getAntProject();
-
-        Path antClassPath = new Path(antProject);
-
-        for (File dep : getClasspath()) {
-            antClassPath.createPathElement()
-                    .setLocation(dep);
+    private List<ServiceDefinition> getAllServiceDefinitions() {
+        ServiceDefinition main = new ServiceDefinition(MAIN_SERVICE_DEFINITION_NAME);
+        main.setPluginName(getPluginName());
+        main.setServiceInputFile(getServiceInputFile());
+        main.setJalopyInputFile(getJalopyInputFile());
+        main.setImplSrcDir(getImplSrcDir());
+        main.setApiSrcDir(getApiSrcDir());
+        main.setResourceDir(getResourceDir());
+        main.setWebappDir(getWebappSrcDir());
+
+        List<ServiceDefinition> definitions = new ArrayList<ServiceDefinition>();
+        definitions.add(main);
+        if (getServiceDefinitions() != null) {
+            definitions.addAll(getServiceDefinitions());
         }
+        return definitions;
+    }
 
-        antClassPath.createPathElement().setLocation(getResourceDir()); //Needed or portlet-model-hints.xml will be overwritten
-
-        javaTask.setProject(antProject);
-        javaTask.setClasspath(antClassPath);
-
-        javaTask.createArg()
-                .setLine("-Dexternal-properties=com/liferay/portal/tools/dependencies/portal-tools.properties");
-
-        javaTask.createArg()
-                .setLine("-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.Log4JLogger");
-
-        javaTask.createArg()
-                .setLine("service.input.file=" + getServiceInputFile().getPath());
-
-        javaTask.createArg()
-                .setLine("service.hbm.file="
-                        + new File(getResourceDir(), "META-INF/portlet-hbm.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.orm.file="
-                        + new File(getResourceDir(), "META-INF/portlet-orm.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.model.hints.file="
-                        + new File(getResourceDir(), "META-INF/portlet-model-hints.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.spring.file="
-                        + new File(getResourceDir(), "META-INF/portlet-spring.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.spring.base.file="
-                        + new File(getResourceDir(), "META-INF/base-spring.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.spring.cluster.file="
-                        + new File(getResourceDir(), "META-INF/cluster-spring.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.spring.dynamic.data.source.file="
-                        + new File(getResourceDir(), "META-INF/dynamic-data-source-spring.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.spring.hibernate.file="
-                        + new File(getResourceDir(), "META-INF/hibernate-spring.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.spring.infrastructure.file="
-                        + new File(getResourceDir(), "META-INF/infrastructure-spring.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.spring.shard.data.source.file="
-                        + new File(getResourceDir(), "META-INF/shard-data-source-spring.xml").getPath());
-
-        javaTask.createArg()
-                .setLine("service.api.dir=" + getApiSrcDir().getPath());
-
-        javaTask.createArg()
-                .setLine("service.impl.dir=" + getImplSrcDir().getPath());
-
-        javaTask.createArg()
-                .setLine("service.json.file=" + new File(getWebappSrcDir(), "js/service.js").getPath());
-
-        javaTask.createArg()
-                .setLine("service.sql.dir=" + new File(getWebappSrcDir(), "WEB-INF/sql").getPath());
-
-        javaTask.createArg()
-                .setLine("service.sql.file=tables.sql");
-
-        javaTask.createArg()
-                .setLine("service.sql.indexes.file=indexes.sql");
-
-        javaTask.createArg()
-                .setLine("service.sql.indexes.properties.file=indexes.properties");
-
-        javaTask.createArg()
-                .setLine("service.sql.sequences.file=sequences.sql");
+    private void validateServiceDefinitions(List<ServiceDefinition> definitions) {
+        Map<File, String> implSrcDirs = new HashMap<File, String>();
+        Map<File, String> resourceDirs = new HashMap<File, String>();
+        Map<File, String> webappDirs = new HashMap<File, String>();
 
-        javaTask.createArg()
-                .setLine("service.auto.namespace.tables=true");
+        for (int i = 0; i < definitions.size(); i++) {
+            ServiceDefinition definition = definitions.get(i);
 
-        javaTask.createArg()
-                .setLine("service.bean.locator.util=com.liferay.util.bean.PortletBeanLocatorUtil");
+            if (i > 0 && MAIN_SERVICE_DEFINITION_NAME.equals(definition.getName())) {
+                throw new InvalidUserDataException("The service definition name " + MAIN_SERVICE_DEFINITION_NAME
+                        + " is reserved for the service configured on the task");
+            }
 
-        javaTask.createArg()
-                .setLine("service.props.util=com.liferay.util.service.ServiceProps");
+            if (definition.getServiceInputFile() == null || definition.getImplSrcDir() == null
+                    || definition.getApiSrcDir() == null || definition.getResourceDir() == null
+                    || definition.getWebappDir() == null) {
+                throw new InvalidUserDataException("Service definition " + definition.getName()
+                        + " requires a serviceInputFile, implSrcDir, apiSrcDir, resourceDir and webappDir");
+            }
 
-        javaTask.createArg()
-                .setLine("service.plugin.name=" + getPluginName());
+            // servicebuilder writes fixed file names in these folders, eg service.properties and tables.sql
 
-        //javaTask.createJvmarg().setLine("-Xdebug -Xrunjdwp:transport=dt_socket,server=y,suspend=y,address=5006");
+            checkNotShared(implSrcDirs, definition.getImplSrcDir(), definition, "implementation source dir");
+            checkNotShared(resourceDirs, definition.getResourceDir(), definition, "resource dir");
+            checkNotShared(webappDirs, definition.getWebappDir(), definition, "webapp dir");
+        }
+    }
 
-        javaTask.execute();
+    private void checkNotShared(Map<File, String> dirs, File dir, ServiceDefinition definition, String description) {
+        String other = dirs.put(dir.getAbsoluteFile(), definition.getName());
+        if (other != null) {
+            throw new InvalidUserDataException("Service definitions " + other + " and " + definition.getName()
+                    + " use the same " + description + " " + dir);
+        }
+    }
 
-        return antProject.getProperty("service.test.output");
+    /**
+     * Returns true if only the entities that changed since the previous run are regenerated. False otherwise
+     *
+     * @return true if only the entities that changed since the previous run are regenerated. False otherwise
+     */
+    @Input
+    public boolean getIncremental() {
+        return incremental;
     }
 
-    private void echoOutput(String processOutput) {
-        Echo echo = new Echo();
-        //echo.setProject(getAnt().getAntProject());
-        echo.setMessage(processOutput);
-        echo.execute();
+    /**
+     * Set to true if only the entities that changed since the previous run should be regenerated. Entities are
+     * regenerated together with the entities they share a mapping table with. When a change cannot be limited to
+     * individual entities, eg because an entity was removed, all entities are regenerated.
+     * If unset this value defaults to true
+     *
+     * @param incremental true if only the entities that changed since the previous run should be regenerated
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
     }
 
     /**
@@ -291,7 +304,6 @@ public class BuildService extends DefaultTask {
      * @return the file that points to the folder where the generated service implementation source files will be
      *         written to
      */
-    @InputDirectory
     @OutputDirectory
     public File getImplSrcDir() {
         return implSrcDir;
@@ -335,7 +347,6 @@ public class BuildService extends DefaultTask {
      *
      * @return the file that points to the folder where the generated resource files will be written to
      */
-    @InputDirectory
     @OutputDirectory
     public File getResourceDir() {
         return resourceDir;
@@ -370,6 +381,193 @@ public class BuildService extends DefaultTask {
         this.webappSrcDir = webappSrcDir;
     }
 
+    /**
+     * Returns the hand written source files servicebuilder reads: the service, local service, finder and model
+     * implementation classes and the model hints. These live in the same folders as the generated files so the
+     * folders themselves are only declared as outputs.
+     *
+     * @return the hand written source files servicebuilder reads
+     */
+    @InputFiles
+    public FileCollection getImplSources() {
+        FileCollection sources = getProject().files();
+
+        for (ServiceDefinition definition : getAllServiceDefinitions()) {
+            if (definition.getImplSrcDir() != null) {
+                ConfigurableFileTree implSources = getProject().fileTree(definition.getImplSrcDir());
+                implSources.include("**/service/impl/*Impl.java", "**/model/impl/*Impl.java",
+                        "**/service/persistence/*FinderImpl.java");
+                implSources.exclude("**/*ModelImpl.java", "**/*BaseImpl.java");
+                sources = sources.plus(implSources);
+            }
+
+            if (definition.getResourceDir() != null) {
+                ConfigurableFileTree modelHints = getProject().fileTree(definition.getResourceDir());
+                modelHints.include(ServiceGenerator.MODEL_HINTS_PATH);
+                sources = sources.plus(modelHints);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Returns true if generated services are stored in and restored from a cache. False otherwise
+     *
+     * @return true if generated services are stored in and restored from a cache. False otherwise
+     */
+    public Boolean getCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    /**
+     * Set to true if generated services should be stored in and restored from a cache. Entries are keyed on the
+     * service definition, the jalopy file, the content of the classpath and the hand written implementation
+     * classes. If unset this value defaults to the value configured on the servicebuilder extension
+     *
+     * @param cacheEnabled true if generated services should be stored in and restored from a cache
+     */
+    public void setCacheEnabled(Boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    /**
+     * Returns the folder that holds the local cache entries.
+     *
+     * @return the folder that holds the local cache entries
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Sets the folder that holds the local cache entries. If unset this value defaults to the value configured on
+     * the servicebuilder extension
+     *
+     * @param cacheDir the folder that holds the local cache entries
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Returns the folder that holds the cache entries that are shared between machines.
+     *
+     * @return the folder that holds the cache entries that are shared between machines
+     */
+    public File getSharedCacheDir() {
+        return sharedCacheDir;
+    }
+
+    /**
+     * Sets the folder that holds the cache entries that are shared between machines, eg a network share that is
+     * mounted on all build agents. This property is optional.
+     *
+     * @param sharedCacheDir the folder that holds the cache entries that are shared between machines
+     */
+    public void setSharedCacheDir(File sharedCacheDir) {
+        this.sharedCacheDir = sharedCacheDir;
+    }
+
+    /**
+     * Returns true if newly generated services are stored in the shared cache. False otherwise
+     *
+     * @return true if newly generated services are stored in the shared cache. False otherwise
+     */
+    public Boolean getPushToSharedCache() {
+        return pushToSharedCache;
+    }
+
+    /**
+     * Set to true if newly generated services should be stored in the shared cache. Typically only enabled on
+     * the build server. If unset this value defaults to the value configured on the servicebuilder extension
+     *
+     * @param pushToSharedCache true if newly generated services should be stored in the shared cache
+     */
+    public void setPushToSharedCache(Boolean pushToSharedCache) {
+        this.pushToSharedCache = pushToSharedCache;
+    }
+
+    /**
+     * Returns true if servicebuilder runs inside the build process. False otherwise
+     *
+     * @return true if servicebuilder runs inside the build process. False otherwise
+     */
+    public Boolean getInProcess() {
+        return inProcess;
+    }
+
+    /**
+     * Set to true if servicebuilder should run inside the build process instead of in a worker JVM. This avoids
+     * starting a JVM and, with the Gradle daemon, loading the servicebuilder classes on every run. Only one
+     * servicebuilder runs at a time in process, services generated at the same time run in worker JVMs. The Jalopy
+     * convention is loaded into Jalopy before servicebuilder runs. If unset this value defaults to the value
+     * configured on the servicebuilder extension
+     *
+     * @param inProcess true if servicebuilder should run inside the build process
+     */
+    public void setInProcess(Boolean inProcess) {
+        this.inProcess = inProcess;
+    }
+
+    /**
+     * Returns the folder that JSON reports with the files generated and the time spent per phase are written to.
+     *
+     * @return the folder that JSON reports are written to
+     */
+    public File getReportDir() {
+        return reportDir;
+    }
+
+    /**
+     * Sets the folder that JSON reports with the files generated and the time spent per phase are written to. One
+     * report is written per service. If unset this value defaults to build/reports/servicebuilder
+     *
+     * @param reportDir the folder that JSON reports are written to
+     */
+    public void setReportDir(File reportDir) {
+        this.reportDir = reportDir;
+    }
+
+    /**
+     * Returns the service definitions that are generated in addition to the service configured on this task.
+     *
+     * @return the service definitions that are generated in addition to the service configured on this task
+     */
+    public Collection<ServiceDefinition> getServiceDefinitions() {
+        return serviceDefinitions;
+    }
+
+    /**
+     * Sets the service definitions that are generated in addition to the service configured on this task.
+     * If unset this value defaults to the services configured on the servicebuilder extension
+     *
+     * @param serviceDefinitions the service definitions that are generated in addition to the service configured
+     *                           on this task
+     */
+    public void setServiceDefinitions(Collection<ServiceDefinition> serviceDefinitions) {
+        this.serviceDefinitions = serviceDefinitions;
+    }
+
+    /**
+     * Returns the maximum number of services that are generated at the same time.
+     *
+     * @return the maximum number of services that are generated at the same time
+     */
+    public Integer getMaxParallelServices() {
+        return maxParallelServices;
+    }
+
+    /**
+     * Sets the maximum number of services this task generates at the same time. Must be at least 1. Note that
+     * services generated in worker JVMs are also limited by the size of the worker pool. If unset this value
+     * defaults to the value configured on the servicebuilder extension
+     *
+     * @param maxParallelServices the maximum number of services that are generated at the same time
+     */
+    public void setMaxParallelServices(Integer maxParallelServices) {
+        this.maxParallelServices = maxParallelServices;
+    }
+
     /**
      * Returns the file collection that contains the classes required to run liferay's ServiceBuilder.
      *
@@ -389,4 +587,18 @@ public class BuildService extends DefaultTask {
     public void setClasspath(FileCollection classpath) {
         this.classpath = classpath;
     }
+
+    private static final class GenerateServiceCallable implements Callable<Void> {
+        private final ServiceGenerator generator;
+
+        private GenerateServiceCallable(ServiceGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public Void call() {
+            generator.generate();
+            return null;
+        }
+    }
 }
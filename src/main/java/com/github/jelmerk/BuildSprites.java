@@ -0,0 +1,505 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that packs the small PNG icons of a theme into sprites, the same
+ * sprites Liferay generates when a theme is deployed. Every folder below the images folder of the theme gets a
+ * .sprite.png with its icons stacked vertically and a .sprite.properties that maps the path of every icon, relative
+ * to the images folder, to its offset, height and width in the sprite. Because the sprites are newer than the icons,
+ * Liferay uses them as they are.
+ * <p/>
+ * The icons are read from the images folder and, for themes that are packaged from their layers, from the layers.
+ * The sprites are written to a folder of their own, at the path of their folder of icons, so they replace sprites
+ * that the parent theme ships with without modifying the theme. Sprites are only generated again for folders of
+ * which the icons changed.
+ *
+ * @author Jelmer Kuperus
+ */
+public class BuildSprites extends DefaultTask {
+
+    private static final String MANIFEST_FILE_NAME = "sprites.properties";
+
+    // the path of the images folder in the theme, the files of the layers are known by their path in the theme
+    private static final String IMAGES_PATH = "images/";
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private File imagesDir;
+
+    private File outputDir;
+
+    private ThemeOverlay themeOverlay;
+
+    private String spriteFileName = ".sprite.png";
+
+    private String spritePropertiesFileName = ".sprite.properties";
+
+    private int maxHeight = 16;
+
+    private int maxWidth = 16;
+
+    private int maxSize = 10240;
+
+    /**
+     * Performs the build sprites task.
+     */
+    @TaskAction
+    public void buildSprites() {
+        if ((getImagesDir() == null && themeOverlay == null) || getOutputDir() == null) {
+            throw new InvalidUserDataException("Please specify an imagesDir and an outputDir");
+        }
+
+        File manifestFile = new File(getTemporaryDir(), MANIFEST_FILE_NAME);
+        Properties previous = load(manifestFile);
+        Properties manifest = new Properties();
+
+        int built = 0;
+        try {
+            if (!manifestFile.isFile()) {
+                // sprites of an earlier build are not known, they may belong to folders that do not exist anymore
+                FileOperations.delete(getOutputDir());
+            }
+
+            Map<String, File> sources = collectSources();
+            for (Map.Entry<String, List<String>> entry : collectFolders(sources.keySet()).entrySet()) {
+                String key = "/" + entry.getKey();
+                String fingerprint = buildSprite(entry.getKey(), collectIcons(entry.getValue(), sources),
+                        previous.getProperty(key));
+                if (fingerprint == null) {
+                    continue;
+                }
+                if (!fingerprint.equals(previous.getProperty(key))) {
+                    built++;
+                }
+                manifest.setProperty(key, fingerprint);
+            }
+
+            for (String key : previous.stringPropertyNames()) {
+                if (manifest.getProperty(key) == null) {
+                    // the icons were removed or made larger, so is the sprite
+                    File dir = new File(getOutputDir(), key.substring(1));
+                    FileOperations.delete(new File(dir, getSpriteFileName()));
+                    FileOperations.delete(new File(dir, getSpritePropertiesFileName()));
+                }
+            }
+            save(manifest, manifestFile);
+        } catch (IOException e) {
+            throw new GradleException("Could not build sprites into " + getOutputDir(), e);
+        }
+
+        getLogger().info("Built {} sprites, {} unchanged", built, manifest.size() - built);
+    }
+
+    private String buildSprite(String dirPath, List<Icon> icons, String previousFingerprint) throws IOException {
+        File dir = new File(getOutputDir(), dirPath);
+        File spriteFile = new File(dir, getSpriteFileName());
+        File propertiesFile = new File(dir, getSpritePropertiesFileName());
+
+        if (icons.isEmpty()) {
+            return null;
+        }
+
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, getSpriteFileName() + ":" + getMaxHeight() + ":" + getMaxWidth() + ":" + getMaxSize());
+        for (Icon icon : icons) {
+            Hashing.update(digest, icon.path);
+            Hashing.update(digest, icon.file);
+        }
+        String fingerprint = Hashing.hex(digest.digest());
+
+        if (fingerprint.equals(previousFingerprint) && spriteFile.isFile() && propertiesFile.isFile()) {
+            return fingerprint;
+        }
+
+        int width = 0;
+        int height = 0;
+        for (Icon icon : icons) {
+            width = Math.max(width, icon.width);
+            height += icon.height;
+        }
+
+        BufferedImage sprite = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        StringBuilder properties = new StringBuilder();
+
+        Graphics2D graphics = sprite.createGraphics();
+        try {
+            int offset = 0;
+            for (Icon icon : icons) {
+                BufferedImage image = ImageIO.read(icon.file);
+                if (image == null) {
+                    throw new IOException("Unsupported image format " + icon.file);
+                }
+                graphics.drawImage(image, 0, offset, null);
+
+                properties.append(escape("/" + icon.path)).append('=')
+                        .append(offset).append(',').append(icon.height).append(',').append(icon.width).append('\n');
+                offset += icon.height;
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        FileOperations.mkdirs(dir);
+        FileOperations.delete(spriteFile);
+        if (!ImageIO.write(sprite, "png", spriteFile)) {
+            throw new IOException("Could not write " + spriteFile);
+        }
+
+        FileOperations.delete(propertiesFile);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(propertiesFile), "ISO-8859-1");
+        try {
+            writer.write(properties.toString());
+        } finally {
+            writer.close();
+        }
+        return fingerprint;
+    }
+
+    private List<Icon> collectIcons(List<String> paths, Map<String, File> sources) throws IOException {
+        List<Icon> icons = new ArrayList<Icon>();
+        for (String path : paths) {
+            File file = sources.get(path);
+            if (file.length() > getMaxSize()) {
+                continue;
+            }
+            int[] size = readPngSize(file);
+            if (size != null && size[0] <= getMaxWidth() && size[1] <= getMaxHeight()) {
+                icons.add(new Icon(path, file, size[0], size[1]));
+            }
+        }
+        return icons;
+    }
+
+    private static Map<String, List<String>> collectFolders(Collection<String> paths) {
+
+        // the paths of the candidate icons by the folder they are in, both in the order of their paths
+
+        Map<String, List<String>> folders = new TreeMap<String, List<String>>();
+        for (String path : paths) {
+            int index = path.lastIndexOf('/');
+            String dirPath = index < 0 ? "" : path.substring(0, index);
+            List<String> folder = folders.get(dirPath);
+            if (folder == null) {
+                folder = new ArrayList<String>();
+                folders.put(dirPath, folder);
+            }
+            folder.add(path);
+        }
+        return folders;
+    }
+
+    private Map<String, File> collectSources() {
+        Map<String, File> files = new TreeMap<String, File>();
+        if (themeOverlay != null) {
+            for (Map.Entry<String, File> entry : themeOverlay.getFiles().entrySet()) {
+                if (entry.getKey().startsWith(IMAGES_PATH) && isCandidate(entry.getValue())) {
+                    files.put(entry.getKey().substring(IMAGES_PATH.length()), entry.getValue());
+                }
+            }
+        }
+        if (getImagesDir() != null) {
+            collectCandidates(getImagesDir(), "", files);
+        }
+        return files;
+    }
+
+    private void collectCandidates(File dir, String path, Map<String, File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String childPath = path.length() == 0 ? child.getName() : path + "/" + child.getName();
+            if (child.isDirectory()) {
+                collectCandidates(child, childPath, files);
+            } else if (isCandidate(child)) {
+                files.put(childPath, child);
+            }
+        }
+    }
+
+    private boolean isCandidate(File file) {
+        // the sprites a parent theme ships with are replaced, never packed into the new sprites
+        return file.getName().toLowerCase().endsWith(".png") && !file.getName().equals(getSpriteFileName());
+    }
+
+    private static int[] readPngSize(File file) throws IOException {
+        // the width and height are the first fields of the header chunk that follows the signature
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] signature = new byte[PNG_SIGNATURE.length];
+            in.readFully(signature);
+            if (!Arrays.equals(signature, PNG_SIGNATURE)) {
+                return null;
+            }
+            in.readInt();
+            byte[] type = new byte[4];
+            in.readFully(type);
+            if (!"IHDR".equals(new String(type, "ISO-8859-1"))) {
+                return null;
+            }
+            return new int[] {in.readInt(), in.readInt()};
+        } catch (IOException e) {
+            // truncated image
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String escape(String key) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : key.toCharArray()) {
+            if (c == ' ' || c == ':' || c == '=' || c == '#' || c == '!' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    private static Properties load(File file) {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                return new Properties();
+            }
+        }
+        return properties;
+    }
+
+    private static void save(Properties properties, File file) throws IOException {
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the folder that holds the images of the theme.
+     *
+     * @return the folder that holds the images of the theme
+     */
+    public File getImagesDir() {
+        return imagesDir;
+    }
+
+    /**
+     * Sets the folder that holds the images of the theme. Every folder below it gets a sprite of its icons.
+     * If unset this value defaults to the images folder of the merged theme
+     *
+     * @param imagesDir the folder that holds the images of the theme
+     */
+    public void setImagesDir(File imagesDir) {
+        this.imagesDir = imagesDir;
+    }
+
+    /**
+     * Returns the icons that may be packed into sprites.
+     *
+     * @return the icons that may be packed into sprites
+     */
+    @InputFiles
+    public Collection<File> getIcons() {
+        return collectSources().values();
+    }
+
+    /**
+     * Returns the folder the sprites are written to.
+     *
+     * @return the folder the sprites are written to
+     */
+    @OutputDirectory
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * Sets the folder the sprites are written to, at the path their folder of icons has in the images folder. It
+     * must be packaged as the images folder of the theme, on top of the images of the theme. Setting this field is
+     * mandatory.
+     *
+     * @param outputDir the folder the sprites are written to
+     */
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Sets the theme whose layers hold icons as well, for themes that are packaged from their layers. Icons in the
+     * images dir take precedence.
+     *
+     * @param themeOverlay the theme whose layers hold icons
+     */
+    void setThemeOverlay(ThemeOverlay themeOverlay) {
+        this.themeOverlay = themeOverlay;
+    }
+
+    /**
+     * Returns the name of the sprite image in every folder.
+     *
+     * @return the name of the sprite image in every folder
+     */
+    @Input
+    public String getSpriteFileName() {
+        return spriteFileName;
+    }
+
+    /**
+     * Sets the name of the sprite image in every folder. It must match sprite.file.name in portal.properties.
+     * If unset this value defaults to ".sprite.png"
+     *
+     * @param spriteFileName the name of the sprite image in every folder
+     */
+    public void setSpriteFileName(String spriteFileName) {
+        this.spriteFileName = spriteFileName;
+    }
+
+    /**
+     * Returns the name of the file that holds the offsets of the icons in the sprite.
+     *
+     * @return the name of the file that holds the offsets of the icons in the sprite
+     */
+    @Input
+    public String getSpritePropertiesFileName() {
+        return spritePropertiesFileName;
+    }
+
+    /**
+     * Sets the name of the file that holds the offsets of the icons in the sprite. It must match
+     * sprite.properties.file.name in portal.properties. If unset this value defaults to ".sprite.properties"
+     *
+     * @param spritePropertiesFileName the name of the file that holds the offsets of the icons in the sprite
+     */
+    public void setSpritePropertiesFileName(String spritePropertiesFileName) {
+        this.spritePropertiesFileName = spritePropertiesFileName;
+    }
+
+    /**
+     * Returns the maximum height of an icon in a sprite.
+     *
+     * @return the maximum height of an icon in a sprite
+     */
+    @Input
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Sets the maximum height of an icon in a sprite, larger images are not put in the sprite.
+     * If unset this value defaults to 16
+     *
+     * @param maxHeight the maximum height of an icon in a sprite
+     */
+    public void setMaxHeight(int maxHeight) {
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * Returns the maximum width of an icon in a sprite.
+     *
+     * @return the maximum width of an icon in a sprite
+     */
+    @Input
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    /**
+     * Sets the maximum width of an icon in a sprite, wider images are not put in the sprite.
+     * If unset this value defaults to 16
+     *
+     * @param maxWidth the maximum width of an icon in a sprite
+     */
+    public void setMaxWidth(int maxWidth) {
+        this.maxWidth = maxWidth;
+    }
+
+    /**
+     * Returns the maximum size in bytes of an icon in a sprite.
+     *
+     * @return the maximum size in bytes of an icon in a sprite
+     */
+    @Input
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum size in bytes of an icon in a sprite, larger files are not put in the sprite.
+     * If unset this value defaults to 10240
+     *
+     * @param maxSize the maximum size in bytes of an icon in a sprite
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static final class Icon {
+        private final String path;
+        private final File file;
+        private final int width;
+        private final int height;
+
+        private Icon(String path, File file, int width, int height) {
+            this.path = path;
+            this.file = file;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -16,22 +16,28 @@
 
 package com.github.jelmerk;
 
-import org.apache.tools.ant.Project;
-import org.apache.tools.ant.taskdefs.Java;
-import org.apache.tools.ant.types.Path;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
 import org.gradle.api.InvalidUserDataException;
-import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
-import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
- * Implementation of {@link org.gradle.api.Task} that creates a thumbnail image from a (larger) original image.
+ * Implementation of {@link org.gradle.api.Task} that creates thumbnail images from (larger) original images.
+ * Images are scaled in process with javax.imageio, on as many threads as there are processors, so no portal classes
+ * need to be loaded. Besides the thumbnail itself, a thumbnail is created for every additional scale, eg
+ * thumbnail@2x.png for high resolution displays.
  *
  * @author Jelmer Kuperus
  */
@@ -47,16 +53,18 @@ public class BuildThumbnail extends DefaultTask {
      */
     public static final int DEFAULT_WIDTH = 160;
 
-    private FileCollection classpath;
-
     private File originalFile;
 
     private File thumbnailFile;
 
+    private final Map<File, File> thumbnails = new LinkedHashMap<File, File>();
+
     private int height = DEFAULT_HEIGHT;
 
     private int width = DEFAULT_WIDTH;
 
+    private List<Integer> scales = new ArrayList<Integer>(Arrays.asList(1));
+
     private boolean overwrite = true;
 
     /**
@@ -73,68 +81,92 @@ public class BuildThumbnail extends DefaultTask {
             throw new InvalidUserDataException("Please specify a valid height");
         }
 
-        Java javaTask = new Java();
-        javaTask.setClassname("com.liferay.portal.tools.ThumbnailBuilder");
-
-        Project antProject = getAnt().getAntProject();
-
-        Path antClasspath = new Path(antProject);
-
-        for (File dep : getClasspath()) {
-            antClasspath.createPathElement()
-                    .setLocation(dep);
+        for (Integer scale : getScales()) {
+            if (scale == null || scale <= 0) {
+                throw new InvalidUserDataException("Please specify valid scales");
+            }
         }
 
-        javaTask.setProject(antProject);
-        javaTask.setClasspath(antClasspath);
-
-        javaTask.createArg()
-                .setLine("thumbnail.original.file=" + getOriginalFile().getAbsolutePath());
-
-        javaTask.createArg()
-                .setLine("thumbnail.thumbnail.file=" + getThumbnailFile().getAbsolutePath());
+        List<ScaleCallable> jobs = new ArrayList<ScaleCallable>();
+        for (Map.Entry<File, File> thumbnail : getAllThumbnails().entrySet()) {
+            for (Integer scale : getScales()) {
+                File target = scaledFile(thumbnail.getValue(), scale);
 
-        javaTask.createArg()
-                .setLine("thumbnail.height=" + getHeight());
-
-        javaTask.createArg()
-                .setLine("thumbnail.width=" + getWidth());
+                // the thumbnail may be hard linked to the parent theme of the portal, scaling replaces the file
+                if (getOverwrite() || !target.exists()) {
+                    jobs.add(new ScaleCallable(thumbnail.getKey(), target, getWidth() * scale, getHeight() * scale));
+                }
+            }
+        }
 
-        javaTask.createArg()
-                .setLine("thumbnail.overwrite=" + getOverwrite());
+        if (jobs.isEmpty()) {
+            return;
+        }
 
-        javaTask.execute();
+        try {
+            ParallelJobs.run(jobs);
+        } catch (IOException e) {
+            throw new GradleException("Could not build thumbnail", e);
+        }
 
+        getLogger().info("Built {} thumbnails", jobs.size());
+    }
 
-//						<java
-//							classname="com.liferay.portal.tools.ThumbnailBuilder"
-//							classpathref="portal.classpath"
-//						>
-//							<arg value="thumbnail.original.file=@{file}" />
-//							<arg value="thumbnail.thumbnail.file=${thumbnail.file}" />
-//							<arg value="thumbnail.height=120" />
-//							<arg value="thumbnail.width=160" />
-//							<arg value="thumbnail.overwrite=false" />
-//						</java>
+    /**
+     * Adds an image to create a thumbnail of, besides the original file. The thumbnail gets the same size and
+     * scales as the thumbnail of the original file.
+     *
+     * @param originalFile the image based on which the thumbnail will be created
+     * @param thumbnailFile the location to which the generated thumbnail will be written
+     */
+    public void thumbnail(File originalFile, File thumbnailFile) {
+        thumbnails.put(originalFile, thumbnailFile);
     }
 
     /**
-     * Returns the file collection that contains the classes required to run buildThumbnail.
+     * Returns all images thumbnails are created of.
      *
-     * @return the file collection that contains the classes required to run buildThumbnail
+     * @return all images thumbnails are created of
      */
     @InputFiles
-    public FileCollection getClasspath() {
-        return classpath;
+    public List<File> getOriginalFiles() {
+        return new ArrayList<File>(getAllThumbnails().keySet());
     }
 
     /**
-     * Sets the file collection that contains the classes required to run buildThumbnail.
+     * Returns all thumbnails that are created, at every scale.
      *
-     * @param classpath the file collection that contains the classes required to run buildThumbnail
+     * @return all thumbnails that are created, at every scale
      */
-    public void setClasspath(FileCollection classpath) {
-        this.classpath = classpath;
+    @OutputFiles
+    public List<File> getThumbnailFiles() {
+        List<File> files = new ArrayList<File>();
+        for (File thumbnail : getAllThumbnails().values()) {
+            for (Integer scale : getScales()) {
+                files.add(scaledFile(thumbnail, scale));
+            }
+        }
+        return files;
+    }
+
+    private Map<File, File> getAllThumbnails() {
+        Map<File, File> all = new LinkedHashMap<File, File>();
+        if (getOriginalFile() != null && getThumbnailFile() != null) {
+            all.put(getOriginalFile(), getThumbnailFile());
+        }
+        all.putAll(thumbnails);
+        return all;
+    }
+
+    private static File scaledFile(File file, int scale) {
+        if (scale == 1) {
+            return file;
+        }
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        String scaledName = index < 0 ? name + "@" + scale + "x"
+                : name.substring(0, index) + "@" + scale + "x" + name.substring(index);
+        return new File(file.getParentFile(), scaledName);
     }
 
     /**
@@ -142,7 +174,6 @@ public class BuildThumbnail extends DefaultTask {
      *
      * @return a file pointing to the original image based on which the thumbnail will be created
      */
-    @InputFile
     public File getOriginalFile() {
         return originalFile;
     }
@@ -162,7 +193,6 @@ public class BuildThumbnail extends DefaultTask {
      *
      * @return the file pointing to the location to which the generated thumbnail will be written
      */
-    @OutputFile
     public File getThumbnailFile() {
         return thumbnailFile;
     }
@@ -216,6 +246,26 @@ public class BuildThumbnail extends DefaultTask {
         this.width = width;
     }
 
+    /**
+     * Returns the scales at which thumbnails are created.
+     *
+     * @return the scales at which thumbnails are created
+     */
+    @Input
+    public List<Integer> getScales() {
+        return scales;
+    }
+
+    /**
+     * Sets the scales at which thumbnails are created. A thumbnail at scale 2 is twice as wide and twice as high
+     * and gets the name of the thumbnail with @2x appended, eg thumbnail@2x.png. If unset this value defaults to 1
+     *
+     * @param scales the scales at which thumbnails are created
+     */
+    public void setScales(List<Integer> scales) {
+        this.scales = scales;
+    }
+
     /**
      * Returns true if generated thumbnail images should overwrite images at the output location. False otherwise
      *
@@ -235,4 +285,24 @@ public class BuildThumbnail extends DefaultTask {
     public void setOverwrite(boolean overwrite) {
         this.overwrite = overwrite;
     }
+
+    private static final class ScaleCallable implements Callable<Void> {
+        private final File source;
+        private final File target;
+        private final int width;
+        private final int height;
+
+        private ScaleCallable(File source, File target, int width, int height) {
+            this.source = source;
+            this.target = target;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            ImageScaler.scale(source, target, width, height);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Implementation of {@link URLClassLoader} that looks for classes and resources in its own urls before asking its
+ * parent. Classes of the JDK are always loaded by the parent. Used to run the Liferay SDK tools in the build
+ * process without the libraries of gradle leaking into them.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ChildFirstClassLoader extends URLClassLoader {
+
+    private static final String[] PARENT_FIRST_PACKAGES = {
+        "java.", "javax.", "sun.", "com.sun.", "org.w3c.dom.", "org.xml.sax."
+    };
+
+    /**
+     * Constructs a new ChildFirstClassLoader.
+     *
+     * @param urls the urls to load classes and resources from
+     * @param parent the parent class loader
+     */
+    ChildFirstClassLoader(URL[] urls, ClassLoader parent) {
+        super(urls, parent);
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> loadedClass = findLoadedClass(name);
+
+        if (loadedClass == null && isParentFirst(name)) {
+            try {
+                loadedClass = getParent().loadClass(name);
+            } catch (ClassNotFoundException e) {
+                // eg javax.servlet, which is not part of the JDK
+            }
+        }
+
+        if (loadedClass == null) {
+            try {
+                loadedClass = findClass(name);
+            } catch (ClassNotFoundException e) {
+                loadedClass = getParent().loadClass(name);
+            }
+        }
+
+        if (resolve) {
+            resolveClass(loadedClass);
+        }
+        return loadedClass;
+    }
+
+    @Override
+    public URL getResource(String name) {
+        URL resource = findResource(name);
+        if (resource == null) {
+            resource = getParent().getResource(name);
+        }
+        return resource;
+    }
+
+    private static boolean isParentFirst(String className) {
+        for (String packageName : PARENT_FIRST_PACKAGES) {
+            if (className.startsWith(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
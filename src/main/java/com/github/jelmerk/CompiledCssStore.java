@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedList;
+
+/**
+ * Keeps the css compiled from css files in a folder that is shared by the builds of all projects of a user. Compiled
+ * css is stored by the content of the css file, the content of the files it imports and the compiler, so css files
+ * that are the same in several projects or branches are only compiled once.
+ *
+ * @author Jelmer Kuperus
+ */
+final class CompiledCssStore {
+
+    private final File dir;
+
+    private final String compilerKey;
+
+    /**
+     * Constructs a new CompiledCssStore.
+     *
+     * @param dir the folder that holds the compiled css
+     * @param compilerKey identifies the compiler and its version, css compiled by other compilers is not used
+     */
+    CompiledCssStore(File dir, String compilerKey) {
+        this.dir = dir;
+        this.compilerKey = compilerKey;
+    }
+
+    /**
+     * Returns the key the css compiled from a css file is stored under. The files it imports are identified by their
+     * path relative to the css file and their content, so the key does not depend on where the css file is.
+     * Imports of files outside the sass folder are only identified by the import statement.
+     *
+     * @param sassDir the sass folder
+     * @param path the path of the css file
+     * @param graph the imports of the css files in the sass folder
+     * @return the key
+     * @throws IOException when one of the files cannot be read
+     */
+    String key(File sassDir, String path, SassImportGraph graph) throws IOException {
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, compilerKey);
+        Hashing.update(digest, Hashing.cachedHash(new File(sassDir, path)));
+        for (String imported : graph.withImports(Collections.singleton(path))) {
+            File file = new File(sassDir, imported);
+            if (imported.equals(path) || !file.isFile()) {
+                continue;
+            }
+            Hashing.update(digest, relativize(path, imported));
+            Hashing.update(digest, Hashing.cachedHash(file));
+        }
+        return Hashing.hex(digest.digest());
+    }
+
+    /**
+     * Copies stored css to a cache file, if there is css stored under the key.
+     *
+     * @param key the key of the css
+     * @param cacheFile the cache file to write
+     * @return true if css was stored under the key
+     * @throws IOException when the css cannot be copied
+     */
+    boolean restore(String key, File cacheFile) throws IOException {
+        File entry = entryFile(key);
+        if (!entry.isFile()) {
+            return false;
+        }
+
+        // the cache may be hard linked to an earlier copy, never write through the link
+        FileOperations.mkdirs(cacheFile.getParentFile());
+        FileOperations.delete(cacheFile);
+        FileOperations.copyFile(entry, cacheFile);
+        return true;
+    }
+
+    /**
+     * Stores the css in a cache file under a key.
+     *
+     * @param key the key of the css
+     * @param cacheFile the cache file that holds the css
+     * @throws IOException when the css cannot be stored
+     */
+    void store(String key, File cacheFile) throws IOException {
+        File entry = entryFile(key);
+        if (entry.isFile()) {
+            return;
+        }
+
+        // written to a temporary file first, so other builds never read a partially written entry
+        FileOperations.mkdirs(dir);
+        File tempFile = File.createTempFile(entry.getName(), ".tmp", dir);
+        try {
+            FileOperations.copyFile(cacheFile, tempFile);
+            if (!tempFile.renameTo(entry) && !entry.isFile()) {
+                throw new IOException("Could not rename " + tempFile + " to " + entry);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(dir, key + ".css");
+    }
+
+    private static String relativize(String path, String other) {
+        LinkedList<String> from = new LinkedList<String>();
+        String[] segments = path.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            from.add(segments[i]);
+        }
+        LinkedList<String> to = new LinkedList<String>();
+        for (String segment : other.split("/")) {
+            to.add(segment);
+        }
+
+        while (!from.isEmpty() && to.size() > 1 && from.getFirst().equals(to.getFirst())) {
+            from.removeFirst();
+            to.removeFirst();
+        }
+
+        StringBuilder relative = new StringBuilder();
+        for (int i = 0; i < from.size(); i++) {
+            relative.append("../");
+        }
+        for (String segment : to) {
+            if (relative.length() > 0 && relative.charAt(relative.length() - 1) != '/') {
+                relative.append('/');
+            }
+            relative.append(segment);
+        }
+        return relative.toString();
+    }
+}
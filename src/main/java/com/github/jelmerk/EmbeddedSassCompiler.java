@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.GradleException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles css files in the build process with the pure java sass compiler of Vaadin, which only needs a few small
+ * libraries instead of the portal classpath. The compiler is loaded once for every classpath and kept for as long as
+ * the plugin is loaded, so with the Gradle daemon compiling a file takes milliseconds instead of the seconds it takes
+ * to start the Liferay tool.
+ * <p/>
+ * The compiler keeps global state, one file is compiled at a time for every classpath. It does not know the
+ * additions Liferay makes to sass, eg the compass mixins of older portal versions.
+ *
+ * @author Jelmer Kuperus
+ */
+final class EmbeddedSassCompiler implements SassCompiler {
+
+    /**
+     * The library that holds the compiler.
+     */
+    static final String DEFAULT_DEPENDENCY = "com.vaadin:vaadin-sass-compiler:0.9.13";
+
+    private static final String STYLESHEET_CLASS_NAME = "com.vaadin.sass.internal.ScssStylesheet";
+
+    private static final String CACHE_DIR_NAME = ".sass-cache";
+
+    private static final int MAX_CACHED_ENGINES = 2;
+
+    private static final Map<String, Engine> ENGINES = new EngineCache(MAX_CACHED_ENGINES);
+
+    private final List<File> classpath;
+
+    /**
+     * Constructs a new EmbeddedSassCompiler.
+     *
+     * @param classpath the classpath that holds the compiler and its dependencies
+     */
+    EmbeddedSassCompiler(Iterable<File> classpath) {
+        this.classpath = new ArrayList<File>();
+        for (File file : classpath) {
+            this.classpath.add(file);
+        }
+    }
+
+    @Override
+    public void compile(File dir, List<String> paths) {
+        Engine engine = getEngine();
+        for (String path : paths) {
+            File file = new File(dir, path);
+            File cacheFile = new File(new File(file.getParentFile(), CACHE_DIR_NAME), file.getName());
+            try {
+                String css = engine.compile(file);
+
+                FileOperations.mkdirs(cacheFile.getParentFile());
+                FileOperations.delete(cacheFile);
+                OutputStream out = new FileOutputStream(cacheFile);
+                try {
+                    out.write(css.getBytes("UTF-8"));
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw new GradleException("Could not compile " + file, e);
+            }
+        }
+    }
+
+    private Engine getEngine() {
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.updateClasspath(digest, classpath);
+        String key = Hashing.hex(digest.digest());
+
+        synchronized (ENGINES) {
+            Engine engine = ENGINES.get(key);
+            if (engine == null) {
+                engine = new Engine(classpath);
+                ENGINES.put(key, engine);
+            }
+            return engine;
+        }
+    }
+
+    private static final class Engine {
+        private final ClassLoader classLoader;
+        private final Method getMethod;
+        private final Method compileMethod;
+        private final Method printStateMethod;
+
+        private Engine(List<File> classpath) {
+            URL[] urls = new URL[classpath.size()];
+            for (int i = 0; i < urls.length; i++) {
+                try {
+                    urls[i] = classpath.get(i).toURI().toURL();
+                } catch (MalformedURLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            // the parent of the system class loader only holds the JDK, nothing of gradle can leak into the compiler
+            classLoader = new ChildFirstClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+            try {
+                Class<?> stylesheetClass = Class.forName(STYLESHEET_CLASS_NAME, true, classLoader);
+                getMethod = stylesheetClass.getMethod("get", String.class);
+                compileMethod = stylesheetClass.getMethod("compile");
+                printStateMethod = stylesheetClass.getMethod("printState");
+            } catch (ClassNotFoundException e) {
+                throw new GradleException("The embedded sass compiler is not on the sass classpath, add "
+                        + DEFAULT_DEPENDENCY, e);
+            } catch (NoSuchMethodException e) {
+                throw new GradleException("Unsupported version of the embedded sass compiler on the sass classpath", e);
+            }
+        }
+
+        private synchronized String compile(File file) throws IOException {
+            ClassLoader previousContextClassLoader = Thread.currentThread().getContextClassLoader();
+            Thread.currentThread().setContextClassLoader(classLoader);
+            try {
+                Object stylesheet = getMethod.invoke(null, file.getAbsolutePath());
+                if (stylesheet == null) {
+                    throw new IOException("Could not read " + file);
+                }
+                compileMethod.invoke(stylesheet);
+                return (String) printStateMethod.invoke(stylesheet);
+            } catch (IllegalAccessException e) {
+                throw new IOException("Unsupported version of the embedded sass compiler on the sass classpath", e);
+            } catch (InvocationTargetException e) {
+                throw new IOException("The embedded sass compiler failed", e.getCause());
+            } finally {
+                Thread.currentThread().setContextClassLoader(previousContextClassLoader);
+            }
+        }
+    }
+
+    private static final class EngineCache extends LinkedHashMap<String, Engine> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private EngineCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Engine> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Places a file at a new location by hard linking it, by cloning it on file systems that support copy on write or
+ * by copying it. When a link or clone cannot be made, eg because the source is on another file system, the file is
+ * copied instead, so materializing a file always succeeds when a plain copy would.
+ * <p/>
+ * A hard link shares its content with the source, writing to it changes the source as well. Targets are therefore
+ * always deleted first, which breaks an existing link, and whoever writes to a materialized file must do the same.
+ * <p/>
+ * Clones are made by cp, which is started once per folder rather than once per file. Files that are cloned are
+ * therefore only in place after {@link #finish()} is called.
+ *
+ * @author Jelmer Kuperus
+ */
+final class FileMaterializer {
+
+    /**
+     * Copies files.
+     */
+    static final String COPY = "copy";
+
+    /**
+     * Hard links files, copies them when that fails.
+     */
+    static final String HARD_LINK = "hardlink";
+
+    /**
+     * Clones files on file systems that support copy on write, copies them when that fails.
+     */
+    static final String REFLINK = "reflink";
+
+    /**
+     * All supported strategies.
+     */
+    static final List<String> STRATEGIES = Arrays.asList(COPY, HARD_LINK, REFLINK);
+
+    private static final boolean MAC_OS = System.getProperty("os.name", "").toLowerCase().contains("mac");
+
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase().contains("windows");
+
+    // keeps the command line of cp well below the limits of the operating system
+    private static final int MAX_FILES_PER_CLONE = 500;
+
+    private final String strategy;
+
+    private volatile boolean linkingSupported = true;
+
+    private int linked;
+
+    private int copied;
+
+    // the sources of the files that still have to be cloned by their name, by the folder they are cloned into
+    private final Map<File, Map<String, File>> pendingClones = new LinkedHashMap<File, Map<String, File>>();
+
+    /**
+     * Constructs a new FileMaterializer.
+     *
+     * @param strategy one of {@link #STRATEGIES}
+     */
+    FileMaterializer(String strategy) {
+        if (!STRATEGIES.contains(strategy)) {
+            throw new IllegalArgumentException("Unknown materialization strategy " + strategy);
+        }
+        this.strategy = strategy;
+    }
+
+    /**
+     * Places a file at a new location, replacing what was there. With the reflink strategy the file may only be in
+     * place after {@link #finish()} is called.
+     *
+     * @param source the file
+     * @param target the new location
+     * @throws IOException when the file can neither be linked nor copied
+     */
+    void materialize(File source, File target) throws IOException {
+        FileOperations.mkdirs(target.getParentFile());
+        FileOperations.delete(target);
+
+        if (linkingSupported && REFLINK.equals(strategy) && !WINDOWS && source.getName().equals(target.getName())) {
+            synchronized (this) {
+                Map<String, File> sources = pendingClones.get(target.getParentFile());
+                if (sources == null) {
+                    sources = new LinkedHashMap<String, File>();
+                    pendingClones.put(target.getParentFile(), sources);
+                }
+                sources.put(target.getName(), source);
+            }
+            return;
+        }
+
+        if (linkingSupported && !COPY.equals(strategy)) {
+            boolean success = HARD_LINK.equals(strategy) ? hardLink(source, target) : reflink(source, target);
+            if (success) {
+                synchronized (this) {
+                    linked++;
+                }
+                return;
+            }
+            FileOperations.delete(target);
+        }
+
+        FileOperations.copyFile(source, target);
+        synchronized (this) {
+            copied++;
+        }
+    }
+
+    /**
+     * Places the files that are still to be cloned, copying them when they cannot be cloned.
+     *
+     * @throws IOException when a file can neither be cloned nor copied
+     */
+    void finish() throws IOException {
+        Map<File, Map<String, File>> clones;
+        synchronized (this) {
+            clones = new LinkedHashMap<File, Map<String, File>>(pendingClones);
+            pendingClones.clear();
+        }
+
+        for (Map.Entry<File, Map<String, File>> entry : clones.entrySet()) {
+            List<File> sources = new ArrayList<File>(entry.getValue().values());
+            for (int start = 0; start < sources.size(); start += MAX_FILES_PER_CLONE) {
+                List<File> batch = sources.subList(start, Math.min(sources.size(), start + MAX_FILES_PER_CLONE));
+                if (linkingSupported && cloneInto(batch, entry.getKey())) {
+                    synchronized (this) {
+                        linked += batch.size();
+                    }
+                    continue;
+                }
+                for (File source : batch) {
+                    File target = new File(entry.getKey(), source.getName());
+                    FileOperations.delete(target);
+                    FileOperations.copyFile(source, target);
+                }
+                synchronized (this) {
+                    copied += batch.size();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of files that were linked or cloned.
+     *
+     * @return the number of files that were linked or cloned
+     */
+    synchronized int getLinkedCount() {
+        return linked;
+    }
+
+    /**
+     * Returns the number of files that were copied.
+     *
+     * @return the number of files that were copied
+     */
+    synchronized int getCopiedCount() {
+        return copied;
+    }
+
+    private boolean hardLink(File source, File target) throws IOException {
+        try {
+            // java.nio.file is not available on java 6, which this plugin still supports
+            Class<?> filesClass = Class.forName("java.nio.file.Files");
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Method toPath = File.class.getMethod("toPath");
+            Method createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+
+            createLink.invoke(null, toPath.invoke(target), toPath.invoke(source));
+            return true;
+        } catch (ClassNotFoundException e) {
+            linkingSupported = false;
+        } catch (NoSuchMethodException e) {
+            linkingSupported = false;
+        } catch (IllegalAccessException e) {
+            linkingSupported = false;
+        } catch (InvocationTargetException e) {
+            // eg the source and the target are on different file systems, try the next file
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                linkingSupported = false;
+            }
+        }
+        return false;
+    }
+
+    private boolean reflink(File source, File target) throws IOException {
+        if (WINDOWS) {
+            linkingSupported = false;
+            return false;
+        }
+        return cp(Arrays.asList(source.getAbsolutePath(), target.getAbsolutePath()), source);
+    }
+
+    private boolean cloneInto(List<File> sources, File dir) throws IOException {
+        // cp places every source in the folder under its own name, the way they were queued
+        List<String> paths = new ArrayList<String>();
+        for (File source : sources) {
+            paths.add(source.getAbsolutePath());
+        }
+        paths.add(dir.getAbsolutePath());
+        return cp(paths, dir);
+    }
+
+    private boolean cp(List<String> paths, File subject) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add("cp");
+        command.add(MAC_OS ? "-c" : "--reflink=always");
+        command.addAll(paths);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            linkingSupported = false;
+            return false;
+        }
+
+        try {
+            process.getOutputStream().close();
+            FileOperations.copy(process.getInputStream(), new NullOutputStream());
+            if (process.waitFor() == 0) {
+                return true;
+            }
+            // the file system does not support copy on write, it will not for the next files either
+            linkingSupported = false;
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while cloning " + subject);
+        } finally {
+            process.getInputStream().close();
+            process.destroy();
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            // discard
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // discard
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * File helpers shared by the tasks and tool runners that work on files outside of ant and gradle.
+ *
+ * @author Jelmer Kuperus
+ */
+final class FileOperations {
+
+    private FileOperations() {
+    }
+
+    /**
+     * Copies a file, overwriting the target if it exists.
+     *
+     * @param source the file to copy
+     * @param target the file to copy to
+     * @throws IOException when the file cannot be copied
+     */
+    static void copyFile(File source, File target) throws IOException {
+        InputStream in = new FileInputStream(source);
+        try {
+            OutputStream out = new FileOutputStream(target);
+            try {
+                copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies a file unless the target already has the same content.
+     *
+     * @param source the file to copy
+     * @param target the file to copy to
+     * @return true if the file was copied, false if the target was already up to date
+     * @throws IOException when the file cannot be copied
+     */
+    static boolean copyFileIfChanged(File source, File target) throws IOException {
+        if (contentEquals(source, target)) {
+            return false;
+        }
+        mkdirs(target.getParentFile());
+        copyFile(source, target);
+        return true;
+    }
+
+    /**
+     * Returns true if two files exist and have the same content.
+     *
+     * @param file the first file
+     * @param other the second file
+     * @return true if both files exist and have the same content
+     * @throws IOException when one of the files cannot be read
+     */
+    static boolean contentEquals(File file, File other) throws IOException {
+        return file.isFile() && other.isFile() && file.length() == other.length()
+                && Hashing.hash(file).equals(Hashing.hash(other));
+    }
+
+    /**
+     * Copies the remaining bytes of a stream to another stream. Neither stream is closed.
+     *
+     * @param in the stream to read from
+     * @param out the stream to write to
+     * @throws IOException when reading or writing fails
+     */
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Creates a directory and its parents if it does not exist yet.
+     *
+     * @param dir the directory to create
+     * @throws IOException when the directory cannot be created
+     */
+    static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+    }
+
+    /**
+     * Deletes a file or a directory and everything in it. Does nothing if the file does not exist.
+     *
+     * @param file the file or directory to delete
+     * @throws IOException when something cannot be deleted
+     */
+    static void delete(File file) throws IOException {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    delete(child);
+                }
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hashing helpers shared by the tasks that need to detect content changes.
+ *
+ * @author Jelmer Kuperus
+ */
+final class Hashing {
+
+    // jars on tool classpaths rarely change, so remember their hashes for as long as the plugin is loaded
+    private static final Map<String, String> FILE_HASHES = new ConcurrentHashMap<String, String>();
+
+    private Hashing() {
+    }
+
+    /**
+     * Returns a new MD5 message digest.
+     *
+     * @return a new MD5 message digest
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds a string to a digest. Values are separated so "ab","c" and "a","bc" hash differently.
+     *
+     * @param digest the digest to update
+     * @param value the value to add
+     */
+    static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+            digest.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds the content of a file to a digest.
+     *
+     * @param digest the digest to update
+     * @param file the file whose content to add
+     * @throws IOException when the file cannot be read
+     */
+    static void update(MessageDigest digest, File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the hex encoded hash of the content of a file.
+     *
+     * @param file the file to hash
+     * @return the hex encoded hash of the content of the file
+     * @throws IOException when the file cannot be read
+     */
+    static String hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, file);
+        return hex(digest.digest());
+    }
+
+    /**
+     * Adds a classpath to a digest. Jars are identified by path, length and modification time. Directories are
+     * identified by path only, class loaders read them on demand so changes to their content are picked up anyway.
+     *
+     * @param digest the digest to update
+     * @param classpath the classpath to add
+     */
+    static void updateClasspath(MessageDigest digest, Iterable<File> classpath) {
+        for (File file : classpath) {
+            update(digest, file.getAbsolutePath());
+            if (file.isFile()) {
+                update(digest, String.valueOf(file.length()));
+                update(digest, String.valueOf(file.lastModified()));
+            }
+        }
+    }
+
+    /**
+     * Returns a hash of the content of a collection of files and directories. Directories are hashed by the
+     * relative paths and content of the files they contain. The hash of a file is remembered for as long as its
+     * length and modification time do not change.
+     *
+     * @param files the files to hash
+     * @return the hex encoded hash of the content of the files
+     * @throws IOException when one of the files cannot be read
+     */
+    static String contentFingerprint(Iterable<File> files) throws IOException {
+        MessageDigest digest = newDigest();
+        for (File file : files) {
+            updateTree(digest, file, file.getName());
+        }
+        return hex(digest.digest());
+    }
+
+    private static void updateTree(MessageDigest digest, File file, String relativePath) throws IOException {
+        if (file.isFile()) {
+            update(digest, relativePath);
+            update(digest, cachedHash(file));
+        } else if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    updateTree(digest, child, relativePath + "/" + child.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the hex encoded hash of the content of a file. The hash is remembered for as long as the length and
+     * modification time of the file do not change.
+     *
+     * @param file the file to hash
+     * @return the hex encoded hash of the content of the file
+     * @throws IOException when the file cannot be read
+     */
+    static String cachedHash(File file) throws IOException {
+        String key = file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+        String hash = FILE_HASHES.get(key);
+        if (hash == null) {
+            hash = hash(file);
+            FILE_HASHES.put(key, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the hex encoded hash of a byte array.
+     *
+     * @param bytes the bytes to hash
+     * @return the hex encoded hash of the bytes
+     */
+    static String hash(byte[] bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes);
+        return hex(digest.digest());
+    }
+
+    /**
+     * Hex encodes a digest.
+     *
+     * @param bytes the digest
+     * @return the hex encoded digest
+     */
+    static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
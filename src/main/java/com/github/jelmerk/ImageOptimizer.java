@@ -0,0 +1,552 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Recompresses PNG, GIF and JPEG images without changing a single pixel.
+ * <ul>
+ *     <li>PNG images lose their text and time chunks and their image data is filtered and deflated again with every
+ *     filter and deflate strategy, the smallest result is kept</li>
+ *     <li>GIF images lose their comments and application extensions other than the ones that control animation</li>
+ *     <li>JPEG images lose their comments and all application segments other than JFIF, ICC profiles and Adobe color
+ *     transforms. Exif data is kept when it rotates the image</li>
+ * </ul>
+ * Images that cannot be parsed or do not get any smaller are returned as they are.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ImageOptimizer {
+
+    /**
+     * Changes whenever the optimizer produces different output, so cached results of older versions are not used.
+     */
+    static final String VERSION = "1";
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    // ancillary chunks that change how an image is displayed, all other ancillary chunks are metadata
+    private static final List<String> PNG_DISPLAY_CHUNKS = Arrays.asList("tRNS", "gAMA", "cHRM", "sRGB", "iCCP",
+            "sBIT", "bKGD", "hIST", "pHYs", "sPLT");
+
+    private static final int[] DEFLATE_STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED};
+
+    private static final int ADAPTIVE_FILTER = -1;
+
+    private static final int[] PNG_FILTERS = {0, 1, 2, 3, 4, ADAPTIVE_FILTER};
+
+    private ImageOptimizer() {
+    }
+
+    /**
+     * Returns true if images with an extension can be optimized.
+     *
+     * @param extension the extension of the image, without the dot
+     * @return true if images with the extension can be optimized
+     */
+    static boolean supports(String extension) {
+        String lowerCase = extension.toLowerCase();
+        return "png".equals(lowerCase) || "gif".equals(lowerCase) || "jpg".equals(lowerCase)
+                || "jpeg".equals(lowerCase);
+    }
+
+    /**
+     * Optimizes an image.
+     *
+     * @param content the content of the image
+     * @param extension the extension of the image, without the dot
+     * @return the content of the optimized image, the original content if it cannot be optimized
+     */
+    static byte[] optimize(byte[] content, String extension) {
+        String lowerCase = extension.toLowerCase();
+        byte[] result;
+        try {
+            if ("png".equals(lowerCase)) {
+                result = optimizePng(content);
+            } else if ("gif".equals(lowerCase)) {
+                result = optimizeGif(content);
+            } else if ("jpg".equals(lowerCase) || "jpeg".equals(lowerCase)) {
+                result = optimizeJpeg(content);
+            } else {
+                result = null;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // truncated or otherwise malformed image, leave it to the browser
+            result = null;
+        }
+        return result != null && result.length < content.length ? result : content;
+    }
+
+    private static byte[] optimizePng(byte[] content) {
+        if (!startsWith(content, PNG_SIGNATURE)) {
+            return null;
+        }
+
+        List<byte[]> chunksBeforeData = new ArrayList<byte[]>();
+        List<byte[]> chunksAfterData = new ArrayList<byte[]>();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] header = null;
+        boolean dataSeen = false;
+
+        int offset = PNG_SIGNATURE.length;
+        while (offset < content.length) {
+            int length = readInt(content, offset);
+            String type = new String(content, offset + 4, 4);
+            if (length < 0 || offset + 12 + length > content.length) {
+                return null;
+            }
+            byte[] chunk = Arrays.copyOfRange(content, offset, offset + 12 + length);
+            offset += 12 + length;
+
+            if ("IHDR".equals(type)) {
+                header = Arrays.copyOfRange(chunk, 8, 8 + length);
+                chunksBeforeData.add(chunk);
+            } else if ("IDAT".equals(type)) {
+                compressed.write(chunk, 8, length);
+                dataSeen = true;
+            } else if ("IEND".equals(type)) {
+                break;
+            } else if ("acTL".equals(type) || "fcTL".equals(type) || "fdAT".equals(type)) {
+                // animated png, frames are stored outside the image data
+                return null;
+            } else if (Character.isUpperCase(type.charAt(0)) || PNG_DISPLAY_CHUNKS.contains(type)) {
+                (dataSeen ? chunksAfterData : chunksBeforeData).add(chunk);
+            }
+        }
+
+        if (header == null || header.length != 13 || !dataSeen) {
+            return null;
+        }
+
+        byte[] filtered = inflate(compressed.toByteArray());
+        if (filtered == null) {
+            return null;
+        }
+
+        byte[] smallest = compressed.toByteArray();
+
+        for (byte[] candidate : refilter(header, filtered)) {
+            for (int strategy : DEFLATE_STRATEGIES) {
+                byte[] deflated = deflate(candidate, strategy);
+                if (deflated.length < smallest.length) {
+                    smallest = deflated;
+                }
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+        out.write(PNG_SIGNATURE, 0, PNG_SIGNATURE.length);
+        for (byte[] chunk : chunksBeforeData) {
+            out.write(chunk, 0, chunk.length);
+        }
+        writeChunk(out, "IDAT", smallest);
+        for (byte[] chunk : chunksAfterData) {
+            out.write(chunk, 0, chunk.length);
+        }
+        writeChunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    private static List<byte[]> refilter(byte[] header, byte[] filtered) {
+        List<byte[]> candidates = new ArrayList<byte[]>();
+        candidates.add(filtered);
+
+        int width = readInt(header, 0);
+        int height = readInt(header, 4);
+        int bitDepth = header[8] & 0xff;
+        int colorType = header[9] & 0xff;
+        int interlace = header[12] & 0xff;
+
+        int channels = channels(colorType);
+        if (interlace != 0 || channels == 0 || width <= 0 || height <= 0) {
+            // the image data is only deflated again
+            return candidates;
+        }
+
+        int bitsPerPixel = channels * bitDepth;
+        int bytesPerPixel = Math.max(1, bitsPerPixel / 8);
+        long stride = ((long) width * bitsPerPixel + 7) / 8;
+        if ((stride + 1) * height != filtered.length) {
+            return candidates;
+        }
+
+        byte[] pixels = unfilter(filtered, (int) stride, height, bytesPerPixel);
+        if (pixels == null) {
+            return candidates;
+        }
+
+        for (int filter : PNG_FILTERS) {
+            candidates.add(filter(pixels, (int) stride, height, bytesPerPixel, filter));
+        }
+        return candidates;
+    }
+
+    private static int channels(int colorType) {
+        switch (colorType) {
+            case 0:
+            case 3:
+                return 1;
+            case 2:
+                return 3;
+            case 4:
+                return 2;
+            case 6:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    private static byte[] unfilter(byte[] filtered, int stride, int height, int bytesPerPixel) {
+        byte[] pixels = new byte[stride * height];
+        for (int row = 0; row < height; row++) {
+            int filter = filtered[row * (stride + 1)];
+            int in = row * (stride + 1) + 1;
+            int out = row * stride;
+            for (int i = 0; i < stride; i++) {
+                int raw = filtered[in + i] & 0xff;
+                int left = i >= bytesPerPixel ? pixels[out + i - bytesPerPixel] & 0xff : 0;
+                int up = row > 0 ? pixels[out - stride + i] & 0xff : 0;
+                int upLeft = row > 0 && i >= bytesPerPixel ? pixels[out - stride + i - bytesPerPixel] & 0xff : 0;
+                int predicted;
+                switch (filter) {
+                    case 0:
+                        predicted = 0;
+                        break;
+                    case 1:
+                        predicted = left;
+                        break;
+                    case 2:
+                        predicted = up;
+                        break;
+                    case 3:
+                        predicted = (left + up) >>> 1;
+                        break;
+                    case 4:
+                        predicted = paeth(left, up, upLeft);
+                        break;
+                    default:
+                        return null;
+                }
+                pixels[out + i] = (byte) (raw + predicted);
+            }
+        }
+        return pixels;
+    }
+
+    private static byte[] filter(byte[] pixels, int stride, int height, int bytesPerPixel, int filter) {
+        byte[] filtered = new byte[(stride + 1) * height];
+        byte[] row = new byte[stride];
+        for (int y = 0; y < height; y++) {
+            int out = y * (stride + 1);
+            if (filter == ADAPTIVE_FILTER) {
+                // the filter with the smallest sum of absolute differences, the heuristic libpng uses
+                int best = 0;
+                long bestSum = Long.MAX_VALUE;
+                for (int candidate = 0; candidate <= 4; candidate++) {
+                    filterRow(pixels, y, stride, bytesPerPixel, candidate, row);
+                    long sum = 0;
+                    for (byte b : row) {
+                        sum += Math.abs((int) b);
+                    }
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        best = candidate;
+                    }
+                }
+                filterRow(pixels, y, stride, bytesPerPixel, best, row);
+                filtered[out] = (byte) best;
+            } else {
+                filterRow(pixels, y, stride, bytesPerPixel, filter, row);
+                filtered[out] = (byte) filter;
+            }
+            System.arraycopy(row, 0, filtered, out + 1, stride);
+        }
+        return filtered;
+    }
+
+    private static void filterRow(byte[] pixels, int y, int stride, int bytesPerPixel, int filter, byte[] row) {
+        int in = y * stride;
+        for (int i = 0; i < stride; i++) {
+            int raw = pixels[in + i] & 0xff;
+            int left = i >= bytesPerPixel ? pixels[in + i - bytesPerPixel] & 0xff : 0;
+            int up = y > 0 ? pixels[in - stride + i] & 0xff : 0;
+            int upLeft = y > 0 && i >= bytesPerPixel ? pixels[in - stride + i - bytesPerPixel] & 0xff : 0;
+            int predicted;
+            switch (filter) {
+                case 1:
+                    predicted = left;
+                    break;
+                case 2:
+                    predicted = up;
+                    break;
+                case 3:
+                    predicted = (left + up) >>> 1;
+                    break;
+                case 4:
+                    predicted = paeth(left, up, upLeft);
+                    break;
+                default:
+                    predicted = 0;
+                    break;
+            }
+            row[i] = (byte) (raw - predicted);
+        }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+
+    private static byte[] inflate(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[65536];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] data, int strategy) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setStrategy(strategy);
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[65536];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+        byte[] typeBytes = type.getBytes();
+        writeInt(out, data.length);
+        out.write(typeBytes, 0, typeBytes.length);
+        out.write(data, 0, data.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static byte[] optimizeGif(byte[] content) {
+        if (!startsWith(content, "GIF87a".getBytes()) && !startsWith(content, "GIF89a".getBytes())) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+
+        int offset = 13;
+        int packed = content[10] & 0xff;
+        if ((packed & 0x80) != 0) {
+            offset += 3 * (1 << ((packed & 0x07) + 1));
+        }
+        out.write(content, 0, offset);
+
+        while (true) {
+            int blockType = content[offset] & 0xff;
+            if (blockType == 0x3b) {
+                // anything after the trailer is ignored by decoders
+                out.write(0x3b);
+                return out.toByteArray();
+            } else if (blockType == 0x21) {
+                int label = content[offset + 1] & 0xff;
+                int end = skipSubBlocks(content, offset + 2);
+                boolean keep = label == 0xf9 || label == 0x01
+                        || label == 0xff && isAnimationExtension(content, offset + 2);
+                if (keep) {
+                    out.write(content, offset, end - offset);
+                }
+                offset = end;
+            } else if (blockType == 0x2c) {
+                int start = offset;
+                int imagePacked = content[offset + 9] & 0xff;
+                offset += 10;
+                if ((imagePacked & 0x80) != 0) {
+                    offset += 3 * (1 << ((imagePacked & 0x07) + 1));
+                }
+                // the minimum code size of the lzw compressed image data
+                offset = skipSubBlocks(content, offset + 1);
+                out.write(content, start, offset - start);
+            } else {
+                return null;
+            }
+        }
+    }
+
+    private static boolean isAnimationExtension(byte[] content, int offset) {
+        if ((content[offset] & 0xff) != 11) {
+            return false;
+        }
+        String identifier = new String(content, offset + 1, 11);
+        return "NETSCAPE2.0".equals(identifier) || "ANIMEXTS1.0".equals(identifier);
+    }
+
+    private static int skipSubBlocks(byte[] content, int offset) {
+        int position = offset;
+        while (true) {
+            int size = content[position] & 0xff;
+            position++;
+            if (size == 0) {
+                return position;
+            }
+            position += size;
+        }
+    }
+
+    private static byte[] optimizeJpeg(byte[] content) {
+        if ((content[0] & 0xff) != 0xff || (content[1] & 0xff) != 0xd8) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+        out.write(content, 0, 2);
+
+        int offset = 2;
+        while (true) {
+            if ((content[offset] & 0xff) != 0xff) {
+                return null;
+            }
+            int marker = content[offset + 1] & 0xff;
+            if (marker == 0xff) {
+                // fill byte
+                offset++;
+                continue;
+            }
+            if (marker == 0x01 || marker >= 0xd0 && marker <= 0xd7) {
+                out.write(content, offset, 2);
+                offset += 2;
+                continue;
+            }
+
+            if (marker == 0xda) {
+                // start of scan, the rest is entropy coded image data
+                out.write(content, offset, content.length - offset);
+                return out.toByteArray();
+            }
+
+            int length = ((content[offset + 2] & 0xff) << 8) | (content[offset + 3] & 0xff);
+            int end = offset + 2 + length;
+            if (length < 2 || end > content.length) {
+                return null;
+            }
+
+            boolean metadata = marker == 0xfe
+                    || marker >= 0xe1 && marker <= 0xef && marker != 0xe2 && marker != 0xee;
+            if (!metadata || marker == 0xe1 && isRotated(content, offset + 4, end)) {
+                out.write(content, offset, end - offset);
+            }
+            offset = end;
+        }
+    }
+
+    private static boolean isRotated(byte[] content, int offset, int end) {
+        // an exif segment starts with Exif\0\0 followed by a tiff header and the first image file directory
+        if (end - offset < 14 || !"Exif".equals(new String(content, offset, 4))) {
+            return false;
+        }
+        int tiff = offset + 6;
+        boolean littleEndian = content[tiff] == 'I';
+        int directory = tiff + readInt(content, tiff + 4, littleEndian);
+        if (directory < tiff || directory + 2 > end) {
+            return false;
+        }
+        int entries = readShort(content, directory, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = directory + 2 + i * 12;
+            if (entry + 12 > end) {
+                return false;
+            }
+            if (readShort(content, entry, littleEndian) == 0x0112) {
+                return readShort(content, entry + 8, littleEndian) != 1;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] content, byte[] prefix) {
+        if (content.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readInt(bytes, offset, false);
+    }
+
+    private static int readInt(byte[] bytes, int offset, boolean littleEndian) {
+        int b0 = bytes[offset] & 0xff;
+        int b1 = bytes[offset + 1] & 0xff;
+        int b2 = bytes[offset + 2] & 0xff;
+        int b3 = bytes[offset + 3] & 0xff;
+        return littleEndian ? (b3 << 24) | (b2 << 16) | (b1 << 8) | b0 : (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+    }
+
+    private static int readShort(byte[] bytes, int offset, boolean littleEndian) {
+        int b0 = bytes[offset] & 0xff;
+        int b1 = bytes[offset + 1] & 0xff;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
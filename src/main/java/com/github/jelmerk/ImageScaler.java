@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Scales images with javax.imageio, the same way the ThumbnailBuilder of Liferay does: the image is scaled to fit
+ * the requested width and height while keeping its aspect ratio. Images are scaled down in steps of at most half
+ * their size, which gives a much better result than scaling down in one step with bilinear or bicubic
+ * interpolation, and is much faster than area averaging.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ImageScaler {
+
+    private ImageScaler() {
+    }
+
+    /**
+     * Scales an image file and writes the result in the format that matches the extension of the target file.
+     *
+     * @param source the image to scale
+     * @param target the file to write the scaled image to
+     * @param width the maximum width of the scaled image
+     * @param height the maximum height of the scaled image
+     * @throws IOException when the image cannot be read or written
+     */
+    static void scale(File source, File target, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(source);
+        if (image == null) {
+            throw new IOException("Unsupported image format " + source);
+        }
+
+        String format = formatOf(target);
+        boolean opaque = "jpg".equals(format) || "jpeg".equals(format) || "bmp".equals(format);
+
+        BufferedImage scaled = scale(image, width, height, opaque);
+
+        FileOperations.mkdirs(target.getParentFile());
+        FileOperations.delete(target);
+        if (!ImageIO.write(scaled, format, target)) {
+            throw new IOException("Unsupported image format " + target);
+        }
+    }
+
+    /**
+     * Scales an image to fit a width and height, keeping its aspect ratio.
+     *
+     * @param image the image to scale
+     * @param width the maximum width of the scaled image
+     * @param height the maximum height of the scaled image
+     * @param opaque true if the scaled image must not have an alpha channel, eg because it is written as a jpeg
+     * @return the scaled image
+     */
+    static BufferedImage scale(BufferedImage image, int width, int height, boolean opaque) {
+        double factor = Math.min((double) width / image.getWidth(), (double) height / image.getHeight());
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * factor));
+
+        int type = opaque || image.getTransparency() == Transparency.OPAQUE
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+        BufferedImage result = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+
+        do {
+            // halve the image until the next step is the last one, every step samples all the pixels of the last
+            if (currentWidth / 2 >= targetWidth && currentHeight / 2 >= targetHeight) {
+                currentWidth /= 2;
+                currentHeight /= 2;
+            } else {
+                currentWidth = targetWidth;
+                currentHeight = targetHeight;
+            }
+            result = draw(result, currentWidth, currentHeight, type);
+        } while (currentWidth != targetWidth || currentHeight != targetHeight);
+
+        return result;
+    }
+
+    private static BufferedImage draw(BufferedImage image, int width, int height, int type) {
+        BufferedImage result = new BufferedImage(width, height, type);
+        Graphics2D graphics = result.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                // transparent pixels would otherwise turn black
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+            }
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return result;
+    }
+
+    private static String formatOf(File file) {
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        return index < 0 ? "png" : name.substring(index + 1).toLowerCase();
+    }
+}
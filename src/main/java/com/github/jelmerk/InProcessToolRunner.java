@@ -0,0 +1,257 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the Liferay SDK tools inside the build process, so warm runs skip starting a JVM and loading the classes of
+ * the tool. Every classpath gets its own isolated, child first class loader that is kept for as long as the plugin is
+ * loaded, so with the Gradle daemon the classes of a tool are only loaded once.
+ * <p/>
+ * A JVM has a single set of system properties and security manager, so only one tool runs in process at a time.
+ * Invocations that arrive while a tool is running are handed to the {@link ToolWorkerPool}, as are invocations
+ * that cannot run in process: tools whose calls to System.exit cannot be trapped and tools that expect files
+ * relative to their working directory. Relative paths resolve against the working directory of the build process,
+ * which is shared by every build of the daemon, so working dir files are never written there. Instead every working
+ * dir file needs a loader, a static method of the tool that is called with the file in the class loader of the tool,
+ * see {@link ToolInvocation#setWorkingDirFileLoader(String, String, String)}. Only the output of the thread that
+ * runs the tool, and of the threads it starts, is captured.
+ *
+ * @author Jelmer Kuperus
+ */
+public final class InProcessToolRunner implements ToolRunner {
+
+    private static final Logger LOGGER = Logging.getLogger(InProcessToolRunner.class);
+
+    private static final int MAX_CACHED_CLASS_LOADERS = 4;
+
+    private static final InProcessToolRunner INSTANCE = new InProcessToolRunner();
+
+    // set on the thread that runs the tool and on the threads it starts
+    private static final ThreadLocal<Boolean> TOOL_THREAD = new InheritableThreadLocal<Boolean>();
+
+    private final Map<String, ClassLoader> classLoaders = new ClassLoaderCache(MAX_CACHED_CLASS_LOADERS);
+
+    private boolean running;
+
+    private InProcessToolRunner() {
+    }
+
+    /**
+     * Returns the runner shared by all tasks in this JVM.
+     *
+     * @return the runner shared by all tasks in this JVM
+     */
+    public static InProcessToolRunner getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs a tool in the build process. When another tool is already running in process, or the tool cannot run
+     * in process, it is run in a worker JVM instead.
+     *
+     * @param invocation the tool invocation
+     * @param listener receives the output of the tool as it is produced
+     * @return the exit code of the tool, 0 when the tool returned normally
+     */
+    @Override
+    public int execute(ToolInvocation invocation, ToolOutputListener listener) {
+        if (!canLoadWorkingDirFiles(invocation)) {
+            LOGGER.info("Cannot provide the working dir files of {} in process, using a worker JVM",
+                    invocation.getMainClassName());
+            return ToolWorkerPool.getInstance().execute(invocation, listener);
+        }
+
+        // system properties and the security manager belong to the whole JVM, so only one tool runs in process.
+        // Others run in a worker JVM rather than waiting, so tools started by parallel tasks still run in parallel
+
+        if (!start()) {
+            LOGGER.info("Another tool is running in process, running {} in a worker JVM",
+                    invocation.getMainClassName());
+            return ToolWorkerPool.getInstance().execute(invocation, listener);
+        }
+
+        try {
+            MainMethodRunner runner = MainMethodRunner.install();
+            try {
+                if (!runner.canTrapExit()) {
+                    LOGGER.info("Cannot trap System.exit calls of {} in process, using a worker JVM",
+                            invocation.getMainClassName());
+                    return ToolWorkerPool.getInstance().execute(invocation, listener);
+                }
+                return run(runner, invocation, listener);
+            } finally {
+                runner.uninstall();
+            }
+        } finally {
+            finish();
+        }
+    }
+
+    private synchronized boolean start() {
+        if (running) {
+            return false;
+        }
+        running = true;
+        return true;
+    }
+
+    private synchronized void finish() {
+        running = false;
+    }
+
+    private int run(MainMethodRunner runner, ToolInvocation invocation, ToolOutputListener listener) {
+        ClassLoader classLoader = getClassLoader(invocation.getClasspath());
+
+        PrintStream previousOut = System.out;
+        PrintStream previousErr = System.err;
+        ClassLoader previousContextClassLoader = Thread.currentThread().getContextClassLoader();
+
+        // only what the tool prints is captured, other tasks keep printing to the streams they printed to
+
+        PrintStream out = new PrintStream(new LineForwardingOutputStream(listener), true);
+
+        TOOL_THREAD.set(Boolean.TRUE);
+        System.setOut(new PrintStream(new ToolThreadOutputStream(out, previousOut), true));
+        System.setErr(new PrintStream(new ToolThreadOutputStream(out, previousErr), true));
+        Thread.currentThread().setContextClassLoader(classLoader);
+        try {
+            loadWorkingDirFiles(classLoader, invocation);
+
+            List<String> args = invocation.getArgs();
+            MainMethodRunner.Result result = runner.run(classLoader, invocation.getMainClassName(),
+                    args.toArray(new String[args.size()]), invocation.getSystemProperties());
+
+            out.flush();
+            if (result.getFailure().length() > 0) {
+                listener.onOutput(result.getFailure());
+            }
+            return result.getExitCode();
+        } finally {
+            Thread.currentThread().setContextClassLoader(previousContextClassLoader);
+            System.setOut(previousOut);
+            System.setErr(previousErr);
+            TOOL_THREAD.remove();
+        }
+    }
+
+    private ClassLoader getClassLoader(List<File> classpath) {
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.updateClasspath(digest, classpath);
+        String key = Hashing.hex(digest.digest());
+
+        ClassLoader classLoader = classLoaders.get(key);
+        if (classLoader == null) {
+            URL[] urls = new URL[classpath.size()];
+            for (int i = 0; i < urls.length; i++) {
+                try {
+                    urls[i] = classpath.get(i).toURI().toURL();
+                } catch (MalformedURLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            // the parent of the system class loader only holds the JDK, nothing of gradle can leak into the tool
+            classLoader = new ChildFirstClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+            classLoaders.put(key, classLoader);
+        }
+        return classLoader;
+    }
+
+    private static boolean canLoadWorkingDirFiles(ToolInvocation invocation) {
+        return invocation.getWorkingDirFileLoaders().keySet().containsAll(invocation.getWorkingDirFiles().keySet());
+    }
+
+    private static void loadWorkingDirFiles(ClassLoader classLoader, ToolInvocation invocation) {
+        Map<String, ToolInvocation.FileLoader> loaders = invocation.getWorkingDirFileLoaders();
+        for (Map.Entry<String, File> entry : invocation.getWorkingDirFiles().entrySet()) {
+            ToolInvocation.FileLoader loader = loaders.get(entry.getKey());
+            try {
+                Class.forName(loader.getClassName(), true, classLoader)
+                        .getMethod(loader.getMethodName(), File.class)
+                        .invoke(null, entry.getValue());
+            } catch (InvocationTargetException e) {
+                throw new GradleException("Could not load " + entry.getValue() + " with "
+                        + loader.getClassName() + "." + loader.getMethodName(), e.getCause());
+            } catch (Exception e) {
+                throw new GradleException("Could not load " + entry.getValue() + " with "
+                        + loader.getClassName() + "." + loader.getMethodName(), e);
+            }
+        }
+    }
+
+    private static final class ToolThreadOutputStream extends OutputStream {
+        private final OutputStream toolOut;
+        private final OutputStream otherOut;
+
+        private ToolThreadOutputStream(OutputStream toolOut, OutputStream otherOut) {
+            this.toolOut = toolOut;
+            this.otherOut = otherOut;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            current().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            current().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            toolOut.flush();
+            otherOut.flush();
+        }
+
+        private OutputStream current() {
+            return TOOL_THREAD.get() == null ? otherOut : toolOut;
+        }
+    }
+
+    private static final class ClassLoaderCache extends LinkedHashMap<String, ClassLoader> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private ClassLoaderCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ClassLoader> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
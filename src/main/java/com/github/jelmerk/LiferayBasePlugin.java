@@ -17,9 +17,11 @@
 package com.github.jelmerk;
 
 import org.gradle.BuildAdapter;
+import org.gradle.BuildResult;
 import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.api.plugins.WarPlugin;
 import org.gradle.api.tasks.bundling.War;
@@ -49,6 +51,16 @@ public class LiferayBasePlugin implements Plugin<Project> {
      */
     public static final String DEPLOY_TASK_NAME = "deploy";
 
+    /**
+     * The name of the task that optimizes the images of the plugin.
+     */
+    public static final String OPTIMIZE_IMAGES_TASK_NAME = "optimizeImages";
+
+    /**
+     * The name of the configuration that holds the classes required to run sassToCss.
+     */
+    public static final String SASS_CONFIGURATION_NAME = "sass";
+
     /**
      * {@inheritDoc}
      */
@@ -59,6 +71,13 @@ public class LiferayBasePlugin implements Plugin<Project> {
 
         configureDeployTaskDefaults(project);
         configureDeployTask(project);
+
+        configureToolWorkerPool(project);
+
+        configureOptimizeImagesTaskDefaults(project);
+
+        createSassConfiguration(project);
+        configureSassToCssTaskDefaults(project);
     }
 
     private void createLiferayExtension(Project project) {
@@ -80,6 +99,155 @@ public class LiferayBasePlugin implements Plugin<Project> {
         deploy.dependsOn(warTask);
     }
 
+    private void configureOptimizeImagesTaskDefaults(Project project) {
+        project.getGradle().addBuildListener(new OptimizeImagesTaskDefaultsBuildListener(project));
+    }
+
+    private void createSassConfiguration(Project project) {
+        project.getConfigurations().create(SASS_CONFIGURATION_NAME)
+            .setVisible(false)
+            .setDescription("The sass configuration");
+    }
+
+    private void configureSassToCssTaskDefaults(Project project) {
+        project.getGradle().addBuildListener(new SassToCssTaskDefaultsBuildListener(project));
+    }
+
+    private void configureToolWorkerPool(Project project) {
+        project.getGradle().addBuildListener(new ToolWorkerPoolBuildListener(project));
+    }
+
+    private static final class ToolWorkerPoolBuildListener extends BuildAdapter {
+        private final Project project;
+
+        private ToolWorkerPoolBuildListener(Project project) {
+            this.project = project;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            LiferayPluginExtension liferayExtension = project.getExtensions()
+                    .getByType(LiferayPluginExtension.class);
+
+            ToolWorkerPool.getInstance().configure(liferayExtension.getWorkerPoolSize(),
+                    liferayExtension.getWorkerIdleTimeout(), liferayExtension.getWorkerMinHeapSize(),
+                    liferayExtension.getWorkerMaxHeapSize());
+        }
+
+        @Override
+        public void buildFinished(BuildResult result) {
+            LiferayPluginExtension liferayExtension = project.getExtensions()
+                    .getByType(LiferayPluginExtension.class);
+
+            if (!liferayExtension.getReuseWorkersAcrossBuilds()) {
+                ToolWorkerPool.getInstance().shutdown();
+            }
+        }
+    }
+
+    private static final class OptimizeImagesTaskDefaultsBuildListener extends BuildAdapter {
+        private final Project project;
+
+        private OptimizeImagesTaskDefaultsBuildListener(Project project) {
+            this.project = project;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            project.getTasks().withType(OptimizeImages.class, new SetOptimizeImagesTaskDefaultsAction(project));
+        }
+
+        private static final class SetOptimizeImagesTaskDefaultsAction implements Action<OptimizeImages> {
+            private final Project project;
+
+            private SetOptimizeImagesTaskDefaultsAction(Project project) {
+                this.project = project;
+            }
+
+            @Override
+            public void execute(OptimizeImages task) {
+                LiferayPluginExtension liferayExtension = project.getExtensions()
+                        .getByType(LiferayPluginExtension.class);
+
+                if (task.getCacheDir() == null) {
+                    task.setCacheDir(liferayExtension.getImageCacheDir());
+                }
+
+                // the task the plugins add is only enabled on request, tasks added by a build script always are
+                if (OPTIMIZE_IMAGES_TASK_NAME.equals(task.getName()) && !liferayExtension.getOptimizeImages()) {
+                    task.setEnabled(false);
+                }
+            }
+        }
+    }
+
+    private static final class SassToCssTaskDefaultsBuildListener extends BuildAdapter {
+        private final Project project;
+
+        private SassToCssTaskDefaultsBuildListener(Project project) {
+            this.project = project;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+
+            // only plugins that process sass need the portal classpath
+            if (project.getTasks().withType(SassToCss.class).isEmpty()) {
+                return;
+            }
+
+            LiferayPluginExtension liferayPluginExtension = project.getExtensions()
+                    .findByType(LiferayPluginExtension.class);
+
+            Configuration sassConfiguration = project.getConfigurations().getByName(SASS_CONFIGURATION_NAME);
+
+            if (sassConfiguration.getDependencies().isEmpty()
+                    && SassToCss.EMBEDDED_ENGINE.equals(liferayPluginExtension.getSassEngine())) {
+
+                // the embedded compiler does not need the portal
+                project.getDependencies().add(SASS_CONFIGURATION_NAME, EmbeddedSassCompiler.DEFAULT_DEPENDENCY);
+            } else if (sassConfiguration.getDependencies().isEmpty()) {
+
+                project.getDependencies().add(SASS_CONFIGURATION_NAME, "javax.servlet:servlet-api:2.5");
+                project.getDependencies().add(SASS_CONFIGURATION_NAME, "javax.servlet.jsp:jsp-api:2.1");
+                project.getDependencies().add(SASS_CONFIGURATION_NAME, "javax.activation:activation:1.1");
+
+                project.getDependencies().add(SASS_CONFIGURATION_NAME,
+                        liferayPluginExtension.getPortalClasspath());
+            }
+
+            project.getTasks().withType(SassToCss.class,
+                    new SetSassToCssTaskDefaultsAction(sassConfiguration, liferayPluginExtension));
+        }
+
+        private static final class SetSassToCssTaskDefaultsAction implements Action<SassToCss> {
+            private final Configuration sassConfiguration;
+            private final LiferayPluginExtension liferayPluginExtension;
+
+            private SetSassToCssTaskDefaultsAction(Configuration sassConfiguration,
+                                                   LiferayPluginExtension liferayPluginExtension) {
+                this.sassConfiguration = sassConfiguration;
+                this.liferayPluginExtension = liferayPluginExtension;
+            }
+
+            @Override
+            public void execute(SassToCss task) {
+                if (task.getClasspath() == null) {
+                    task.setClasspath(sassConfiguration);
+                }
+                if (task.getAppServerPortalDir() == null) {
+                    task.setAppServerPortalDir(liferayPluginExtension.getAppServerPortalDir());
+                }
+                if (task.getEngine() == null) {
+                    task.setEngine(liferayPluginExtension.getSassEngine());
+                }
+                if (task.getCacheDir() == null) {
+                    task.setCacheDir(liferayPluginExtension.getSassCacheDir());
+                }
+            }
+        }
+    }
+
     private static final class DeployTaskDefaultsBuildListener extends BuildAdapter {
         private final Project project;
 
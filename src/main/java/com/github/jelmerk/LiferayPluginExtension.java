@@ -44,6 +44,18 @@ public class LiferayPluginExtension {
 
     private String autoDeployDirName;
 
+    private Integer workerPoolSize;
+    private int workerIdleTimeout = ToolWorkerPool.DEFAULT_IDLE_TIMEOUT;
+    private String workerMinHeapSize;
+    private String workerMaxHeapSize;
+    private boolean reuseWorkersAcrossBuilds;
+
+    private boolean optimizeImages;
+    private String imageCacheDirName;
+
+    private String sassEngine = SassToCss.LIFERAY_ENGINE;
+    private String sassCacheDirName;
+
     /**
      * Constructs a new LiferayPluginExtension.
      *
@@ -145,6 +157,205 @@ public class LiferayPluginExtension {
         this.autoDeployDirName = autoDeployDirName;
     }
 
+    /**
+     * Returns the maximum number of JVMs that are kept around to run the Liferay SDK tools.
+     *
+     * @return the maximum number of JVMs that are kept around to run the Liferay SDK tools
+     */
+    public Integer getWorkerPoolSize() {
+        return workerPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of JVMs that are kept around to run the Liferay SDK tools. If unset the pool grows to
+     * the number of available processors, or to the number of tools a task runs at the same time when that is
+     * higher, eg the maxParallelServices of the servicebuilder extension or the sass workers of a theme
+     *
+     * @param workerPoolSize the maximum number of JVMs that are kept around to run the Liferay SDK tools
+     */
+    public void setWorkerPoolSize(Integer workerPoolSize) {
+        this.workerPoolSize = workerPoolSize;
+    }
+
+    /**
+     * Returns the number of seconds a tool JVM may be idle before it is stopped.
+     *
+     * @return the number of seconds a tool JVM may be idle before it is stopped
+     */
+    public int getWorkerIdleTimeout() {
+        return workerIdleTimeout;
+    }
+
+    /**
+     * Sets the number of seconds a tool JVM may be idle before it is stopped.
+     * If unset this value defaults to 300
+     *
+     * @param workerIdleTimeout the number of seconds a tool JVM may be idle before it is stopped
+     */
+    public void setWorkerIdleTimeout(int workerIdleTimeout) {
+        this.workerIdleTimeout = workerIdleTimeout;
+    }
+
+    /**
+     * Returns the initial heap size of the tool JVMs, eg 128m.
+     *
+     * @return the initial heap size of the tool JVMs
+     */
+    public String getWorkerMinHeapSize() {
+        return workerMinHeapSize;
+    }
+
+    /**
+     * Sets the initial heap size of the tool JVMs, eg 128m. If unset the JVM default is used.
+     *
+     * @param workerMinHeapSize the initial heap size of the tool JVMs
+     */
+    public void setWorkerMinHeapSize(String workerMinHeapSize) {
+        this.workerMinHeapSize = workerMinHeapSize;
+    }
+
+    /**
+     * Returns the maximum heap size of the tool JVMs, eg 512m.
+     *
+     * @return the maximum heap size of the tool JVMs
+     */
+    public String getWorkerMaxHeapSize() {
+        return workerMaxHeapSize;
+    }
+
+    /**
+     * Sets the maximum heap size of the tool JVMs, eg 512m. If unset the JVM default is used.
+     *
+     * @param workerMaxHeapSize the maximum heap size of the tool JVMs
+     */
+    public void setWorkerMaxHeapSize(String workerMaxHeapSize) {
+        this.workerMaxHeapSize = workerMaxHeapSize;
+    }
+
+    /**
+     * Returns true if the tool JVMs are kept alive after the build finishes so the next build in the same
+     * Gradle daemon can reuse them. False otherwise
+     *
+     * @return true if the tool JVMs are kept alive after the build finishes. False otherwise
+     */
+    public boolean getReuseWorkersAcrossBuilds() {
+        return reuseWorkersAcrossBuilds;
+    }
+
+    /**
+     * Set to true if the tool JVMs should be kept alive after the build finishes so the next build in the same
+     * Gradle daemon can reuse them. Idle workers are still stopped after the idle timeout.
+     * If unset this value defaults to false
+     *
+     * @param reuseWorkersAcrossBuilds true if the tool JVMs are kept alive after the build finishes
+     */
+    public void setReuseWorkersAcrossBuilds(boolean reuseWorkersAcrossBuilds) {
+        this.reuseWorkersAcrossBuilds = reuseWorkersAcrossBuilds;
+    }
+
+    /**
+     * Returns true if the images of the plugin are optimized before they are packaged. False otherwise
+     *
+     * @return true if the images of the plugin are optimized before they are packaged. False otherwise
+     */
+    public boolean getOptimizeImages() {
+        return optimizeImages;
+    }
+
+    /**
+     * Set to true if the PNG, GIF and JPEG images of the plugin should be optimized before they are packaged.
+     * Images are recompressed without changing a single pixel and stripped of metadata.
+     * If unset this value defaults to false
+     *
+     * @param optimizeImages true if the images of the plugin should be optimized before they are packaged
+     */
+    public void setOptimizeImages(boolean optimizeImages) {
+        this.optimizeImages = optimizeImages;
+    }
+
+    /**
+     * Returns the path to the folder that caches optimized images.
+     *
+     * @return the path to the folder that caches optimized images
+     */
+    public String getImageCacheDirName() {
+        if (imageCacheDirName != null) {
+            return imageCacheDirName;
+        }
+        return new File(project.getGradle().getGradleUserHomeDir(), "caches/liferay-plugin/images").getPath();
+    }
+
+    /**
+     * Sets the path to the folder that caches optimized images.
+     * If unset this value defaults to caches/liferay-plugin/images in the gradle user home
+     *
+     * @param imageCacheDirName the path to the folder that caches optimized images
+     */
+    public void setImageCacheDirName(String imageCacheDirName) {
+        this.imageCacheDirName = imageCacheDirName;
+    }
+
+    /**
+     * Returns the compiler css files are compiled with, one of {@link SassToCss#ENGINES}.
+     *
+     * @return the compiler css files are compiled with
+     */
+    public String getSassEngine() {
+        return sassEngine;
+    }
+
+    /**
+     * Sets the compiler css files are compiled with, one of {@link SassToCss#ENGINES}. The embedded engine does not
+     * need the portal to compile, but does not support the additions Liferay makes to sass, eg compass.
+     * If unset this value defaults to "liferay"
+     *
+     * @param sassEngine the compiler css files are compiled with
+     */
+    public void setSassEngine(String sassEngine) {
+        this.sassEngine = sassEngine;
+    }
+
+    /**
+     * Returns the path to the folder that caches compiled css.
+     *
+     * @return the path to the folder that caches compiled css
+     */
+    public String getSassCacheDirName() {
+        if (sassCacheDirName != null) {
+            return sassCacheDirName;
+        }
+        return new File(project.getGradle().getGradleUserHomeDir(), "caches/liferay-plugin/sass").getPath();
+    }
+
+    /**
+     * Sets the path to the folder that caches compiled css. It is shared by all projects, so css files that are the
+     * same in several projects are compiled once.
+     * If unset this value defaults to caches/liferay-plugin/sass in the gradle user home
+     *
+     * @param sassCacheDirName the path to the folder that caches compiled css
+     */
+    public void setSassCacheDirName(String sassCacheDirName) {
+        this.sassCacheDirName = sassCacheDirName;
+    }
+
+    /**
+     * Returns a file pointing to the folder that caches optimized images.
+     *
+     * @return a file pointing to the folder that caches optimized images
+     */
+    public File getImageCacheDir() {
+        return project.file(getImageCacheDirName());
+    }
+
+    /**
+     * Returns a file pointing to the folder that caches compiled css.
+     *
+     * @return a file pointing to the folder that caches compiled css
+     */
+    public File getSassCacheDir() {
+        return project.file(getSassCacheDirName());
+    }
+
     /**
      * Returns a file pointing to the root folder of the application server that Liferay is running in.
      *
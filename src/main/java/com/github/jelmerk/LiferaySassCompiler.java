@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Compiles css files with the SassToCssBuilder tool of Liferay, in a worker JVM with the portal classpath. The tool
+ * compiles every css file in a folder.
+ *
+ * @author Jelmer Kuperus
+ */
+final class LiferaySassCompiler implements SassCompiler {
+
+    private static final String SASS_TO_CSS_BUILDER_CLASS_NAME = "com.liferay.portal.tools.SassToCssBuilder";
+
+    private final Iterable<File> classpath;
+
+    private final File appServerPortalDir;
+
+    private final Logger logger;
+
+    /**
+     * Constructs a new LiferaySassCompiler.
+     *
+     * @param classpath the classes required to run SassToCssBuilder
+     * @param appServerPortalDir the exploded Liferay web application
+     * @param logger receives the output of the tool
+     */
+    LiferaySassCompiler(Iterable<File> classpath, File appServerPortalDir, Logger logger) {
+        this.classpath = classpath;
+        this.appServerPortalDir = appServerPortalDir;
+        this.logger = logger;
+    }
+
+    @Override
+    public void compile(File dir, List<String> paths) {
+        ToolInvocation invocation = new ToolInvocation(SASS_TO_CSS_BUILDER_CLASS_NAME, classpath);
+
+        invocation.addArg("sass.dir=" + dir.getAbsolutePath());
+
+        invocation.setSystemProperty("liferay.lib.portal.dir",
+                new File(appServerPortalDir, "WEB-INF/lib").getAbsolutePath());
+
+        int exitCode = ToolWorkerPool.getInstance().execute(invocation, new LoggingOutputListener(logger));
+
+        if (exitCode != 0) {
+            throw new GradleException("Sass to css builder exited with exit code " + exitCode);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Implementation of {@link OutputStream} that splits what is written to it into lines and passes every line to a
+ * {@link ToolOutputListener}. Used to capture the standard out and standard error of the Liferay SDK tools.
+ * <p/>
+ * This class is loaded in the worker JVMs, so it must not depend on anything but the JDK.
+ *
+ * @author Jelmer Kuperus
+ */
+final class LineForwardingOutputStream extends OutputStream {
+
+    private final ToolOutputListener listener;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * Constructs a new LineForwardingOutputStream.
+     *
+     * @param listener the listener that receives the lines
+     */
+    LineForwardingOutputStream(ToolOutputListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (b == '\n') {
+            flushLine();
+        } else if (b != '\r') {
+            buffer.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (buffer.size() > 0) {
+            flushLine();
+        }
+    }
+
+    private void flushLine() {
+        listener.onOutput(buffer.toString());
+        buffer.reset();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.logging.Logger;
+
+/**
+ * Implementation of {@link ToolOutputListener} that writes the output of a tool to a Gradle logger.
+ *
+ * @author Jelmer Kuperus
+ */
+public class LoggingOutputListener implements ToolOutputListener {
+
+    private final Logger logger;
+
+    /**
+     * Constructs a new LoggingOutputListener.
+     *
+     * @param logger the logger the output is written to
+     */
+    public LoggingOutputListener(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onOutput(String line) {
+        logger.lifecycle(line);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.Permission;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Invokes the main method of a tool without letting calls to System.exit terminate the JVM. Used both by the worker
+ * JVMs and by the in process tool runner.
+ * <p/>
+ * This class is loaded in the worker JVMs, so it must not depend on anything but the JDK.
+ *
+ * @author Jelmer Kuperus
+ */
+final class MainMethodRunner {
+
+    private final ExitTrappingSecurityManager securityManager;
+
+    private MainMethodRunner(ExitTrappingSecurityManager securityManager) {
+        this.securityManager = securityManager;
+    }
+
+    /**
+     * Creates a runner, installing a security manager that traps calls to System.exit when possible. The security
+     * manager allows everything else.
+     *
+     * @return the runner
+     */
+    static MainMethodRunner install() {
+        if (System.getSecurityManager() != null) {
+            // we never replace a security manager somebody else installed
+            return new MainMethodRunner(null);
+        }
+
+        ExitTrappingSecurityManager securityManager = new ExitTrappingSecurityManager();
+        try {
+            System.setSecurityManager(securityManager);
+            return new MainMethodRunner(securityManager);
+        } catch (UnsupportedOperationException e) {
+            // newer JVMs no longer allow installing a security manager at runtime
+            return new MainMethodRunner(null);
+        }
+    }
+
+    /**
+     * Returns true if calls to System.exit made by the tool are trapped. False otherwise
+     *
+     * @return true if calls to System.exit made by the tool are trapped. False otherwise
+     */
+    boolean canTrapExit() {
+        return securityManager != null;
+    }
+
+    /**
+     * Removes the security manager installed by {@link #install()}.
+     */
+    void uninstall() {
+        if (securityManager != null && System.getSecurityManager() == securityManager) {
+            System.setSecurityManager(null);
+        }
+    }
+
+    /**
+     * Runs the main method of a class.
+     *
+     * @param classLoader the class loader to load the class from
+     * @param className the name of the class
+     * @param args the arguments passed to the main method
+     * @param systemProperties the system properties that are set for the duration of the run
+     * @return the result of the run
+     */
+    Result run(ClassLoader classLoader, String className, String[] args, Map<String, String> systemProperties) {
+        Map<String, String> previousSystemProperties = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : systemProperties.entrySet()) {
+            previousSystemProperties.put(entry.getKey(), System.setProperty(entry.getKey(), entry.getValue()));
+        }
+
+        int exitCode = 0;
+        String failure = "";
+
+        if (securityManager != null) {
+            securityManager.setTrapExit(true);
+        }
+        try {
+            Method mainMethod = Class.forName(className, true, classLoader).getMethod("main", String[].class);
+            mainMethod.invoke(null, (Object) args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof ExitException) {
+                exitCode = ((ExitException) e.getCause()).getStatus();
+            } else {
+                exitCode = 1;
+                failure = stackTraceOf(e.getCause());
+            }
+        } catch (Exception e) {
+            exitCode = 1;
+            failure = stackTraceOf(e);
+        } finally {
+            if (securityManager != null) {
+                securityManager.setTrapExit(false);
+            }
+            restoreSystemProperties(previousSystemProperties);
+        }
+        return new Result(exitCode, failure);
+    }
+
+    private static void restoreSystemProperties(Map<String, String> previousSystemProperties) {
+        for (Map.Entry<String, String> entry : previousSystemProperties.entrySet()) {
+            if (entry.getValue() == null) {
+                System.clearProperty(entry.getKey());
+            } else {
+                System.setProperty(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static String stackTraceOf(Throwable throwable) {
+        StringWriter writer = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    /**
+     * The outcome of running a main method.
+     */
+    static final class Result {
+        private final int exitCode;
+        private final String failure;
+
+        private Result(int exitCode, String failure) {
+            this.exitCode = exitCode;
+            this.failure = failure;
+        }
+
+        /**
+         * Returns the exit code, 0 when the main method returned normally.
+         *
+         * @return the exit code
+         */
+        int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * Returns the stack trace of the exception the main method threw, or an empty string.
+         *
+         * @return the stack trace of the exception the main method threw, or an empty string
+         */
+        String getFailure() {
+            return failure;
+        }
+    }
+
+    private static final class ExitTrappingSecurityManager extends SecurityManager {
+        private volatile boolean trapExit;
+
+        private void setTrapExit(boolean trapExit) {
+            this.trapExit = trapExit;
+        }
+
+        @Override
+        public void checkPermission(Permission perm) {
+            // allow everything
+        }
+
+        @Override
+        public void checkPermission(Permission perm, Object context) {
+            // allow everything
+        }
+
+        @Override
+        public void checkExit(int status) {
+            if (trapExit) {
+                throw new ExitException(status);
+            }
+        }
+    }
+
+    private static final class ExitException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private ExitException(int status) {
+            super("Tool called System.exit(" + status + ")");
+            this.status = status;
+        }
+
+        private int getStatus() {
+            return status;
+        }
+    }
+}
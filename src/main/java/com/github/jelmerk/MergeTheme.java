@@ -16,27 +16,49 @@
 
 package com.github.jelmerk;
 
-import org.apache.tools.ant.taskdefs.Copy;
-import org.apache.tools.ant.types.FileSet;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
 import org.gradle.api.InvalidUserDataException;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Implementation of {@link org.gradle.api.Task} that merges a parent theme and the diffs defined in a theme plugin.
  * When creating a theme in Liferay you usually extend from a parent theme and overwrite only certain files in the
  * childs (the diff)
+ * <p/>
+ * The merge is incremental. A manifest records which layer every file of the theme came from and the hash of its
+ * content, so only files that changed are copied, files of the parent theme are restored when the diff that
+ * replaced them is deleted and files that no layer provides anymore are removed.
+ * <p/>
+ * Parent themes that ship with the portal are read from a {@link ParentThemeCache}, when one is configured, which
+ * knows the files of every theme so the portal does not need to be scanned.
+ * <p/>
+ * With a virtual overlay the theme is not merged at all, the war is packaged straight from the layers by a
+ * {@link ThemeOverlay}.
  *
  * @author Jelmer Kuperus
  */
 public class MergeTheme extends DefaultTask {
 
+    private static final String DIFFS_LAYER_NAME = "diffs";
+
+    private static final String MANIFEST_FILE_NAME = "manifest.properties";
+
+    private static final String SASS_CACHE_EXCLUDES = "**/.sass-cache/**";
+
     private String parentThemeName;
 
     private String parentThemeProjectName;
@@ -45,9 +67,19 @@ public class MergeTheme extends DefaultTask {
 
     private File appServerPortalDir;
 
+    private File parentThemeDir;
+
     private File diffsDir;
     private File outputDir;
 
+    private String materialization;
+
+    private Boolean virtualOverlay;
+
+    private File parentThemeCacheDir;
+
+    private final Map<String, ParentThemeCache.Snapshot> snapshots = new HashMap<String, ParentThemeCache.Snapshot>();
+
     /**
      * Performs the merge theme task.
      */
@@ -57,44 +89,95 @@ public class MergeTheme extends DefaultTask {
             throw new InvalidUserDataException("Please specify either parentThemeName or parentThemeProjectName " +
                     "but not both.");
         }
+
+        if (getMaterialization() != null && !FileMaterializer.STRATEGIES.contains(getMaterialization())) {
+            throw new InvalidUserDataException("Please specify one of " + FileMaterializer.STRATEGIES
+                    + " as materialization");
+        }
+
+        if (getParentThemeName() != null
+                && (getAppServerPortalDir() == null || !getAppServerPortalDir().isDirectory())) {
+            throw new InvalidUserDataException("Please specify an existing appServerPortalDir when using " +
+                    "parentThemeName.");
+        }
+
+        try {
+            if (isVirtualOverlay()) {
+                removeMergedFiles();
+            } else {
+                merge(createLayers());
+            }
+        } finally {
+            snapshots.clear();
+        }
+    }
+
+    /**
+     * Returns the layers the theme is made of, in the order in which they are merged.
+     *
+     * @return the layers the theme is made of
+     */
+    List<ThemeLayer> createLayers() {
+        List<ThemeLayer> layers = new ArrayList<ThemeLayer>();
         if (getParentThemeName() != null) {
-            copyLiferayTheme();
+            addLiferayThemeLayers(layers);
         }
         if (getParentThemeProjectName() != null) {
-            copyProjectTheme();
+            addProjectThemeLayer(layers);
+        }
+        layers.add(new ThemeLayer(DIFFS_LAYER_NAME, getDiffsDir(), null, null, "", false));
+        return layers;
+    }
+
+    /**
+     * Returns the files of a theme made of layers, later layers overwrite the files of earlier layers.
+     *
+     * @param layers the layers the theme is made of
+     * @return the files of the theme by their path relative to the theme, using forward slashes
+     */
+    Map<String, ThemeLayer.ThemeFile> resolveFiles(List<ThemeLayer> layers) {
+
+        // later layers overwrite the files of earlier layers, just like the consecutive copies of the plugins sdk
+
+        Map<String, ThemeLayer.ThemeFile> files = new TreeMap<String, ThemeLayer.ThemeFile>();
+        for (ThemeLayer layer : layers) {
+            layer.addTo(getAnt().getProject(), files);
         }
-        copyDiffs();
+        return files;
     }
 
-    private void copyLiferayTheme() {
+    private void addLiferayThemeLayers(List<ThemeLayer> layers) {
         if ("_unstyled".equals(getParentThemeName())) {
-            copyUnstyledTheme();
+            addUnstyledThemeLayers(layers);
         } else if ("_styled".equals(getParentThemeName())) {
-            copyStyledTheme();
+            addStyledThemeLayers(layers);
         } else if ("classic".equals(getParentThemeName())) {
-            copyClassicTheme();
+            addClassicThemeLayers(layers);
         }
     }
 
-    private void copyProjectTheme() {
-        MergeTheme mergeTask = (MergeTheme) getProject().project(parentThemeProjectName)
-                .getTasks().getByName(ThemePlugin.MERGE_THEME_TASK_NAME);
+    private void addProjectThemeLayer(List<ThemeLayer> layers) {
 
-        mergeTask.execute(); // TODO does not work
+        // the merge task of the parent project is a dependency of this task, its output is complete by now
 
-        File parentThemeOutputDir = mergeTask.getOutputDir();
-        copy(parentThemeOutputDir, null, "WEB-INF", getOutputDir());
+        MergeTheme parentTask = parentThemeDir == null ? getParentMergeTask() : null;
+        if (parentTask != null && parentTask.isVirtualOverlay()) {
+            // the parent theme is not merged, only the files other tasks generated are in its output dir
+            layers.addAll(parentTask.createLayers());
+        }
+        layers.add(new ThemeLayer("parentProject", getParentThemeDir(), null, "WEB-INF", "", false));
     }
 
-    private void copyDiffs() {
-        copy(getDiffsDir(), null, null,  getOutputDir());
+    private MergeTheme getParentMergeTask() {
+        return (MergeTheme) getProject().project(getParentThemeProjectName())
+                .getTasks().getByName(ThemePlugin.MERGE_THEME_TASK_NAME);
     }
 
-    private void copyUnstyledTheme() {
+    private void addUnstyledThemeLayers(List<ThemeLayer> layers) {
 
-        copy(new File(getAppServerPortalDir(), "html/themes/_unstyled"), null, "templates/**", getOutputDir());
-        copy(new File(getAppServerPortalDir(), "html/themes/_unstyled/templates"), "*." + getThemeType(),
-                "init." + getThemeType(), new File(getOutputDir(), "templates"));
+        layers.add(portalThemeLayer("unstyled", "_unstyled", "", null, "templates/**", ""));
+        layers.add(portalThemeLayer("unstyled", "_unstyled", "templates",
+                "*." + getThemeType(), "init." + getThemeType(), "templates"));
 
         /*
             <copy todir="docroot" overwrite="true">
@@ -114,9 +197,9 @@ public class MergeTheme extends DefaultTask {
          */
     }
 
-    private void copyStyledTheme() {
-        copyUnstyledTheme();
-        copy(new File(getAppServerPortalDir(), "html/themes/_styled"), null, null, getOutputDir());
+    private void addStyledThemeLayers(List<ThemeLayer> layers) {
+        addUnstyledThemeLayers(layers);
+        layers.add(portalThemeLayer("styled", "_styled", "", null, null, ""));
 
         /*
             <copy todir="docroot" overwrite="true">
@@ -142,13 +225,9 @@ public class MergeTheme extends DefaultTask {
          */
     }
 
-    private void copyClassicTheme() {
-        copy(new File(getAppServerPortalDir(), "html/themes/classic"), null, "_diffs/**,templates/**",
-                getOutputDir());
-
-        copy(new File(getAppServerPortalDir(), "html/themes/classic/templates"), "*." + getThemeType(), null,
-                new File(getOutputDir(), "templates"));
-
+    private void addClassicThemeLayers(List<ThemeLayer> layers) {
+        layers.add(portalThemeLayer("classic", "classic", "", null, "_diffs/**,templates/**", ""));
+        layers.add(portalThemeLayer("classic", "classic", "templates", "*." + getThemeType(), null, "templates"));
 
         /*
             <copy todir="docroot" overwrite="true">
@@ -167,20 +246,159 @@ public class MergeTheme extends DefaultTask {
          */
     }
 
+    private ThemeLayer portalThemeLayer(String name, String themeName, String path, String includes,
+                                        String portalExcludes, String targetPath) {
 
-    private void copy(File dir, String includes, String excludes, File toDir) {
+        // the portal compiled these caches from the css of its own theme, they would pass for caches of this theme
+        String excludes = portalExcludes == null ? SASS_CACHE_EXCLUDES : portalExcludes + "," + SASS_CACHE_EXCLUDES;
+
+        if (getParentThemeCacheDir() == null) {
+            File dir = new File(getAppServerPortalDir(), "html/themes/" + themeName + "/" + path);
+            return new ThemeLayer(name, dir, includes, excludes, targetPath, true);
+        }
 
-        FileSet fileSet = new FileSet();
-        fileSet.setDir(dir);
-        fileSet.setIncludes(includes);
-        fileSet.setExcludes(excludes);
+        ParentThemeCache.Snapshot snapshot = snapshots.get(themeName);
+        if (snapshot == null) {
+            try {
+                snapshot = new ParentThemeCache(getParentThemeCacheDir()).snapshot(getAppServerPortalDir(), themeName);
+            } catch (IOException e) {
+                throw new GradleException("Could not cache theme " + themeName + " in " + getParentThemeCacheDir(), e);
+            }
+            snapshots.put(themeName, snapshot);
+        }
 
-        Copy copy = new Copy();
-        copy.setTodir(toDir);
-        copy.setOverwrite(true);
-        copy.add(fileSet);
-        copy.setProject(getAnt().getProject());
-        copy.execute();
+        File dir = path.length() == 0 ? snapshot.getDir() : new File(snapshot.getDir(), path);
+        return new ThemeLayer(name, dir, includes, excludes, targetPath, true, snapshot.getFiles(path));
+    }
+
+    private List<String> getPortalThemeNames() {
+        List<String> themeNames = new ArrayList<String>();
+        if ("_unstyled".equals(getParentThemeName())) {
+            themeNames.add("_unstyled");
+        } else if ("_styled".equals(getParentThemeName())) {
+            themeNames.add("_unstyled");
+            themeNames.add("_styled");
+        } else if ("classic".equals(getParentThemeName())) {
+            themeNames.add("classic");
+        }
+        return themeNames;
+    }
+
+    private void removeMergedFiles() {
+
+        // the war is built from the layers, files merged before switching to the overlay would end up in it too
+
+        File manifestFile = new File(getTemporaryDir(), MANIFEST_FILE_NAME);
+        ThemeManifest previous = ThemeManifest.load(manifestFile);
+
+        int removed = 0;
+        try {
+            for (String path : previous.getPaths()) {
+                File output = new File(getOutputDir(), path);
+
+                // files that were modified since were replaced by another task, eg the thumbnail
+                if (previous.get(path).isUnchangedOutput(output)) {
+                    if (!output.delete()) {
+                        throw new IOException("Could not delete " + output);
+                    }
+                    removed++;
+                }
+            }
+            new ThemeManifest().save(manifestFile);
+        } catch (IOException e) {
+            throw new GradleException("Could not remove the merged theme from " + getOutputDir(), e);
+        }
+
+        getLogger().info("Theme is packaged from its layers, removed {} merged files from {}", removed,
+                getOutputDir());
+    }
+
+    private void merge(List<ThemeLayer> layers) {
+        Map<String, ThemeLayer.ThemeFile> files = resolveFiles(layers);
+
+        File manifestFile = new File(getTemporaryDir(), MANIFEST_FILE_NAME);
+        ThemeManifest previous = ThemeManifest.load(manifestFile);
+        ThemeManifest manifest = new ThemeManifest();
+
+        FileMaterializer linker = new FileMaterializer(getMaterialization() == null
+                ? FileMaterializer.COPY : getMaterialization());
+        FileMaterializer copier = new FileMaterializer(FileMaterializer.COPY);
+
+        int unchanged = 0;
+        int removed = 0;
+
+        Map<String, ThemeLayer.ThemeFile> materialized = new TreeMap<String, ThemeLayer.ThemeFile>();
+
+        try {
+            for (Map.Entry<String, ThemeLayer.ThemeFile> entry : files.entrySet()) {
+                ThemeLayer.ThemeFile file = entry.getValue();
+
+                // files that are overridden by a diff are always real copies, the diff may be edited in place
+                FileMaterializer materializer = file.getLayer().isImmutable() ? linker : copier;
+
+                if (mergeFile(entry.getKey(), file, materializer, previous, manifest)) {
+                    materialized.put(entry.getKey(), file);
+                } else {
+                    unchanged++;
+                }
+            }
+
+            linker.finish();
+            copier.finish();
+
+            // only now the merged files are in place, so their size and modification time can be recorded
+
+            for (Map.Entry<String, ThemeLayer.ThemeFile> entry : materialized.entrySet()) {
+                File source = entry.getValue().getSource();
+                manifest.put(entry.getKey(), ThemeManifest.Entry.of(entry.getValue().getLayer().getName(), source,
+                        Hashing.hash(source), new File(getOutputDir(), entry.getKey())));
+            }
+
+            for (String path : previous.getPaths()) {
+                if (!files.containsKey(path)) {
+                    // no layer provides the file anymore, eg a diff was deleted from a theme without a parent
+                    File output = new File(getOutputDir(), path);
+                    if (output.isFile() && !output.delete()) {
+                        throw new IOException("Could not delete " + output);
+                    }
+                    removed++;
+                }
+            }
+
+            manifest.save(manifestFile);
+        } catch (IOException e) {
+            throw new GradleException("Could not merge theme into " + getOutputDir(), e);
+        }
+
+        getLogger().info("Merged theme into {} : {} files merged of which {} linked, {} unchanged, {} removed",
+                getOutputDir(), materialized.size(), linker.getLinkedCount(), unchanged, removed);
+    }
+
+    private boolean mergeFile(String path, ThemeLayer.ThemeFile file, FileMaterializer materializer,
+                              ThemeManifest previous, ThemeManifest manifest) throws IOException {
+        String layerName = file.getLayer().getName();
+        File source = file.getSource();
+        File output = new File(getOutputDir(), path);
+
+        ThemeManifest.Entry previousEntry = previous.get(path);
+
+        if (previousEntry != null && previousEntry.isUnchangedOutput(output)) {
+            if (previousEntry.getLayer().equals(layerName) && previousEntry.isUnchangedSource(source)) {
+                manifest.put(path, previousEntry);
+                return false;
+            }
+
+            // the source was touched or another layer now provides the file, only copy when the content differs
+
+            String hash = Hashing.hash(source);
+            if (hash.equals(previousEntry.getHash())) {
+                manifest.put(path, ThemeManifest.Entry.of(layerName, source, hash, output));
+                return false;
+            }
+        }
+
+        materializer.materialize(source, output);
+        return true;
     }
 
     @Input
@@ -212,7 +430,88 @@ public class MergeTheme extends DefaultTask {
         this.themeType = themeType;
     }
 
+    /**
+     * Returns a fingerprint of the themes of the portal the parent theme is made of, so only these themes are
+     * considered when deciding whether the theme is up to date, not the entire portal. The fingerprint is only used
+     * when the themes are cached, it is kept with the cached themes and checked against the modification times of
+     * the theme folders. Otherwise the themes are inputs, see {@link #getParentThemeLayers()}.
+     *
+     * @return a fingerprint of the themes of the portal or null when the theme does not extend one of them or the
+     *         themes are not cached
+     */
+    @Input
+    @Optional
+    public String getParentThemeFingerprint() {
+        if (getParentThemeCacheDir() == null || !extendsPortalTheme()) {
+            return null;
+        }
+
+        try {
+            StringBuilder fingerprint = new StringBuilder();
+            for (String themeName : getPortalThemeNames()) {
+                fingerprint.append(new ParentThemeCache(getParentThemeCacheDir())
+                        .fingerprint(getAppServerPortalDir(), themeName));
+                fingerprint.append(' ');
+            }
+            return fingerprint.toString().trim();
+        } catch (IOException e) {
+            throw new GradleException("Could not fingerprint the themes in " + getAppServerPortalDir(), e);
+        }
+    }
+
+    /**
+     * Returns the folders of the themes of the portal the parent theme is made of when they are read from the portal
+     * directly, so only these themes are considered when deciding whether the theme is up to date, not the entire
+     * portal.
+     *
+     * @return the folders of the themes of the portal or null when the theme does not extend one of them or the
+     *         themes are cached
+     */
+    @InputFiles
+    @Optional
+    public List<File> getParentThemeLayers() {
+        if (getParentThemeCacheDir() != null || !extendsPortalTheme()) {
+            return null;
+        }
+
+        List<File> themeDirs = new ArrayList<File>();
+        for (String themeName : getPortalThemeNames()) {
+            themeDirs.add(new File(getAppServerPortalDir(), "html/themes/" + themeName));
+        }
+        return themeDirs;
+    }
+
+    private boolean extendsPortalTheme() {
+        return getParentThemeName() != null && getAppServerPortalDir() != null
+                && getAppServerPortalDir().isDirectory();
+    }
+
+    /**
+     * Returns the folder that holds the merged theme of the parent theme project.
+     *
+     * @return the folder that holds the merged theme of the parent theme project or null if the theme does not
+     *         extend a theme project
+     */
     @InputDirectory
+    @Optional
+    public File getParentThemeDir() {
+        if (parentThemeDir != null || getParentThemeProjectName() == null) {
+            return parentThemeDir;
+        }
+        return getParentMergeTask().getOutputDir();
+    }
+
+    /**
+     * Sets the folder that holds the merged theme of the parent theme project. This task must depend on the task
+     * that merges that theme. If unset this value defaults to the output dir of the mergeTheme task of the
+     * parent theme project
+     *
+     * @param parentThemeDir the folder that holds the merged theme of the parent theme project
+     */
+    public void setParentThemeDir(File parentThemeDir) {
+        this.parentThemeDir = parentThemeDir;
+    }
+
     public File getAppServerPortalDir() {
         return appServerPortalDir;
     }
@@ -230,6 +529,78 @@ public class MergeTheme extends DefaultTask {
         this.diffsDir = diffsDir;
     }
 
+    /**
+     * Returns how the files of the parent theme are placed in the output dir.
+     *
+     * @return how the files of the parent theme are placed in the output dir
+     */
+    @Input
+    @Optional
+    public String getMaterialization() {
+        return materialization;
+    }
+
+    /**
+     * Sets how the files of the parent theme that ships with the portal are placed in the output dir. Possible
+     * values are "copy", "hardlink" and "reflink". Hard links and copy on write clones share their content with the
+     * portal, so themes don't each write a copy of the same parent theme to disk. When a link cannot be made the
+     * file is copied. Files of the diffs and of parent theme projects are always copied. With hard links, tasks that
+     * modify merged files must replace them rather than write into them, or they modify the portal as well.
+     * If unset this value defaults to "copy"
+     *
+     * @param materialization how the files of the parent theme are placed in the output dir
+     */
+    public void setMaterialization(String materialization) {
+        this.materialization = materialization;
+    }
+
+    /**
+     * Returns true if the war is packaged straight from the layers of the theme. False otherwise
+     *
+     * @return true if the war is packaged straight from the layers of the theme. False otherwise
+     */
+    @Input
+    @Optional
+    public Boolean getVirtualOverlay() {
+        return virtualOverlay;
+    }
+
+    /**
+     * Set to true if the war should be packaged straight from the layers of the theme instead of from the merged
+     * theme. Files are then read once, by the war task, and the theme is not merged into the output dir. Files that
+     * other tasks write to the output dir, eg the thumbnail, overwrite the files of the layers. If unset this value
+     * defaults to false
+     *
+     * @param virtualOverlay true if the war should be packaged straight from the layers of the theme
+     */
+    public void setVirtualOverlay(Boolean virtualOverlay) {
+        this.virtualOverlay = virtualOverlay;
+    }
+
+    boolean isVirtualOverlay() {
+        return Boolean.TRUE.equals(virtualOverlay);
+    }
+
+    /**
+     * Returns the folder that caches the themes that ship with the portal.
+     *
+     * @return the folder that caches the themes that ship with the portal
+     */
+    public File getParentThemeCacheDir() {
+        return parentThemeCacheDir;
+    }
+
+    /**
+     * Sets the folder that caches the themes that ship with the portal. Every theme is copied there once per portal
+     * version and shared by all projects that use the same folder. Themes are read from the portal directly when
+     * null. If unset this value defaults to null
+     *
+     * @param parentThemeCacheDir the folder that caches the themes that ship with the portal
+     */
+    public void setParentThemeCacheDir(File parentThemeCacheDir) {
+        this.parentThemeCacheDir = parentThemeCacheDir;
+    }
+
     @OutputDirectory
     public File getOutputDir() {
         return outputDir;
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that optimizes the PNG, GIF and JPEG images in a folder without
+ * changing a single pixel, see {@link ImageOptimizer}. Images are optimized on as many threads as there are
+ * processors and the results are cached by the content of the image, so an image is never optimized twice.
+ * <p/>
+ * Optimized images are written to the output dir, at the same path they have in the source dir. Images are optimized
+ * in place when the source dir is the output dir, but then the task never is up to date.
+ *
+ * @author Jelmer Kuperus
+ */
+public class OptimizeImages extends DefaultTask {
+
+    private File sourceDir;
+
+    private File outputDir;
+
+    private File cacheDir;
+
+    private ThemeOverlay themeOverlay;
+
+    /**
+     * Performs the optimize images task.
+     */
+    @TaskAction
+    public void optimizeImages() {
+        Map<String, File> images = collectSources();
+        if (images == null || getOutputDir() == null) {
+            throw new InvalidUserDataException("Please specify a sourceDir and an outputDir");
+        }
+
+        boolean inPlace = getSourceDir() != null
+                && getSourceDir().getAbsoluteFile().equals(getOutputDir().getAbsoluteFile());
+
+        AtomicInteger optimized = new AtomicInteger();
+        AtomicInteger savedBytes = new AtomicInteger();
+
+        try {
+            if (getCacheDir() != null) {
+                FileOperations.mkdirs(getCacheDir());
+            }
+
+            List<OptimizeCallable> jobs = new ArrayList<OptimizeCallable>();
+            for (Map.Entry<String, File> entry : images.entrySet()) {
+                jobs.add(new OptimizeCallable(entry.getValue(), new File(getOutputDir(), entry.getKey()),
+                        optimized, savedBytes));
+            }
+            ParallelJobs.run(jobs);
+
+            if (!inPlace) {
+                removeStaleImages(getOutputDir(), "", new HashSet<String>(images.keySet()));
+            }
+        } catch (IOException e) {
+            throw new GradleException("Could not optimize images into " + getOutputDir(), e);
+        }
+
+        getLogger().info("Optimized {} of {} images, saved {} bytes", optimized.get(), images.size(),
+                savedBytes.get());
+    }
+
+    private Map<String, File> collectSources() {
+        if (getSourceDir() == null && themeOverlay == null) {
+            return null;
+        }
+
+        Map<String, File> sources = new TreeMap<String, File>();
+        if (themeOverlay != null) {
+            for (Map.Entry<String, File> entry : themeOverlay.getFiles().entrySet()) {
+                if (ImageOptimizer.supports(extensionOf(entry.getValue()))) {
+                    sources.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (getSourceDir() != null) {
+            List<String> paths = new ArrayList<String>();
+            collectImages(getSourceDir(), "", paths);
+            for (String path : paths) {
+                sources.put(path, new File(getSourceDir(), path));
+            }
+        }
+        if (themeOverlay != null) {
+            for (Map.Entry<String, File> entry : themeOverlay.getGeneratedFiles().entrySet()) {
+                if (ImageOptimizer.supports(extensionOf(entry.getValue()))) {
+                    sources.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return sources;
+    }
+
+    private void optimize(File source, File target, AtomicInteger optimized, AtomicInteger savedBytes)
+            throws IOException {
+        byte[] content = read(source);
+        String extension = extensionOf(source);
+
+        File cachedFile = cacheFile(content, extension);
+        byte[] result;
+        if (cachedFile != null && cachedFile.isFile()) {
+            result = read(cachedFile);
+        } else {
+            result = ImageOptimizer.optimize(content, extension);
+            if (cachedFile != null) {
+                store(result, cachedFile);
+                if (result != content) {
+                    // optimizing the result again gives the same result, remember that as well
+                    store(result, cacheFile(result, extension));
+                }
+            }
+        }
+
+        if (target.isFile() && target.length() == result.length && Hashing.hash(result).equals(Hashing.hash(target))) {
+            return;
+        }
+
+        // the image may be hard linked to the parent theme of the portal, never write through the link
+        FileOperations.mkdirs(target.getParentFile());
+        FileOperations.delete(target);
+        write(result, target);
+
+        if (result.length < content.length) {
+            optimized.incrementAndGet();
+            savedBytes.addAndGet(content.length - result.length);
+        }
+    }
+
+    private File cacheFile(byte[] content, String extension) {
+        if (getCacheDir() == null) {
+            return null;
+        }
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, ImageOptimizer.VERSION);
+        digest.update(content);
+        return new File(getCacheDir(), Hashing.hex(digest.digest()) + "." + extension.toLowerCase());
+    }
+
+    private static void store(byte[] content, File cachedFile) throws IOException {
+        // written to a temporary file first, so other threads or builds never read a partially written entry
+        File tempFile = File.createTempFile(cachedFile.getName(), ".tmp", cachedFile.getParentFile());
+        try {
+            write(content, tempFile);
+            if (!tempFile.renameTo(cachedFile) && !cachedFile.isFile()) {
+                throw new IOException("Could not rename " + tempFile + " to " + cachedFile);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static void collectImages(File dir, String path, List<String> paths) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String childPath = path.length() == 0 ? child.getName() : path + "/" + child.getName();
+            if (child.isDirectory()) {
+                collectImages(child, childPath, paths);
+            } else if (ImageOptimizer.supports(extensionOf(child))) {
+                paths.add(childPath);
+            }
+        }
+    }
+
+    private static void removeStaleImages(File dir, String path, Set<String> paths) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String childPath = path.length() == 0 ? child.getName() : path + "/" + child.getName();
+            if (child.isDirectory()) {
+                removeStaleImages(child, childPath, paths);
+            } else if (!paths.contains(childPath)) {
+                FileOperations.delete(child);
+            }
+        }
+    }
+
+    private static String extensionOf(File file) {
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        return index < 0 ? "" : name.substring(index + 1);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                int count = in.read(content, offset, content.length - offset);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of file " + file);
+                }
+                offset += count;
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+
+    private static void write(byte[] content, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the folder that holds the images to optimize.
+     *
+     * @return the folder that holds the images to optimize
+     */
+    public File getSourceDir() {
+        return sourceDir;
+    }
+
+    /**
+     * Sets the folder that holds the images to optimize. Setting this field is mandatory.
+     *
+     * @param sourceDir the folder that holds the images to optimize
+     */
+    public void setSourceDir(File sourceDir) {
+        this.sourceDir = sourceDir;
+    }
+
+    /**
+     * Returns the images that are optimized.
+     *
+     * @return the images that are optimized
+     */
+    @InputFiles
+    public Collection<File> getImages() {
+        Map<String, File> sources = collectSources();
+        return sources == null ? new ArrayList<File>() : sources.values();
+    }
+
+    /**
+     * Returns the folder the optimized images are written to.
+     *
+     * @return the folder the optimized images are written to
+     */
+    @OutputDirectory
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * Sets the folder the optimized images are written to, at the same path they have in the source dir. When it
+     * is the source dir images are optimized in place, otherwise images that are not in the source dir anymore are
+     * removed from it. Setting this field is mandatory.
+     *
+     * @param outputDir the folder the optimized images are written to
+     */
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Returns the folder that caches optimized images.
+     *
+     * @return the folder that caches optimized images
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Sets the folder that caches optimized images by the content of the original image. Images are not cached
+     * when null. If unset this value defaults to the value configured on the liferay extension
+     *
+     * @param cacheDir the folder that caches optimized images
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Sets the theme whose layers and generated folders hold images to optimize as well. Images in the source dir
+     * take precedence over the images of the layers, images in the generated folders over both.
+     *
+     * @param themeOverlay the theme whose layers hold images to optimize
+     */
+    void setThemeOverlay(ThemeOverlay themeOverlay) {
+        this.themeOverlay = themeOverlay;
+    }
+
+    private final class OptimizeCallable implements Callable<Void> {
+        private final File source;
+        private final File target;
+        private final AtomicInteger optimized;
+        private final AtomicInteger savedBytes;
+
+        private OptimizeCallable(File source, File target, AtomicInteger optimized, AtomicInteger savedBytes) {
+            this.source = source;
+            this.target = target;
+            this.optimized = optimized;
+            this.savedBytes = savedBytes;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            optimize(source, target, optimized, savedBytes);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers shared by the tasks that spread independent jobs on files over all processors.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ParallelJobs {
+
+    private ParallelJobs() {
+    }
+
+    /**
+     * Runs jobs on as many threads as there are processors and waits for all of them to finish. The failure of one
+     * job does not stop the others.
+     *
+     * @param jobs the jobs to run
+     * @throws IOException when a job failed, the exception of the first failed job when it is an IOException
+     */
+    static void run(List<? extends Callable<Void>> jobs) throws IOException {
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), jobs.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = executor.invokeAll(jobs);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for jobs to finish");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * A cache of the themes that ship with a portal install, eg _unstyled or classic, shared by all theme projects and
+ * builds. Every theme is snapshotted once into a folder addressed by the portal version and the content of the
+ * theme, together with the list of files it contains, so merging a theme does not need to scan the portal.
+ * <p/>
+ * Whether a snapshot still matches a portal install is checked by comparing the modification times of the
+ * folders of the theme and of the portal jar, which change when files are added, removed or the portal is
+ * upgraded. The themes of a portal install are not expected to be edited in place.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ParentThemeCache {
+
+    private static final String CACHE_VERSION = "themes-1";
+
+    private static final String PORTAL_JAR_PATH = "WEB-INF/lib/portal-impl.jar";
+
+    private static final String FILE_LIST_NAME = "files.list";
+
+    private static final String THEME_DIR_NAME = "theme";
+
+    private static final String KEY_PROPERTY = "key";
+
+    private static final String PORTAL_PROPERTY = "portal";
+
+    private static final String DIR_PROPERTY_PREFIX = "dir.";
+
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase().contains("windows");
+
+    // snapshots that were already validated by this build process, by the index file they were validated with
+    private static final Map<String, Snapshot> VALIDATED = new ConcurrentHashMap<String, Snapshot>();
+
+    private final File cacheDir;
+
+    /**
+     * Constructs a new ParentThemeCache.
+     *
+     * @param cacheDir the folder that holds the cache
+     */
+    ParentThemeCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Returns the key of the snapshot of a theme of a portal install, without creating the snapshot.
+     *
+     * @param portalDir the folder of the exploded portal web application
+     * @param themeName the name of the theme, eg _unstyled
+     * @return the key of the snapshot
+     * @throws IOException when the theme cannot be read
+     */
+    String fingerprint(File portalDir, String themeName) throws IOException {
+        File themeDir = themeDir(portalDir, themeName);
+        Properties index = loadIndex(themeDir);
+        if (isValid(index, portalDir, themeDir)) {
+            return index.getProperty(KEY_PROPERTY);
+        }
+        return computeKey(portalDir, themeName, themeDir);
+    }
+
+    /**
+     * Returns the snapshot of a theme of a portal install, creating it when it does not exist yet.
+     *
+     * @param portalDir the folder of the exploded portal web application
+     * @param themeName the name of the theme, eg _unstyled
+     * @return the snapshot
+     * @throws IOException when the theme cannot be read or the snapshot cannot be written
+     */
+    Snapshot snapshot(File portalDir, String themeName) throws IOException {
+        File themeDir = themeDir(portalDir, themeName);
+        if (!themeDir.isDirectory()) {
+            throw new IOException("Theme " + themeName + " does not exist in " + portalDir);
+        }
+
+        File indexFile = indexFile(themeDir);
+        Properties index = loadIndex(themeDir);
+
+        if (isValid(index, portalDir, themeDir)) {
+            Snapshot validated = VALIDATED.get(indexFile.getAbsolutePath());
+            if (validated != null && validated.getKey().equals(index.getProperty(KEY_PROPERTY))) {
+                return validated;
+            }
+            Snapshot snapshot = loadSnapshot(index.getProperty(KEY_PROPERTY));
+            if (snapshot != null) {
+                VALIDATED.put(indexFile.getAbsolutePath(), snapshot);
+                return snapshot;
+            }
+        }
+
+        String key = computeKey(portalDir, themeName, themeDir);
+        Snapshot snapshot = loadSnapshot(key);
+        if (snapshot == null) {
+            snapshot = createSnapshot(key, themeDir);
+        }
+
+        saveIndex(indexFile, key, portalDir, themeDir);
+        VALIDATED.put(indexFile.getAbsolutePath(), snapshot);
+        return snapshot;
+    }
+
+    private static File themeDir(File portalDir, String themeName) {
+        return new File(portalDir, "html/themes/" + themeName);
+    }
+
+    private String computeKey(File portalDir, String themeName, File themeDir) throws IOException {
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, CACHE_VERSION);
+        Hashing.update(digest, themeName);
+        Hashing.update(digest, portalVersion(portalDir));
+        Hashing.update(digest, Hashing.contentFingerprint(Collections.singletonList(themeDir)));
+        return Hashing.hex(digest.digest());
+    }
+
+    /**
+     * Returns the version of a portal, as recorded in the manifest of its portal-impl.jar.
+     *
+     * @param portalDir the exploded Liferay web application
+     * @return the version of the portal or unknown when it cannot be determined
+     * @throws IOException when the portal-impl.jar cannot be read
+     */
+    static String portalVersion(File portalDir) throws IOException {
+        File portalJar = new File(portalDir, PORTAL_JAR_PATH);
+        if (!portalJar.isFile()) {
+            return "unknown";
+        }
+
+        JarFile jarFile = new JarFile(portalJar);
+        try {
+            Manifest manifest = jarFile.getManifest();
+            String version = manifest == null ? null
+                    : manifest.getMainAttributes().getValue("Implementation-Version");
+            return version == null ? "unknown" : version;
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private boolean isValid(Properties index, File portalDir, File themeDir) {
+        if (index.getProperty(KEY_PROPERTY) == null || !portalStamp(portalDir).equals(index.getProperty(PORTAL_PROPERTY))) {
+            return false;
+        }
+
+        int dirs = 0;
+        for (String name : index.stringPropertyNames()) {
+            if (name.startsWith(DIR_PROPERTY_PREFIX)) {
+                File dir = new File(themeDir, name.substring(DIR_PROPERTY_PREFIX.length()));
+                if (!dir.isDirectory() || !String.valueOf(dir.lastModified()).equals(index.getProperty(name))) {
+                    return false;
+                }
+                dirs++;
+            }
+        }
+        return dirs > 0;
+    }
+
+    private static String portalStamp(File portalDir) {
+        File portalJar = new File(portalDir, PORTAL_JAR_PATH);
+        return portalJar.length() + ":" + portalJar.lastModified();
+    }
+
+    private Snapshot loadSnapshot(String key) throws IOException {
+        File snapshotDir = new File(cacheDir, "snapshots/" + key);
+        File fileList = new File(snapshotDir, FILE_LIST_NAME);
+        if (!fileList.isFile()) {
+            return null;
+        }
+
+        List<String> files = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileList), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    files.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new Snapshot(key, new File(snapshotDir, THEME_DIR_NAME), files);
+    }
+
+    private Snapshot createSnapshot(String key, File themeDir) throws IOException {
+        File snapshotsDir = new File(cacheDir, "snapshots");
+        File tempDir = new File(snapshotsDir, key + "." + System.nanoTime() + ".tmp");
+
+        try {
+            List<String> files = new ArrayList<String>();
+            copyTree(themeDir, new File(tempDir, THEME_DIR_NAME), "", files);
+            Collections.sort(files);
+
+            // the file list is written last, a snapshot without one is incomplete
+            Writer writer = new OutputStreamWriter(new FileOutputStream(new File(tempDir, FILE_LIST_NAME)), "UTF-8");
+            try {
+                for (String file : files) {
+                    writer.write(file);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+
+            File snapshotDir = new File(snapshotsDir, key);
+            if (!tempDir.renameTo(snapshotDir) && !new File(snapshotDir, FILE_LIST_NAME).isFile()) {
+                throw new IOException("Could not rename " + tempDir + " to " + snapshotDir);
+            }
+        } finally {
+            // only left behind when another build created the same snapshot in the meantime or on failure
+            FileOperations.delete(tempDir);
+        }
+
+        return loadSnapshot(key);
+    }
+
+    private static void copyTree(File source, File target, String path, List<String> files) throws IOException {
+        File[] children = source.listFiles();
+        if (children == null) {
+            return;
+        }
+        FileOperations.mkdirs(target);
+
+        for (File child : children) {
+            String childPath = path.length() == 0 ? child.getName() : path + "/" + child.getName();
+            File targetChild = new File(target, child.getName());
+            if (child.isDirectory()) {
+                copyTree(child, targetChild, childPath, files);
+            } else if (child.isFile()) {
+                FileOperations.copyFile(child, targetChild);
+                targetChild.setLastModified(child.lastModified());
+                if (!WINDOWS) {
+                    // themes may hard link to the snapshot, writing through such a link must fail loudly
+                    targetChild.setReadOnly();
+                }
+                files.add(childPath);
+            }
+        }
+    }
+
+    private File indexFile(File themeDir) {
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, themeDir.getAbsolutePath());
+        return new File(cacheDir, "index/" + Hashing.hex(digest.digest()) + ".properties");
+    }
+
+    private Properties loadIndex(File themeDir) {
+        Properties index = new Properties();
+        File indexFile = indexFile(themeDir);
+        if (indexFile.isFile()) {
+            try {
+                InputStream in = new FileInputStream(indexFile);
+                try {
+                    index.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                return new Properties();
+            }
+        }
+        return index;
+    }
+
+    private void saveIndex(File indexFile, String key, File portalDir, File themeDir) throws IOException {
+        Properties index = new Properties();
+        index.setProperty(KEY_PROPERTY, key);
+        index.setProperty(PORTAL_PROPERTY, portalStamp(portalDir));
+        addDirs(index, themeDir, "");
+
+        FileOperations.mkdirs(indexFile.getParentFile());
+        File tempFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+        try {
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                index.store(out, null);
+            } finally {
+                out.close();
+            }
+            indexFile.delete();
+            if (!tempFile.renameTo(indexFile) && !indexFile.isFile()) {
+                // another build that merges a theme in parallel may have just written the same index
+                throw new IOException("Could not rename " + tempFile + " to " + indexFile);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static void addDirs(Properties index, File dir, String path) {
+        index.setProperty(DIR_PROPERTY_PREFIX + path, String.valueOf(dir.lastModified()));
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    addDirs(index, child, path.length() == 0 ? child.getName() : path + "/" + child.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * A snapshot of a theme.
+     */
+    static final class Snapshot {
+        private final String key;
+        private final File dir;
+        private final List<String> files;
+
+        private Snapshot(String key, File dir, List<String> files) {
+            this.key = key;
+            this.dir = dir;
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        /**
+         * Returns the key of the snapshot.
+         *
+         * @return the key of the snapshot
+         */
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the folder that holds the files of the theme.
+         *
+         * @return the folder that holds the files of the theme
+         */
+        File getDir() {
+            return dir;
+        }
+
+        /**
+         * Returns the paths of the files in a folder of the theme, relative to that folder.
+         *
+         * @param path the path of the folder, relative to the theme. The empty string for the theme itself
+         * @return the paths of the files in the folder, using forward slashes
+         */
+        List<String> getFiles(String path) {
+            if (path.length() == 0) {
+                return files;
+            }
+            String prefix = path + "/";
+            List<String> result = new ArrayList<String>();
+            for (String file : files) {
+                if (file.startsWith(prefix)) {
+                    result.add(file.substring(prefix.length()));
+                }
+            }
+            return result;
+        }
+    }
+}
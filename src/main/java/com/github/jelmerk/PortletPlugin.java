@@ -18,16 +18,17 @@ package com.github.jelmerk;
 
 import org.gradle.BuildAdapter;
 import org.gradle.api.*;
-import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.file.FileCopyDetails;
 import org.gradle.api.file.FileTree;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.api.plugins.WarPlugin;
 import org.gradle.api.plugins.WarPluginConvention;
-import org.gradle.api.tasks.Copy;
 import org.gradle.api.tasks.bundling.War;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
@@ -46,24 +47,15 @@ public class PortletPlugin implements Plugin<Project> {
      */
     public static final String SASS_TO_CSS_TASK_NAME = "sassToCss";
 
-    /**
-     * The name of the task that copies css files to the the sass directory in the build folder
-     * for processing by sassToCss.
-     */
-    public static final String COPY_SASS_FILES_TASK_NAME = "copySassFiles";
-
-    /**
-     * The name of the task that creates the sass directory in the build folder.
-     */
-    public static final String CREATE_SASS_DIR_TASK_NAME = "createSassDir";
-
     /**
      * The name of the configuration that holds the classes required to run sassToCss.
      */
-    public static final String SASS_CONFIGURATION_NAME = "sass";
+    public static final String SASS_CONFIGURATION_NAME = LiferayBasePlugin.SASS_CONFIGURATION_NAME;
 
     private static final String SASS_OUTPUT_DIR = "sass";
 
+    private static final String OPTIMIZED_IMAGES_DIR = "optimized-images";
+
     /**
      * {@inheritDoc}
      */
@@ -71,48 +63,17 @@ public class PortletPlugin implements Plugin<Project> {
     public void apply(Project project) {
         project.getPlugins().apply(LiferayBasePlugin.class);
 
-        createSassConfiguration(project);
-
-        configureSassToCssTaskDefaults(project);
-
-        createCreateSassDirTask(project);
-        createCopySassFilesTask(project);
         createSassToCssTask(project);
         createWarTask(project);
-    }
-
-    private void createSassConfiguration(Project project) {
-        project.getConfigurations().create(SASS_CONFIGURATION_NAME)
-            .setVisible(false)
-            .setDescription("The sass configuration");
-    }
 
-    private void configureSassToCssTaskDefaults(Project project) {
-        project.getGradle().addBuildListener(new SassToCssTaskDefaultsBuildListener(project));
-    }
-
-    private void createCreateSassDirTask(Project project) {
-        // copy task will not create the directory if there are no files to copy
-        project.getTasks().create(CREATE_SASS_DIR_TASK_NAME, MkDirs.class)
-                .setDir(new File(project.getBuildDir(), SASS_OUTPUT_DIR));
-    }
-
-    private void createCopySassFilesTask(Project project) {
-        Task createSassDirTask = project.getTasks().getByName(CREATE_SASS_DIR_TASK_NAME);
-
-        project.getTasks().create(COPY_SASS_FILES_TASK_NAME, Copy.class)
-            .from(new WebAppDirCallable(project))
-            .setIncludes(asList("**/*.css"))
-            .into(new File(project.getBuildDir(), SASS_OUTPUT_DIR))
-            .dependsOn(createSassDirTask);
+        createOptimizeImagesTask(project);
     }
 
     private void createSassToCssTask(Project project) {
-        Task prepareSassTask = project.getTasks().getByName(COPY_SASS_FILES_TASK_NAME);
-
         SassToCss task = project.getTasks().create(SASS_TO_CSS_TASK_NAME, SassToCss.class);
         task.setSassDir(new File(project.getBuildDir(), SASS_OUTPUT_DIR));
-        task.dependsOn(prepareSassTask);
+
+        project.getGradle().addBuildListener(new SassToCssTaskBuildListener(project, task));
     }
 
     private void createWarTask(Project project) {
@@ -130,68 +91,83 @@ public class PortletPlugin implements Plugin<Project> {
         warTask.from(generatedSassCaches);
     }
 
-    private static final class SassToCssTaskDefaultsBuildListener extends BuildAdapter {
+    private void createOptimizeImagesTask(Project project) {
+        File outputDir = new File(project.getBuildDir(), OPTIMIZED_IMAGES_DIR);
+
+        OptimizeImages task = project.getTasks().create(LiferayBasePlugin.OPTIMIZE_IMAGES_TASK_NAME,
+                OptimizeImages.class);
+        task.setOutputDir(outputDir);
+
+        project.getGradle().addBuildListener(new OptimizeImagesTaskBuildListener(project, task));
+
+        // the web app dir holds sources, the optimized images replace the originals in the war instead
+        OptimizedImages optimizedImages = new OptimizedImages(task);
+        War warTask = (War) project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
+        warTask.dependsOn(task);
+        warTask.from(optimizedImages);
+        warTask.eachFile(optimizedImages);
+    }
+
+    private static final class SassToCssTaskBuildListener extends BuildAdapter {
         private final Project project;
+        private final SassToCss task;
 
-        private SassToCssTaskDefaultsBuildListener(Project project) {
+        private SassToCssTaskBuildListener(Project project, SassToCss task) {
             this.project = project;
+            this.task = task;
         }
 
         @Override
         public void projectsEvaluated(Gradle gradle) {
-
-            LiferayPluginExtension liferayPluginExtension = project.getExtensions()
-                    .findByType(LiferayPluginExtension.class);
-
-            Configuration sassConfiguration = project.getConfigurations().getByName(SASS_CONFIGURATION_NAME);
-
-            if (sassConfiguration.getDependencies().isEmpty()) {
-
-                project.getDependencies().add(SASS_CONFIGURATION_NAME, "javax.servlet:servlet-api:2.5");
-                project.getDependencies().add(SASS_CONFIGURATION_NAME, "javax.servlet.jsp:jsp-api:2.1");
-                project.getDependencies().add(SASS_CONFIGURATION_NAME, "javax.activation:activation:1.1");
-
-                project.getDependencies().add(SASS_CONFIGURATION_NAME,
-                        liferayPluginExtension.getPortalClasspath());
+            if (task.getSourceDir() == null) {
+                WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
+                task.setSourceDir(warConvention.getWebAppDir());
             }
-
-            project.getTasks().withType(SassToCss.class,
-                    new SetSassToCssTaskDefaultsAction(sassConfiguration, liferayPluginExtension));
         }
+    }
 
-        private static final class SetSassToCssTaskDefaultsAction implements Action<SassToCss> {
-            private final Configuration sassConfiguration;
-            private final LiferayPluginExtension liferayPluginExtension;
+    private static final class OptimizeImagesTaskBuildListener extends BuildAdapter {
+        private final Project project;
+        private final OptimizeImages task;
 
-            private SetSassToCssTaskDefaultsAction(Configuration sassConfiguration,
-                                                   LiferayPluginExtension liferayPluginExtension) {
-                this.sassConfiguration = sassConfiguration;
-                this.liferayPluginExtension = liferayPluginExtension;
-            }
+        private OptimizeImagesTaskBuildListener(Project project, OptimizeImages task) {
+            this.project = project;
+            this.task = task;
+        }
 
-            @Override
-            public void execute(SassToCss task) {
-                if (task.getClasspath() == null) {
-                    task.setClasspath(sassConfiguration);
-                }
-                if (task.getAppServerPortalDir() == null) {
-                    task.setAppServerPortalDir(liferayPluginExtension.getAppServerPortalDir());
-                }
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            if (task.getSourceDir() == null) {
+                WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
+                task.setSourceDir(warConvention.getWebAppDir());
             }
         }
     }
 
-    private static final class WebAppDirCallable implements Callable<File> {
-        private final Project project;
+    private static final class OptimizedImages implements Callable<List<File>>, Action<FileCopyDetails> {
+        private final OptimizeImages task;
 
-        private WebAppDirCallable(Project project) {
-            this.project = project;
+        private OptimizedImages(OptimizeImages task) {
+            this.task = task;
         }
 
         @Override
-        public File call() {
-            WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
-            return warConvention.getWebAppDir();
+        public List<File> call() {
+            // a disabled task may have left optimized images of an earlier build behind
+            return task.getEnabled() ? asList(task.getOutputDir()) : Collections.<File>emptyList();
+        }
+
+        @Override
+        public void execute(FileCopyDetails details) {
+            if (!task.getEnabled() || task.getSourceDir() == null) {
+                return;
+            }
+            String sourceDir = task.getSourceDir().getAbsolutePath() + File.separator;
+            String path = details.getFile().getAbsolutePath();
+            if (path.startsWith(sourceDir)
+                    && new File(task.getOutputDir(), path.substring(sourceDir.length())).isFile()) {
+                details.exclude();
+            }
         }
     }
 }
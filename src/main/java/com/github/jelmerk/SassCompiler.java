@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Compiles css files into the caches Liferay reads, a file with the same name in a .sass-cache folder next to every
+ * css file. {@link SassToCss} compiles with the SassToCssBuilder tool of Liferay or with an embedded compiler, see
+ * {@link SassToCss#setEngine(String)}, other compilers can be plugged in with {@link SassToCss#setCompiler}.
+ *
+ * @author Jelmer Kuperus
+ */
+public interface SassCompiler {
+
+    /**
+     * Compiles css files. Failures are reported with a {@link org.gradle.api.GradleException}.
+     *
+     * @param dir the folder that holds the css files and the files they import
+     * @param paths the css files to compile, relative to the folder and using forward slashes. A compiler may
+     *              compile the other css files in the folder as well
+     */
+    void compile(File dir, List<String> paths);
+}
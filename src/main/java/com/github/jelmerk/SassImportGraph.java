@@ -0,0 +1,383 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Records which files every css file in a sass folder imports, so only the files that changed and the files that
+ * import them, directly or through other files, need to be compiled again. Paths are relative to the sass folder
+ * and use forward slashes.
+ *
+ * @author Jelmer Kuperus
+ */
+final class SassImportGraph {
+
+    private static final Pattern IMPORT_PATTERN = Pattern.compile("@import\\s+([^;]+);");
+
+    private static final Pattern URL_PATTERN = Pattern.compile("url\\(\\s*['\"]?([^'\")]+)['\"]?\\s*\\)");
+
+    private static final Pattern STRING_PATTERN = Pattern.compile("['\"]([^'\"]+)['\"]");
+
+    private final Map<String, Set<String>> imports = new TreeMap<String, Set<String>>();
+
+    /**
+     * Loads a graph. Returns an empty graph if the file does not exist or cannot be read.
+     *
+     * @param file the file the graph was saved to
+     * @return the graph
+     */
+    static SassImportGraph load(File file) {
+        SassImportGraph graph = new SassImportGraph();
+        if (!file.isFile()) {
+            return graph;
+        }
+
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return graph;
+        }
+
+        for (String path : properties.stringPropertyNames()) {
+            Set<String> paths = new TreeSet<String>();
+            for (String imported : properties.getProperty(path).split(",")) {
+                if (imported.length() > 0) {
+                    paths.add(imported);
+                }
+            }
+            graph.imports.put(path, paths);
+        }
+        return graph;
+    }
+
+    /**
+     * Saves the graph.
+     *
+     * @param file the file to save to
+     * @throws IOException when the graph cannot be saved
+     */
+    void save(File file) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Set<String>> entry : imports.entrySet()) {
+            StringBuilder value = new StringBuilder();
+            for (String imported : entry.getValue()) {
+                if (value.length() > 0) {
+                    value.append(',');
+                }
+                value.append(imported);
+            }
+            properties.setProperty(entry.getKey(), value.toString());
+        }
+
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns true if the graph holds no files, eg because it was never saved.
+     *
+     * @return true if the graph holds no files
+     */
+    boolean isEmpty() {
+        return imports.isEmpty();
+    }
+
+    /**
+     * Reads the imports of a css file, replacing the imports recorded for it. An import that does not resolve to a
+     * file in the sass folder yet is recorded by the files it could resolve to, so the css file is compiled again
+     * when one of them is added.
+     *
+     * @param sassDir the sass folder
+     * @param path the path of the css file
+     * @throws IOException when the file cannot be read
+     */
+    void update(File sassDir, String path) throws IOException {
+        Set<String> paths = new TreeSet<String>();
+        for (String imported : parseImports(read(new File(sassDir, path)))) {
+            paths.addAll(resolve(sassDir, path, imported));
+        }
+        imports.put(path, paths);
+    }
+
+    /**
+     * Forgets a css file that was removed. The files that imported it keep the import, so they are compiled again
+     * if the file comes back.
+     *
+     * @param path the path of the css file
+     */
+    void remove(String path) {
+        imports.remove(path);
+    }
+
+    /**
+     * Returns the given files and every file that imports one of them, directly or through other files.
+     *
+     * @param paths the paths of the files
+     * @return the paths of the files and the files that import them
+     */
+    Set<String> withImporters(Collection<String> paths) {
+        Set<String> result = new TreeSet<String>(paths);
+        LinkedList<String> queue = new LinkedList<String>(paths);
+        while (!queue.isEmpty()) {
+            String imported = queue.removeFirst();
+            for (Map.Entry<String, Set<String>> entry : imports.entrySet()) {
+                if (entry.getValue().contains(imported) && result.add(entry.getKey())) {
+                    queue.add(entry.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the given files and every file they import, directly or through other files.
+     *
+     * @param paths the paths of the files
+     * @return the paths of the files and the files they import
+     */
+    Set<String> withImports(Collection<String> paths) {
+        Set<String> result = new TreeSet<String>(paths);
+        LinkedList<String> queue = new LinkedList<String>(paths);
+        while (!queue.isEmpty()) {
+            Set<String> imported = imports.get(queue.removeFirst());
+            if (imported == null) {
+                continue;
+            }
+            for (String path : imported) {
+                if (result.add(path)) {
+                    queue.add(path);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits files into groups that are compiled separately, each with the files it imports. Files that import the
+     * same files are put in the same group where that keeps the groups about the same size, so large files that are
+     * imported everywhere, eg mixins, are read by as few groups as possible.
+     *
+     * @param sassDir the sass folder
+     * @param paths the paths of the files to split
+     * @param count the number of groups
+     * @return the groups, none of them empty
+     */
+    List<Set<String>> partition(File sassDir, Collection<String> paths, int count) {
+        List<Closure> closures = new ArrayList<Closure>();
+        for (String path : paths) {
+            Closure closure = new Closure(path);
+            for (String member : withImports(Collections.singleton(path))) {
+                long size = new File(sassDir, member).length() + 1;
+                closure.sizes.put(member, size);
+                closure.size += size;
+            }
+            closures.add(closure);
+        }
+
+        // the largest files first, they are hardest to balance
+        Collections.sort(closures, new ClosureSizeComparator());
+
+        List<Set<String>> groups = new ArrayList<Set<String>>();
+        List<Set<String>> staged = new ArrayList<Set<String>>();
+        long[] loads = new long[count];
+        for (int i = 0; i < count; i++) {
+            groups.add(new TreeSet<String>());
+            staged.add(new HashSet<String>());
+        }
+
+        for (Closure closure : closures) {
+            int best = 0;
+            long bestLoad = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                long load = loads[i];
+                for (Map.Entry<String, Long> member : closure.sizes.entrySet()) {
+                    if (!staged.get(i).contains(member.getKey())) {
+                        load += member.getValue();
+                    }
+                }
+                if (load < bestLoad) {
+                    best = i;
+                    bestLoad = load;
+                }
+            }
+            groups.get(best).add(closure.path);
+            staged.get(best).addAll(closure.sizes.keySet());
+            loads[best] = bestLoad;
+        }
+
+        List<Set<String>> result = new ArrayList<Set<String>>();
+        for (Set<String> group : groups) {
+            if (!group.isEmpty()) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the locations in the import statements of css, both the plain css and the sass form.
+     *
+     * @param content the css
+     * @return the locations that are imported
+     */
+    static List<String> parseImports(String content) {
+        List<String> locations = new ArrayList<String>();
+        Matcher matcher = IMPORT_PATTERN.matcher(content);
+        while (matcher.find()) {
+            String statement = matcher.group(1);
+            Matcher url = URL_PATTERN.matcher(statement);
+            if (url.find()) {
+                locations.add(url.group(1).trim());
+                continue;
+            }
+            Matcher string = STRING_PATTERN.matcher(statement);
+            while (string.find()) {
+                locations.add(string.group(1).trim());
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the paths in the sass folder an import of a css file may refer to, in the order they are tried, up to
+     * and including the first file that exists. A file added before that one would change what is imported. Empty if
+     * the import refers to a file outside the sass folder.
+     *
+     * @param sassDir the sass folder
+     * @param path the path of the css file
+     * @param location the location that is imported
+     * @return the paths the import may refer to
+     */
+    static List<String> resolve(File sassDir, String path, String location) {
+        List<String> paths = new ArrayList<String>();
+        if (location.contains("://") || location.startsWith("/")) {
+            return paths;
+        }
+
+        // liferay appends query strings, eg a timestamp, to imports
+        int query = location.indexOf('?');
+        String importPath = query < 0 ? location : location.substring(0, query);
+
+        int index = path.lastIndexOf('/');
+        String dir = index < 0 ? "" : path.substring(0, index + 1);
+        String resolved = normalize(dir + importPath);
+        if (resolved == null || resolved.length() == 0) {
+            return paths;
+        }
+
+        // a sass import may leave out the extension and the underscore of a partial
+        int nameIndex = resolved.lastIndexOf('/') + 1;
+        String partial = resolved.substring(0, nameIndex) + "_" + resolved.substring(nameIndex);
+        String[] candidates = {resolved, resolved + ".css", partial, partial + ".css"};
+        for (String candidate : candidates) {
+            if (candidate.endsWith(".css") && !paths.contains(candidate)) {
+                paths.add(candidate);
+                if (new File(sassDir, candidate).isFile()) {
+                    break;
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static String normalize(String path) {
+        LinkedList<String> segments = new LinkedList<String>();
+        for (String segment : path.split("/")) {
+            if (segment.length() == 0 || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment)) {
+                if (segments.isEmpty()) {
+                    // outside the sass folder
+                    return null;
+                }
+                segments.removeLast();
+            } else {
+                segments.add(segment);
+            }
+        }
+
+        StringBuilder normalized = new StringBuilder();
+        for (String segment : segments) {
+            if (normalized.length() > 0) {
+                normalized.append('/');
+            }
+            normalized.append(segment);
+        }
+        return normalized.toString();
+    }
+
+    private static String read(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+            FileOperations.copy(in, out);
+        } finally {
+            in.close();
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static final class Closure {
+        private final String path;
+        private final Map<String, Long> sizes = new TreeMap<String, Long>();
+        private long size;
+
+        private Closure(String path) {
+            this.path = path;
+        }
+    }
+
+    private static final class ClosureSizeComparator implements Comparator<Closure> {
+        @Override
+        public int compare(Closure closure, Closure other) {
+            return closure.size < other.size ? 1 : closure.size > other.size ? -1 : 0;
+        }
+    }
+}
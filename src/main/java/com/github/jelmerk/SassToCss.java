@@ -16,63 +16,438 @@
 
 package com.github.jelmerk;
 
-import org.apache.tools.ant.Project;
-import org.apache.tools.ant.taskdefs.Java;
-import org.apache.tools.ant.types.Path;
+import org.gradle.api.Action;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
 import org.gradle.api.file.FileCollection;
-import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.incremental.IncrementalTaskInputs;
+import org.gradle.api.tasks.incremental.InputFileDetails;
 
 import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Implementation of {@link org.gradle.api.Task} that processes Syntactically Awesome StyleSheets (SASS) files.
+ * Liferay keeps the css it compiled from every css file in a .sass-cache folder next to it, and only compiles
+ * a css file when it is requested and there is no cache newer than the file. After the caches are generated this
+ * task checks that every css file has one, so Liferay never has to compile css at runtime.
+ * <p/>
+ * The imports of every css file are recorded, see {@link SassImportGraph}. When only css files changed since the
+ * last run just these files and the files that import them are compiled again. The files can be compiled on
+ * several workers at the same time, see {@link #setWorkers(int)}. Compiled css is kept in a cache that can be shared
+ * by all projects, so a css file that was compiled before, in any project, is not compiled again, see
+ * {@link #setCacheDir(File)}.
+ * <p/>
+ * When a source dir is set, the css files are linked from there into the sass dir before they are processed. See
+ * {@link #setSourceDir(File)}.
+ * <p/>
+ * The css is compiled with the SassToCssBuilder tool of Liferay or with an embedded compiler that does not need the
+ * portal, see {@link #setEngine(String)}.
  *
  * @author Jelmer Kuperus
  */
 public class SassToCss extends DefaultTask {
 
+    /**
+     * Compiles with the SassToCssBuilder tool of Liferay.
+     */
+    public static final String LIFERAY_ENGINE = "liferay";
+
+    /**
+     * Compiles with an embedded compiler.
+     */
+    public static final String EMBEDDED_ENGINE = "embedded";
+
+    /**
+     * All supported engines.
+     */
+    public static final List<String> ENGINES = Collections.unmodifiableList(
+            Arrays.asList(LIFERAY_ENGINE, EMBEDDED_ENGINE));
+
+    private static final String CACHE_DIR_NAME = ".sass-cache";
+
+    private static final String IMPORT_GRAPH_FILE_NAME = "imports.properties";
+
+    private static final String WORK_DIR_NAME = "work";
+
     private FileCollection classpath;
 
     private File appServerPortalDir;
 
     private File sassDir;
 
+    private File sourceDir;
+
+    private ThemeOverlay themeOverlay;
+
+    private int workers = 1;
+
+    private String engine;
+
+    private SassCompiler compiler;
+
+    private File cacheDir;
+
     /**
-     * Performs the sassToCss task.
+     * Performs the sassToCss task. Only the css files that changed since the last run and the files that import
+     * them are compiled, unless something else changed, eg the classpath.
+     *
+     * @param inputs the files that changed since the last run
      */
     @TaskAction
-    public void sassToCss() {
+    public void sassToCss(IncrementalTaskInputs inputs) {
+        if (getCompiler() == null && getEngine() != null && !ENGINES.contains(getEngine())) {
+            throw new InvalidUserDataException("Please specify one of " + ENGINES + " as engine");
+        }
+
+        File graphFile = new File(getTemporaryDir(), IMPORT_GRAPH_FILE_NAME);
+        SassImportGraph graph = SassImportGraph.load(graphFile);
+
+        Map<String, File> sources = collectSources();
+
+        ChangedFiles changes = new ChangedFiles(sources, getSourceDir() == null ? getSassDir() : getSourceDir());
+        if (inputs.isIncremental()) {
+            inputs.outOfDate(changes);
+            inputs.removed(changes);
+        }
+
+        try {
+            FileOperations.mkdirs(getSassDir());
+            if (sources != null) {
+                stage(sources);
+            }
+            if (!inputs.isIncremental() || changes.hasOtherChanges() || graph.isEmpty()) {
+                graph = compileAll();
+            } else {
+                compileChanged(graph, changes);
+            }
+            graph.save(graphFile);
+        } catch (IOException e) {
+            throw new GradleException("Could not process the sass files in " + getSassDir(), e);
+        }
+
+        List<String> paths = new ArrayList<String>();
+        collectCssFiles(getSassDir(), "", paths);
+
+        List<String> uncached = new ArrayList<String>();
+        for (String path : paths) {
+            // the same check Liferay makes before it uses a cache
+            File cacheFile = cacheFile(getSassDir(), path);
+            if (!cacheFile.isFile() || cacheFile.lastModified() < new File(getSassDir(), path).lastModified()) {
+                uncached.add(path);
+            }
+        }
+        if (!uncached.isEmpty()) {
+            throw new GradleException("Sass to css builder did not generate a cache for " + uncached);
+        }
+    }
+
+    private Map<String, File> collectSources() {
+        if (getSourceDir() == null && themeOverlay == null) {
+            return null;
+        }
+
+        Map<String, File> sources = new TreeMap<String, File>();
+        if (themeOverlay != null) {
+            for (Map.Entry<String, File> entry : themeOverlay.getFiles().entrySet()) {
+                if (entry.getKey().endsWith(".css") && !entry.getKey().contains(CACHE_DIR_NAME + "/")) {
+                    sources.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (getSourceDir() != null) {
+            List<String> paths = new ArrayList<String>();
+            collectCssFiles(getSourceDir(), "", paths);
+            for (String path : paths) {
+                sources.put(path, new File(getSourceDir(), path));
+            }
+        }
+        return sources;
+    }
+
+    private void stage(Map<String, File> sources) throws IOException {
+
+        // the builder writes the caches next to the css files, link them into the sass dir instead of copying them
+
+        FileMaterializer linker = new FileMaterializer(FileMaterializer.HARD_LINK);
+        for (Map.Entry<String, File> entry : sources.entrySet()) {
+            File source = entry.getValue();
+            File target = new File(getSassDir(), entry.getKey());
+            if (!target.isFile() || target.length() != source.length()
+                    || target.lastModified() != source.lastModified()) {
+                linker.materialize(source, target);
+            }
+        }
+
+        List<String> paths = new ArrayList<String>();
+        collectCssFiles(getSassDir(), "", paths);
+        for (String path : paths) {
+            if (!sources.containsKey(path)) {
+                FileOperations.delete(new File(getSassDir(), path));
+                FileOperations.delete(cacheFile(getSassDir(), path));
+            }
+        }
+    }
+
+    private SassImportGraph compileAll() throws IOException {
+
+        // caches of an earlier run could pass for fresh ones if the builder skips a file
+        deleteCaches(getSassDir());
+
+        List<String> paths = new ArrayList<String>();
+        collectCssFiles(getSassDir(), "", paths);
+
+        SassImportGraph graph = new SassImportGraph();
+        for (String path : paths) {
+            graph.update(getSassDir(), path);
+        }
+
+        CompiledCssStore store = createStore();
+        Map<String, String> keys = new HashMap<String, String>();
+        List<String> uncompiled = restore(paths, graph, store, keys);
+
+        if (uncompiled.size() == paths.size() && (getWorkers() <= 1 || paths.size() <= 1)) {
+            createCompiler().compile(getSassDir(), paths);
+        } else if (!uncompiled.isEmpty()) {
+            compile(uncompiled, graph);
+        }
+        store(uncompiled, store, keys);
+
+        getLogger().info("Compiled {} of {} css files", uncompiled.size(), paths.size());
+        return graph;
+    }
+
+    private void compileChanged(SassImportGraph graph, ChangedFiles changes) throws IOException {
+        for (String path : changes.getRemoved()) {
+            graph.remove(path);
+            FileOperations.delete(cacheFile(getSassDir(), path));
+        }
+        for (String path : changes.getChanged()) {
+            graph.update(getSassDir(), path);
+        }
+
+        List<String> changed = new ArrayList<String>(changes.getChanged());
+        changed.addAll(changes.getRemoved());
+
+        List<String> paths = new ArrayList<String>();
+        collectCssFiles(getSassDir(), "", paths);
+
+        Set<String> importers = graph.withImporters(changed);
+        List<String> dirty = new ArrayList<String>();
+        for (String path : paths) {
+            File cacheFile = cacheFile(getSassDir(), path);
+            if (importers.contains(path) || !cacheFile.isFile()) {
+                dirty.add(path);
+            } else if (cacheFile.lastModified() < new File(getSassDir(), path).lastModified()) {
+                // the css was staged again without changing, the cache still belongs to it
+                if (!cacheFile.setLastModified(new File(getSassDir(), path).lastModified())) {
+                    throw new IOException("Could not touch " + cacheFile);
+                }
+            }
+        }
+
+        CompiledCssStore store = createStore();
+        Map<String, String> keys = new HashMap<String, String>();
+        List<String> uncompiled = restore(dirty, graph, store, keys);
+
+        if (!uncompiled.isEmpty()) {
+            compile(uncompiled, graph);
+        }
+        store(uncompiled, store, keys);
+
+        getLogger().info("Compiled {} of {} css files", uncompiled.size(), paths.size());
+    }
+
+    private List<String> restore(List<String> paths, SassImportGraph graph, CompiledCssStore store,
+                                 Map<String, String> keys) throws IOException {
+        if (store == null) {
+            return paths;
+        }
+
+        List<String> uncompiled = new ArrayList<String>();
+        for (String path : paths) {
+            String key = store.key(getSassDir(), path, graph);
+            if (!store.restore(key, cacheFile(getSassDir(), path))) {
+                keys.put(path, key);
+                uncompiled.add(path);
+            }
+        }
+
+        getLogger().info("Restored {} of {} css files from {}", paths.size() - uncompiled.size(), paths.size(),
+                getCacheDir());
+        return uncompiled;
+    }
 
-        Java javaTask = new Java();
+    private void store(List<String> paths, CompiledCssStore store, Map<String, String> keys) throws IOException {
+        if (store == null) {
+            return;
+        }
+        for (String path : paths) {
+            File cacheFile = cacheFile(getSassDir(), path);
+            if (cacheFile.isFile()) {
+                store.store(keys.get(path), cacheFile);
+            }
+        }
+    }
+
+    private CompiledCssStore createStore() throws IOException {
+
+        // the css of a custom compiler cannot be told apart from the css of another version of it. The compiler is
+        // identified by the portal version and the content of the classpath, not by where they are, so the css can be
+        // shared by checkouts and machines that use the same portal
+
+        if (getCacheDir() == null || getCompiler() != null) {
+            return null;
+        }
+
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, getEngine() == null ? LIFERAY_ENGINE : getEngine());
+        if (getAppServerPortalDir() != null) {
+            Hashing.update(digest, ParentThemeCache.portalVersion(getAppServerPortalDir()));
+        }
+        if (getClasspath() != null) {
+            Hashing.update(digest, Hashing.contentFingerprint(getClasspath()));
+        }
+        return new CompiledCssStore(getCacheDir(), Hashing.hex(digest.digest()));
+    }
+
+    private void compile(List<String> dirty, SassImportGraph graph) throws IOException {
 
-        javaTask.setTaskName("sass to css builder");
-        javaTask.setClassname("com.liferay.portal.tools.SassToCssBuilder");
+        // a compiler may compile every css file in a folder, give it folders with only these files and their
+        // imports, one for each worker
 
+        File workDir = new File(getTemporaryDir(), WORK_DIR_NAME);
+        FileOperations.delete(workDir);
 
-        Project antProject = getAnt().getAntProject();
+        FileMaterializer linker = new FileMaterializer(FileMaterializer.HARD_LINK);
 
-        Path antClasspath = new Path(antProject);
+        SassCompiler compiler = createCompiler();
 
-        for (File dep : getClasspath()) {
-            antClasspath.createPathElement()
-                     .setLocation(dep);
+        int workerCount = Math.max(1, Math.min(getWorkers(), dirty.size()));
+        List<Set<String>> groups = graph.partition(getSassDir(), dirty, workerCount);
+        ToolWorkerPool.getInstance().requestWorkers(groups.size());
+
+        List<CompileCallable> jobs = new ArrayList<CompileCallable>();
+        for (int i = 0; i < groups.size(); i++) {
+            File groupDir = new File(workDir, String.valueOf(i));
+            for (String path : graph.withImports(groups.get(i))) {
+                File source = new File(getSassDir(), path);
+                if (source.isFile()) {
+                    linker.materialize(source, new File(groupDir, path));
+                }
+            }
+            jobs.add(new CompileCallable(compiler, groupDir, new ArrayList<String>(groups.get(i))));
+        }
+
+        run(jobs);
+
+        for (int i = 0; i < groups.size(); i++) {
+            File groupDir = new File(workDir, String.valueOf(i));
+            for (String path : groups.get(i)) {
+                File generated = cacheFile(groupDir, path);
+                if (!generated.isFile()) {
+                    continue;
+                }
+                File cacheFile = cacheFile(getSassDir(), path);
+                FileOperations.mkdirs(cacheFile.getParentFile());
+                FileOperations.delete(cacheFile);
+                FileOperations.copyFile(generated, cacheFile);
+            }
+        }
+    }
+
+    private void run(List<CompileCallable> jobs) {
+        if (jobs.size() == 1) {
+            jobs.get(0).call();
+            return;
         }
 
-        javaTask.setProject(antProject);
-        javaTask.setClasspath(antClasspath);
+        ExecutorService executor = Executors.newFixedThreadPool(jobs.size());
+        try {
+            for (Future<Void> future : executor.invokeAll(jobs)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GradleException) {
+                throw (GradleException) e.getCause();
+            }
+            throw new GradleException("Could not process the sass files in " + getSassDir(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while processing the sass files in " + getSassDir(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-        javaTask.setFork(true);
-        javaTask.setNewenvironment(true);
+    private SassCompiler createCompiler() {
+        if (getCompiler() != null) {
+            return getCompiler();
+        }
+        if (EMBEDDED_ENGINE.equals(getEngine())) {
+            return new EmbeddedSassCompiler(getClasspath());
+        }
+        return new LiferaySassCompiler(getClasspath(), getAppServerPortalDir(), getLogger());
+    }
 
-        javaTask.createArg()
-                .setLine("sass.dir=" + getSassDir());
+    private static File cacheFile(File dir, String path) {
+        // the file Liferay looks for, the css file in a .sass-cache folder next to it
+        File file = new File(dir, path);
+        return new File(new File(file.getParentFile(), CACHE_DIR_NAME), file.getName());
+    }
 
-        javaTask.createJvmarg().setLine("-Dliferay.lib.portal.dir=" + new File(getAppServerPortalDir(), "WEB-INF/lib"));
+    private static void collectCssFiles(File dir, String path, List<String> paths) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String childPath = path.length() == 0 ? child.getName() : path + "/" + child.getName();
+            if (child.isDirectory()) {
+                if (!CACHE_DIR_NAME.equals(child.getName())) {
+                    collectCssFiles(child, childPath, paths);
+                }
+            } else if (child.getName().endsWith(".css")) {
+                paths.add(childPath);
+            }
+        }
+    }
 
-        javaTask.execute();
+    private static void deleteCaches(File dir) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (!child.isDirectory()) {
+                continue;
+            }
+            if (CACHE_DIR_NAME.equals(child.getName())) {
+                FileOperations.delete(child);
+            } else {
+                deleteCaches(child);
+            }
+        }
     }
 
     /**
@@ -80,13 +455,49 @@ public class SassToCss extends DefaultTask {
      *
      * @return a file pointing to the folder that holds the sass files
      */
-    @InputDirectory
     public File getSassDir() {
         return sassDir;
     }
 
     /**
-     * Sets the file pointing to the folder that holds the sass files.
+     * Returns the sass files. The css files of the source dir if it is set, otherwise all files in the sass dir
+     * except the caches.
+     *
+     * @return the sass files
+     */
+    @InputFiles
+    public FileCollection getSassFiles() {
+        Map<String, File> sources = collectSources();
+        if (sources != null) {
+            return getProject().files(sources.values());
+        }
+
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("dir", getSassDir());
+        args.put("exclude", "**/" + CACHE_DIR_NAME + "/**");
+        return getProject().fileTree(args);
+    }
+
+    /**
+     * Returns the caches that are generated for the css files in the sass dir.
+     *
+     * @return the caches that are generated for the css files in the sass dir
+     */
+    @OutputFiles
+    public FileCollection getCacheFiles() {
+        List<String> paths = new ArrayList<String>();
+        collectCssFiles(getSassDir(), "", paths);
+
+        List<File> cacheFiles = new ArrayList<File>();
+        for (String path : paths) {
+            cacheFiles.add(cacheFile(getSassDir(), path));
+        }
+        return getProject().files(cacheFiles);
+    }
+
+    /**
+     * Sets the file pointing to the folder that holds the sass files. When a source dir is set this folder only
+     * holds links to the css files of the source dir and the caches generated for them.
      *
      * @param sassDir the file pointing to the folder that holds the sass files
      */
@@ -94,6 +505,123 @@ public class SassToCss extends DefaultTask {
         this.sassDir = sassDir;
     }
 
+    /**
+     * Returns the folder that holds the css files to process, eg the web app dir.
+     *
+     * @return the folder that holds the css files to process
+     */
+    public File getSourceDir() {
+        return sourceDir;
+    }
+
+    /**
+     * Sets the folder that holds the css files to process, eg the web app dir. The css files are hard linked into
+     * the sass dir rather than copied, or copied when the file system does not support hard links, and the caches
+     * are generated there, so the source dir is never written to. If unset the css files in the sass dir are
+     * processed.
+     *
+     * @param sourceDir the folder that holds the css files to process
+     */
+    public void setSourceDir(File sourceDir) {
+        this.sourceDir = sourceDir;
+    }
+
+    /**
+     * Sets the theme whose layers hold css files to process as well, for themes that are packaged from their
+     * layers. Files in the source dir take precedence.
+     *
+     * @param themeOverlay the theme whose layers hold css files to process
+     */
+    void setThemeOverlay(ThemeOverlay themeOverlay) {
+        this.themeOverlay = themeOverlay;
+    }
+
+    /**
+     * Returns the number of workers the css files are compiled on at the same time.
+     *
+     * @return the number of workers the css files are compiled on at the same time
+     */
+    @Input
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Sets the number of workers the css files are compiled on at the same time. The files are split into groups
+     * that each run in their own JVM, files that import the same files end up in the same group. No more JVMs run
+     * at the same time than the worker pool size configured on the liferay extension allows.
+     * If unset this value defaults to 1
+     *
+     * @param workers the number of workers the css files are compiled on at the same time
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Returns the compiler the css files are compiled with, one of {@link #ENGINES}.
+     *
+     * @return the compiler the css files are compiled with
+     */
+    @Input
+    @Optional
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the compiler the css files are compiled with, one of {@link #ENGINES}. The liferay engine runs the
+     * SassToCssBuilder tool of the portal in a worker JVM and needs the portal classpath. The embedded engine
+     * compiles in the build process with the pure java sass compiler of Vaadin and only needs that compiler on the
+     * classpath, it does not know the additions Liferay makes to sass.
+     * If unset this value defaults to the value configured on the liferay extension
+     *
+     * @param engine the compiler the css files are compiled with
+     */
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Returns the compiler the css files are compiled with instead of the engine, if any.
+     *
+     * @return the compiler the css files are compiled with instead of the engine
+     */
+    public SassCompiler getCompiler() {
+        return compiler;
+    }
+
+    /**
+     * Sets a compiler to compile the css files with instead of the engine. Changing the compiler does not make the
+     * task run again. If unset the engine is used.
+     *
+     * @param compiler the compiler to compile the css files with instead of the engine
+     */
+    public void setCompiler(SassCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Returns the folder that caches compiled css.
+     *
+     * @return the folder that caches compiled css
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Sets the folder that caches compiled css by the content of the css file, the files it imports and the
+     * compiler. It can be shared by all projects, a css file that was compiled before in any of them is not compiled
+     * again. Css is not cached when null or when a custom compiler is set.
+     * If unset this value defaults to the value configured on the liferay extension
+     *
+     * @param cacheDir the folder that caches compiled css
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
     /**
      * Returns a file collection that contains the classes required to run liferay's SassToCssBuilder.
      *
@@ -118,7 +646,7 @@ public class SassToCss extends DefaultTask {
      *
      * @return a file pointing to the exploded Liferay web application
      */
-    @InputDirectory
+    @Input
     public File getAppServerPortalDir() {
         return appServerPortalDir;
     }
@@ -131,4 +659,75 @@ public class SassToCss extends DefaultTask {
     public void setAppServerPortalDir(File appServerPortalDir) {
         this.appServerPortalDir = appServerPortalDir;
     }
+
+    private static final class CompileCallable implements Callable<Void> {
+        private final SassCompiler compiler;
+        private final File dir;
+        private final List<String> paths;
+
+        private CompileCallable(SassCompiler compiler, File dir, List<String> paths) {
+            this.compiler = compiler;
+            this.dir = dir;
+            this.paths = paths;
+        }
+
+        @Override
+        public Void call() {
+            compiler.compile(dir, paths);
+            return null;
+        }
+    }
+
+    private static final class ChangedFiles implements Action<InputFileDetails> {
+        private final Map<String, String> paths = new HashMap<String, String>();
+        private final String dir;
+        private final List<String> changed = new ArrayList<String>();
+        private final List<String> removed = new ArrayList<String>();
+        private boolean otherChanges;
+
+        private ChangedFiles(Map<String, File> sources, File dir) {
+            if (sources != null) {
+                for (Map.Entry<String, File> entry : sources.entrySet()) {
+                    paths.put(entry.getValue().getAbsolutePath(), entry.getKey());
+                }
+            }
+            this.dir = dir.getAbsolutePath() + File.separator;
+        }
+
+        @Override
+        public void execute(InputFileDetails details) {
+            String path = details.getFile().getAbsolutePath();
+
+            String relativePath = paths.get(path);
+            if (relativePath == null && path.startsWith(dir)) {
+                relativePath = path.substring(dir.length()).replace(File.separatorChar, '/');
+            }
+            if (relativePath == null) {
+                // eg the classpath, every file may compile differently
+                otherChanges = true;
+                return;
+            }
+
+            if (!relativePath.endsWith(".css")) {
+                return;
+            }
+            if (details.isRemoved()) {
+                removed.add(relativePath);
+            } else {
+                changed.add(relativePath);
+            }
+        }
+
+        private List<String> getChanged() {
+            return changed;
+        }
+
+        private List<String> getRemoved() {
+            return removed;
+        }
+
+        private boolean hasOtherChanges() {
+            return otherChanges;
+        }
+    }
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Implementation of {@link ToolOutputListener} that interprets the output of servicebuilder as it is produced.
+ * Every line is passed on to the logger straight away. Lines are turned into events: an entity being built or a
+ * file being written, which is attributed to a phase by the kind of file. The time between two events is
+ * attributed to the later event, because servicebuilder reports a file after it was generated and formatted.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ServiceBuilderOutput implements ToolOutputListener {
+
+    private static final Pattern BUILDING_PATTERN = Pattern.compile("^Building (\\S+)$");
+
+    private static final Pattern WRITING_PATTERN = Pattern.compile("^Writing (.+)$");
+
+    // a qualified exception class name optionally followed by a message, as printed by printStackTrace
+    private static final Pattern EXCEPTION_PATTERN = Pattern.compile(
+            "^(?:Exception in thread \".*\" )?(?:[a-z_$][\\w$]*\\.)+[A-Z][\\w$]*(?:Exception|Error)(?::.*)?$");
+
+    private static final Pattern STACK_FRAME_PATTERN = Pattern.compile("^\\s+at [\\w$.<>]+\\(.*\\)$");
+
+    private static final String OTHER_PHASE = "other";
+
+    private final Logger logger;
+
+    private final String serviceName;
+
+    private final Map<String, Timing> phases = new LinkedHashMap<String, Timing>();
+
+    private final Map<String, Timing> entities = new LinkedHashMap<String, Timing>();
+
+    private final List<String> errors = new ArrayList<String>();
+
+    private final long startTime = System.currentTimeMillis();
+
+    private long lastEventTime = startTime;
+
+    private String currentEntity;
+
+    private int runs;
+
+    private int lastExitCode;
+
+    private boolean errorsInRun;
+
+    private boolean restoredFromCache;
+
+    /**
+     * Constructs a new ServiceBuilderOutput.
+     *
+     * @param logger the logger every line is passed on to
+     * @param serviceName the name of the service that is generated
+     */
+    ServiceBuilderOutput(Logger logger, String serviceName) {
+        this.logger = logger;
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * Signals that servicebuilder is about to be run.
+     */
+    synchronized void runStarted() {
+        runs++;
+        currentEntity = null;
+        errorsInRun = false;
+        lastEventTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Signals that servicebuilder finished.
+     *
+     * @param exitCode the exit code of servicebuilder
+     * @return true if servicebuilder succeeded, false if it exited with a non zero exit code or reported an error
+     */
+    synchronized boolean runFinished(int exitCode) {
+        lastExitCode = exitCode;
+        if (exitCode != 0) {
+            errors.add("Servicebuilder exited with exit code " + exitCode);
+        }
+        return exitCode == 0 && !errorsInRun;
+    }
+
+    /**
+     * Signals that the generated files were restored from a cache instead of being generated.
+     */
+    synchronized void restoredFromCache() {
+        restoredFromCache = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onOutput(String line) {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastEventTime;
+
+        Matcher building = BUILDING_PATTERN.matcher(line);
+        Matcher writing = WRITING_PATTERN.matcher(line);
+
+        if (EXCEPTION_PATTERN.matcher(line).matches() || line.startsWith("[ERROR]")) {
+            errorsInRun = true;
+            errors.add(line);
+            logger.error(line);
+        } else if (STACK_FRAME_PATTERN.matcher(line).matches()) {
+            logger.error(line);
+        } else if (building.matches()) {
+            currentEntity = building.group(1);
+            timing(entities, currentEntity);
+            timing(phases, OTHER_PHASE).add(elapsed, 0);
+            lastEventTime = now;
+            logger.info(line);
+        } else if (writing.matches()) {
+            timing(phases, phaseOf(writing.group(1))).add(elapsed, 1);
+            if (currentEntity != null) {
+                timing(entities, currentEntity).add(elapsed, 1);
+            }
+            lastEventTime = now;
+            logger.info(line);
+        } else {
+            logger.info(line);
+        }
+    }
+
+    /**
+     * Returns a one line summary of the generation, with the time spent per phase.
+     *
+     * @return a one line summary of the generation
+     */
+    synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder("Service ").append(serviceName);
+
+        if (restoredFromCache && runs == 0) {
+            return summary.append(" restored from cache in ")
+                    .append(seconds(System.currentTimeMillis() - startTime)).toString();
+        }
+
+        summary.append(" generated in ").append(seconds(System.currentTimeMillis() - startTime));
+
+        String separator = " : ";
+        for (Map.Entry<String, Timing> entry : phases.entrySet()) {
+            Timing timing = entry.getValue();
+            summary.append(separator).append(entry.getKey()).append(' ').append(seconds(timing.millis));
+            if (timing.files > 0) {
+                summary.append(" (").append(timing.files).append(" files)");
+            }
+            separator = ", ";
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes a machine readable report of the generation in JSON format.
+     *
+     * @param file the file to write to
+     * @throws IOException when the report cannot be written
+     */
+    synchronized void writeReport(File file) throws IOException {
+        FileOperations.mkdirs(file.getParentFile());
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\n");
+            writer.write("  \"service\": " + quote(serviceName) + ",\n");
+            writer.write("  \"success\": " + (errors.isEmpty()) + ",\n");
+            writer.write("  \"restoredFromCache\": " + restoredFromCache + ",\n");
+            writer.write("  \"runs\": " + runs + ",\n");
+            writer.write("  \"exitCode\": " + lastExitCode + ",\n");
+            writer.write("  \"durationMillis\": " + (System.currentTimeMillis() - startTime) + ",\n");
+            writer.write("  \"phases\": ");
+            writeTimings(writer, phases);
+            writer.write(",\n  \"entities\": ");
+            writeTimings(writer, entities);
+            writer.write(",\n  \"errors\": [");
+            for (int i = 0; i < errors.size(); i++) {
+                writer.write(i == 0 ? "\n    " : ",\n    ");
+                writer.write(quote(errors.get(i)));
+            }
+            writer.write(errors.isEmpty() ? "]\n" : "\n  ]\n");
+            writer.write("}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeTimings(Writer writer, Map<String, Timing> timings) throws IOException {
+        writer.write("[");
+        String separator = "\n    ";
+        for (Map.Entry<String, Timing> entry : timings.entrySet()) {
+            writer.write(separator);
+            writer.write("{ \"name\": " + quote(entry.getKey())
+                    + ", \"millis\": " + entry.getValue().millis
+                    + ", \"files\": " + entry.getValue().files + " }");
+            separator = ",\n    ";
+        }
+        writer.write(timings.isEmpty() ? "]" : "\n  ]");
+    }
+
+    private static String phaseOf(String path) {
+        String name = path.replace('\\', '/');
+        name = name.substring(name.lastIndexOf('/') + 1);
+
+        if (name.endsWith(".java")) {
+            return "java";
+        } else if (name.endsWith(".sql") || name.equals("indexes.properties")) {
+            return "sql";
+        } else if (name.endsWith("-spring.xml")) {
+            return "spring";
+        } else if (name.endsWith("-hbm.xml") || name.endsWith("-orm.xml") || name.endsWith("-model-hints.xml")) {
+            return "hibernate";
+        } else if (name.endsWith(".js")) {
+            return "json";
+        }
+        return OTHER_PHASE;
+    }
+
+    private static Timing timing(Map<String, Timing> timings, String name) {
+        Timing timing = timings.get(name);
+        if (timing == null) {
+            timing = new Timing();
+            timings.put(name, timing);
+        }
+        return timing;
+    }
+
+    private static String seconds(long millis) {
+        return String.format("%.1fs", millis / 1000.0);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static final class Timing {
+        private long millis;
+        private int files;
+
+        private void add(long millis, int files) {
+            this.millis += millis;
+            this.files += files;
+        }
+    }
+}
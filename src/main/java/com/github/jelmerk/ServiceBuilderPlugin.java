@@ -36,6 +36,7 @@ import org.gradle.api.tasks.bundling.Jar;
 import org.gradle.api.tasks.javadoc.Javadoc;
 
 import java.io.File;
+import java.util.Arrays;
 
 /**
  * Implementation of {@link Plugin} that adds tasks and configuration for generating services using
@@ -62,6 +63,17 @@ public class ServiceBuilderPlugin implements Plugin<Project> {
      */
     public static final String JAR_SERVICE_TASK_NAME = "jarService";
 
+    /**
+     * The name of the task that stores the signature of the api in the service jar.
+     */
+    public static final String SERVICE_API_SIGNATURE_TASK_NAME = "serviceApiSignature";
+
+    /**
+     * The name of the task that jars up the classes created from the service sourceset, but only when their api
+     * changed.
+     */
+    public static final String JAR_SERVICE_API_TASK_NAME = "jarServiceApi";
+
     /**
      * The name of the configuration that holds the classes required to run servicebuilder.
      */
@@ -78,6 +90,18 @@ public class ServiceBuilderPlugin implements Plugin<Project> {
      */
     public static final String SERVICE_CONFIGURATION_NAME = "service";
 
+    /**
+     * The name of the configuration that holds a jar of the service classes that is only rebuilt when their api
+     * changed, so code compiled against it is only recompiled when it may have to be. Other projects compile against
+     * this configuration and package the service configuration.
+     */
+    public static final String SERVICE_API_CONFIGURATION_NAME = "serviceApi";
+
+    /**
+     * The path, relative to the build dir, of the file that holds the signature of the api in the service jar.
+     */
+    public static final String SERVICE_API_SIGNATURE_PATH = "service-api/signature.txt";
+
     /**
      * The name of the servicebuilder extension.
      */
@@ -114,6 +138,8 @@ public class ServiceBuilderPlugin implements Plugin<Project> {
     private void createServiceConfiguration(Project project) {
         project.getConfigurations().create(SERVICE_CONFIGURATION_NAME)
                 .setDescription("The service configuration");
+        project.getConfigurations().create(SERVICE_API_CONFIGURATION_NAME)
+                .setDescription("The service classes, only rebuilt when their api changed");
     }
 
     private void createServiceBuilderExtension(Project project) {
@@ -137,6 +163,29 @@ public class ServiceBuilderPlugin implements Plugin<Project> {
         jar.setAppendix("service");
 
         project.getArtifacts().add(SERVICE_CONFIGURATION_NAME, project.getTasks().getByName(JAR_SERVICE_TASK_NAME));
+
+        // every regeneration recompiles the service classes and changes the jar, even when only method bodies
+        // changed, and every project compiled against the jar is compiled again. The service classes are
+        // generated from the api, so a jar that is only rebuilt when the api changed is all other projects need to
+        // compile against
+
+        StoreApiSignature signatureTask = project.getTasks().create(SERVICE_API_SIGNATURE_TASK_NAME,
+                StoreApiSignature.class);
+        signatureTask.setDescription("Stores the signature of the api in the servicebuilder classes.");
+        signatureTask.setGroup(BasePlugin.BUILD_GROUP);
+        signatureTask.setClasses(pluginConvention.getSourceSets().getByName(SERVICE_SOURCE_SET_NAME).getOutput());
+        signatureTask.setSignatureFile(new File(project.getBuildDir(), SERVICE_API_SIGNATURE_PATH));
+
+        Jar apiJar = project.getTasks().create(JAR_SERVICE_API_TASK_NAME, Jar.class);
+
+        apiJar.setDescription("Assembles a jar archive containing the servicebuilder classes when their api changed.");
+        apiJar.setGroup(BasePlugin.BUILD_GROUP);
+        apiJar.from(pluginConvention.getSourceSets().getByName(SERVICE_SOURCE_SET_NAME).getOutput());
+        apiJar.setAppendix("service-api");
+        apiJar.dependsOn(signatureTask);
+        apiJar.onlyIf(new ApiChangedSpec(signatureTask));
+
+        project.getArtifacts().add(SERVICE_API_CONFIGURATION_NAME, apiJar);
     }
 
 
@@ -214,6 +263,73 @@ public class ServiceBuilderPlugin implements Plugin<Project> {
             if (task.getWebappSrcDir() == null) {
                 task.setWebappDir(warConvention.getWebAppDir());
             }
+
+            if (task.getCacheEnabled() == null) {
+                task.setCacheEnabled(serviceBuilderExtension.getCacheEnabled());
+            }
+
+            if (task.getCacheDir() == null) {
+                task.setCacheDir(serviceBuilderExtension.getCacheDir());
+            }
+
+            if (task.getSharedCacheDir() == null) {
+                task.setSharedCacheDir(serviceBuilderExtension.getSharedCacheDir());
+            }
+
+            if (task.getPushToSharedCache() == null) {
+                task.setPushToSharedCache(serviceBuilderExtension.getPushToSharedCache());
+            }
+
+            if (task.getInProcess() == null) {
+                task.setInProcess(serviceBuilderExtension.getInProcess());
+            }
+
+            if (task.getReportDir() == null) {
+                task.setReportDir(new File(project.getBuildDir(), "reports/servicebuilder"));
+            }
+
+            if (task.getMaxParallelServices() == null) {
+                task.setMaxParallelServices(serviceBuilderExtension.getMaxParallelServices());
+            }
+
+            if (task.getServiceDefinitions() == null) {
+                task.setServiceDefinitions(serviceBuilderExtension.getServices());
+            }
+
+            for (ServiceDefinition definition : task.getServiceDefinitions()) {
+                configureServiceDefinitionDefaults(definition, serviceBuilderExtension);
+
+                task.getInputs().files(definition.getServiceInputFile());
+                if (definition.getJalopyInputFile() != null) {
+                    task.getInputs().files(definition.getJalopyInputFile());
+                }
+                for (File dir : Arrays.asList(definition.getImplSrcDir(), definition.getApiSrcDir(),
+                        definition.getResourceDir(), definition.getWebappDir())) {
+                    if (dir != null) {
+                        task.getOutputs().files(dir);
+                    }
+                }
+            }
+        }
+
+        private void configureServiceDefinitionDefaults(ServiceDefinition definition,
+                                                        ServiceBuilderPluginExtension serviceBuilderExtension) {
+            if (definition.getPluginName() == null) {
+                definition.setPluginName(project.getName());
+            }
+
+            if (definition.getServiceInputFile() == null) {
+                definition.setServiceInputFile(
+                        project.file("src/main/servicebuilder/" + definition.getName() + "/service.xml"));
+            }
+
+            if (definition.getJalopyInputFile() == null) {
+                definition.setJalopyInputFile(serviceBuilderExtension.getJalopyInputFile());
+            }
+
+            if (definition.getApiSrcDir() == null) {
+                definition.setApiSrcDir(serviceBuilderExtension.getApiSrcDir());
+            }
         }
     }
 
@@ -283,11 +399,35 @@ public class ServiceBuilderPlugin implements Plugin<Project> {
         }
     }
 
+    private static final class ApiChangedSpec implements Spec<Task> {
+        private final StoreApiSignature signatureTask;
+
+        private ApiChangedSpec(StoreApiSignature signatureTask) {
+            this.signatureTask = signatureTask;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(Task element) {
+            Jar castTask = (Jar) element; //NOSONAR
+            return !castTask.getArchivePath().isFile() || signatureTask.getDidWork();
+        }
+    }
+
     private static final class BuildServiceTaskOnlyIfSpec implements Spec<Task> {
         @Override
         public boolean isSatisfiedBy(Task element) {
             BuildService castTask = (BuildService) element; //NOSONAR
-            return castTask.getServiceInputFile().exists();
+            if (castTask.getServiceInputFile().exists()) {
+                return true;
+            }
+            if (castTask.getServiceDefinitions() != null) {
+                for (ServiceDefinition definition : castTask.getServiceDefinitions()) {
+                    if (definition.getServiceInputFile() != null && definition.getServiceInputFile().exists()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
         }
     }
 }
@@ -17,6 +17,7 @@
 package com.github.jelmerk;
 
 import groovy.lang.Closure;
+import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.Project;
 import org.gradle.api.plugins.JavaPluginConvention;
 import org.gradle.api.tasks.SourceSet;
@@ -41,6 +42,17 @@ public class ServiceBuilderPluginExtension {
     private String jalopyInputFileName;
     private String serviceInputFileName;
 
+    private boolean cacheEnabled = true;
+    private String cacheDirName;
+    private String sharedCacheDirName;
+    private boolean pushToSharedCache;
+
+    private boolean inProcess;
+
+    private int maxParallelServices = Runtime.getRuntime().availableProcessors();
+
+    private final NamedDomainObjectContainer<ServiceDefinition> services;
+
     /**
      * Constructs a new ServiceBuilderPluginExtension.
      *
@@ -48,6 +60,7 @@ public class ServiceBuilderPluginExtension {
      */
     public ServiceBuilderPluginExtension(Project project) {
         this.project = project;
+        this.services = project.container(ServiceDefinition.class);
     }
 
     /**
@@ -162,6 +175,144 @@ public class ServiceBuilderPluginExtension {
         this.resourceDirName = resourceDirName;
     }
 
+    /**
+     * Returns true if generated services are stored in and restored from a cache. False otherwise
+     *
+     * @return true if generated services are stored in and restored from a cache. False otherwise
+     */
+    public boolean getCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    /**
+     * Set to true if generated services should be stored in and restored from a cache, so a fresh checkout does
+     * not have to run servicebuilder when the same service was generated before. If unset this value defaults
+     * to true
+     *
+     * @param cacheEnabled true if generated services should be stored in and restored from a cache
+     */
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    /**
+     * Returns the path to the folder that holds the local cache entries.
+     *
+     * @return the path to the folder that holds the local cache entries
+     */
+    public String getCacheDirName() {
+        if (cacheDirName != null) {
+            return cacheDirName;
+        }
+        return new File(project.getGradle().getGradleUserHomeDir(), "caches/liferay-plugin/service-builder")
+                .getPath();
+    }
+
+    /**
+     * Sets the path to the folder that holds the local cache entries.
+     * If unset this value defaults to caches/liferay-plugin/service-builder in the gradle user home
+     *
+     * @param cacheDirName the path to the folder that holds the local cache entries
+     */
+    public void setCacheDirName(String cacheDirName) {
+        this.cacheDirName = cacheDirName;
+    }
+
+    /**
+     * Returns the path to the folder that holds the cache entries that are shared between machines.
+     *
+     * @return the path to the folder that holds the cache entries that are shared between machines
+     */
+    public String getSharedCacheDirName() {
+        return sharedCacheDirName;
+    }
+
+    /**
+     * Sets the path to the folder that holds the cache entries that are shared between machines, eg a network
+     * share that is mounted on all build agents. If unset no shared cache is used
+     *
+     * @param sharedCacheDirName the path to the folder that holds the cache entries that are shared between machines
+     */
+    public void setSharedCacheDirName(String sharedCacheDirName) {
+        this.sharedCacheDirName = sharedCacheDirName;
+    }
+
+    /**
+     * Returns true if newly generated services are stored in the shared cache. False otherwise
+     *
+     * @return true if newly generated services are stored in the shared cache. False otherwise
+     */
+    public boolean getPushToSharedCache() {
+        return pushToSharedCache;
+    }
+
+    /**
+     * Set to true if newly generated services should be stored in the shared cache. Typically only enabled on
+     * the build server. If unset this value defaults to false
+     *
+     * @param pushToSharedCache true if newly generated services should be stored in the shared cache
+     */
+    public void setPushToSharedCache(boolean pushToSharedCache) {
+        this.pushToSharedCache = pushToSharedCache;
+    }
+
+    /**
+     * Returns true if servicebuilder runs inside the build process. False otherwise
+     *
+     * @return true if servicebuilder runs inside the build process. False otherwise
+     */
+    public boolean getInProcess() {
+        return inProcess;
+    }
+
+    /**
+     * Set to true if servicebuilder should run inside the build process, in an isolated class loader that is
+     * reused for as long as the Gradle daemon lives, instead of in a worker JVM. If unset this value defaults to
+     * false
+     *
+     * @param inProcess true if servicebuilder should run inside the build process
+     */
+    public void setInProcess(boolean inProcess) {
+        this.inProcess = inProcess;
+    }
+
+    /**
+     * Returns the maximum number of services that are generated at the same time.
+     *
+     * @return the maximum number of services that are generated at the same time
+     */
+    public int getMaxParallelServices() {
+        return maxParallelServices;
+    }
+
+    /**
+     * Sets the maximum number of services each servicebuilder task generates at the same time. Must be at least 1.
+     * If unset this value defaults to the number of available processors
+     *
+     * @param maxParallelServices the maximum number of services that are generated at the same time
+     */
+    public void setMaxParallelServices(int maxParallelServices) {
+        this.maxParallelServices = maxParallelServices;
+    }
+
+    /**
+     * Returns the service definitions that are generated in addition to the main service of the project.
+     *
+     * @return the service definitions that are generated in addition to the main service of the project
+     */
+    public NamedDomainObjectContainer<ServiceDefinition> getServices() {
+        return services;
+    }
+
+    /**
+     * Configures the service definitions that are generated in addition to the main service of the project.
+     *
+     * @param closure the closure that configures the service definitions
+     */
+    public void services(Closure closure) {
+        services.configure(closure);
+    }
+
     /**
      * Returns a file that points to the service input file. This declares the entity for which a service
      * is generated.
@@ -215,6 +366,27 @@ public class ServiceBuilderPluginExtension {
         return project.file(getResourceDirName());
     }
 
+    /**
+     * Returns the file that points to the folder that holds the local cache entries.
+     *
+     * @return the file that points to the folder that holds the local cache entries
+     */
+    public File getCacheDir() {
+        return project.file(getCacheDirName());
+    }
+
+    /**
+     * Returns the file that points to the folder that holds the cache entries that are shared between machines.
+     *
+     * @return the file that points to the folder that holds the cache entries that are shared between machines
+     */
+    public File getSharedCacheDir() {
+        if (getSharedCacheDirName() == null) {
+            return null;
+        }
+        return project.file(getSharedCacheDirName());
+    }
+
     /**
      * Configures this class from a groovy closure.
      *
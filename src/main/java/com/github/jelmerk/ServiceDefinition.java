@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+
+/**
+ * A servicebuilder service definition that is generated in addition to the main service of a project. Every
+ * definition writes its own hibernate mappings, spring contexts and sql files, so it needs its own implementation
+ * source folder, resource folder and web application folder. The api source folder may be shared as long as the
+ * services use different packages.
+ *
+ * @author Jelmer Kuperus
+ */
+public class ServiceDefinition {
+
+    private final String name;
+
+    private String pluginName;
+
+    private File serviceInputFile;
+    private File jalopyInputFile;
+
+    private File implSrcDir;
+    private File apiSrcDir;
+    private File resourceDir;
+    private File webappDir;
+
+    /**
+     * Constructs a new ServiceDefinition.
+     *
+     * @param name the name of the service definition
+     */
+    public ServiceDefinition(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the service definition.
+     *
+     * @return the name of the service definition
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the plugin name.
+     *
+     * @return the plugin name
+     */
+    public String getPluginName() {
+        return pluginName;
+    }
+
+    /**
+     * Sets the plugin name. If unset this value defaults to the name of the project
+     *
+     * @param pluginName the plugin name
+     */
+    public void setPluginName(String pluginName) {
+        this.pluginName = pluginName;
+    }
+
+    /**
+     * Returns the file that points to the service input file.
+     *
+     * @return the file that points to the service input file
+     */
+    public File getServiceInputFile() {
+        return serviceInputFile;
+    }
+
+    /**
+     * Sets the file that points to the service input file.
+     * If unset this value defaults to src/main/servicebuilder/&lt;name&gt;/service.xml
+     *
+     * @param serviceInputFile the file that points to the service input file
+     */
+    public void setServiceInputFile(File serviceInputFile) {
+        this.serviceInputFile = serviceInputFile;
+    }
+
+    /**
+     * Returns the file that points to the jalopy file.
+     *
+     * @return the file that points to the jalopy file
+     */
+    public File getJalopyInputFile() {
+        return jalopyInputFile;
+    }
+
+    /**
+     * Sets the file that points to the jalopy file.
+     * If unset this value defaults to the jalopy file configured on the servicebuilder extension
+     *
+     * @param jalopyInputFile the file that points to the jalopy file
+     */
+    public void setJalopyInputFile(File jalopyInputFile) {
+        this.jalopyInputFile = jalopyInputFile;
+    }
+
+    /**
+     * Returns the file that points to the folder where the service implementation source files will be written to.
+     *
+     * @return the file that points to the folder where the service implementation source files will be written to
+     */
+    public File getImplSrcDir() {
+        return implSrcDir;
+    }
+
+    /**
+     * Sets the file that points to the folder where the service implementation source files will be written to.
+     * This property is required.
+     *
+     * @param implSrcDir the folder where the service implementation source files will be written to
+     */
+    public void setImplSrcDir(File implSrcDir) {
+        this.implSrcDir = implSrcDir;
+    }
+
+    /**
+     * Returns the file that points to the folder where the generated service api source files will be written to.
+     *
+     * @return the file that points to the folder where the generated service api source files will be written to
+     */
+    public File getApiSrcDir() {
+        return apiSrcDir;
+    }
+
+    /**
+     * Sets the file that points to the folder where the generated service api source files will be written to.
+     * If unset this value defaults to the api source folder configured on the servicebuilder extension
+     *
+     * @param apiSrcDir the folder where the generated service api source files will be written to
+     */
+    public void setApiSrcDir(File apiSrcDir) {
+        this.apiSrcDir = apiSrcDir;
+    }
+
+    /**
+     * Returns the file that points to the folder where the generated resource files
+     * (hibernate mappings / application contexts etc) will be written to.
+     *
+     * @return the file that points to the folder where the generated resource files will be written to
+     */
+    public File getResourceDir() {
+        return resourceDir;
+    }
+
+    /**
+     * Sets the file that points to the folder where the generated resource files
+     * (hibernate mappings / application contexts etc) will be written to. This property is required.
+     *
+     * @param resourceDir the folder where the generated resource files will be written to
+     */
+    public void setResourceDir(File resourceDir) {
+        this.resourceDir = resourceDir;
+    }
+
+    /**
+     * Returns the web application folder where generated sql files etc will be written to.
+     *
+     * @return the web application folder where generated sql files etc will be written to
+     */
+    public File getWebappDir() {
+        return webappDir;
+    }
+
+    /**
+     * Sets the web application folder where generated sql files etc will be written to. This property is required.
+     *
+     * @param webappDir the web application folder where generated sql files etc will be written to
+     */
+    public void setWebappDir(File webappDir) {
+        this.webappDir = webappDir;
+    }
+}
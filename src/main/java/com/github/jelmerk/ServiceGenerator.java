@@ -0,0 +1,772 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Generates a single liferay service from its service definition. Generators only touch their own working
+ * directory, service definition and output folders, so generators for different service definitions can run
+ * at the same time.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ServiceGenerator {
+
+    private static final String PREVIOUS_SERVICE_INPUT_FILE_NAME = "previous-service.xml";
+    private static final String SUBSET_SERVICE_INPUT_FILE_NAME = "subset-service.xml";
+    private static final String GENERATION_STATE_FILE_NAME = "generation-state.properties";
+    private static final String GENERATED_FILES_FILE_NAME = "generated-files.properties";
+
+    private static final String SETTINGS_STATE_KEY = "settings";
+    private static final String IMPL_STATE_KEY_PREFIX = "impl.";
+
+    private static final String CACHE_KEY_VERSION = "servicebuilder-1";
+
+    private static final String JALOPY_FILE_PATH = "misc/jalopy.xml";
+
+    private static final String JALOPY_CLASS_NAME = "de.hunsicker.jalopy.Jalopy";
+
+    static final String MODEL_HINTS_PATH = "META-INF/portlet-model-hints.xml";
+
+    private static final String[] IMPL_CLASS_SUFFIXES = {
+        "LocalServiceImpl.java", "ServiceImpl.java", "FinderImpl.java", "Impl.java"
+    };
+
+    private final ServiceDefinition definition;
+
+    private final File workingDir;
+
+    private final List<File> classpath;
+
+    private final Logger logger;
+
+    private boolean incremental = true;
+
+    private boolean cacheEnabled;
+    private File cacheDir;
+    private File sharedCacheDir;
+    private boolean pushToSharedCache;
+
+    private boolean inProcess;
+
+    private File reportFile;
+
+    private ServiceBuilderOutput output;
+
+    /**
+     * Constructs a new ServiceGenerator.
+     *
+     * @param definition the service definition, with all folders resolved
+     * @param workingDir the working directory of this generator, not shared with any other generator
+     * @param classpath the classpath servicebuilder is run with
+     * @param logger the logger to report to
+     */
+    ServiceGenerator(ServiceDefinition definition, File workingDir, List<File> classpath, Logger logger) {
+        this.definition = definition;
+        this.workingDir = workingDir;
+        this.classpath = classpath;
+        this.logger = logger;
+    }
+
+    /**
+     * Sets whether only the entities that changed since the previous run are regenerated.
+     *
+     * @param incremental true if only the entities that changed since the previous run are regenerated
+     */
+    void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Configures the cache generated services are stored in and restored from.
+     *
+     * @param cacheEnabled true if the cache is used
+     * @param cacheDir the folder that holds the local cache entries
+     * @param sharedCacheDir the folder that holds the shared cache entries. May be null
+     * @param pushToSharedCache true if newly generated services are stored in the shared cache
+     */
+    void setCache(boolean cacheEnabled, File cacheDir, File sharedCacheDir, boolean pushToSharedCache) {
+        this.cacheEnabled = cacheEnabled;
+        this.cacheDir = cacheDir;
+        this.sharedCacheDir = sharedCacheDir;
+        this.pushToSharedCache = pushToSharedCache;
+    }
+
+    /**
+     * Sets whether servicebuilder runs inside the build process.
+     *
+     * @param inProcess true if servicebuilder runs inside the build process
+     */
+    void setInProcess(boolean inProcess) {
+        this.inProcess = inProcess;
+    }
+
+    /**
+     * Sets the file a JSON report of the generation is written to.
+     *
+     * @param reportFile the file a JSON report of the generation is written to. May be null
+     */
+    void setReportFile(File reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    /**
+     * Generates the service. Only the files whose content changed are written.
+     */
+    void generate() {
+        prepareWorkingDir();
+        createOutputDirectories();
+
+        ServiceXml serviceXml = parseServiceInputFile();
+        Set<String> changedEntities = changedEntities(serviceXml);
+
+        StagingArea staging = null;
+        GeneratedDirs dirs = new GeneratedDirs(getImplSrcDir(), getApiSrcDir(), getResourceDir(), getWebappSrcDir());
+
+        if (serviceXml != null) {
+            staging = createStagingArea();
+            if (!staging.hasManifest()) {
+                // the files of the entities that are not regenerated are not known
+                changedEntities = null;
+            }
+            dirs = stage(staging, serviceXml, changedEntities != null);
+        }
+
+        output = new ServiceBuilderOutput(getLogger(), definition.getName());
+
+        boolean success;
+        if (changedEntities != null) {
+            success = buildServiceSubset(serviceXml, changedEntities, dirs);
+        } else if (staging != null && cacheEnabled) {
+            success = buildServiceCached(serviceXml, staging, dirs);
+        } else {
+            success = buildService(getServiceInputFile(), dirs);
+        }
+
+        writeReport();
+        getLogger().lifecycle(output.getSummary());
+
+        if (!success) {
+            throw new GradleException("Servicebuilder reported an error while generating service "
+                    + definition.getName());
+        }
+
+        if (staging != null) {
+            syncStagingArea(staging);
+        }
+
+        saveGenerationState(serviceXml);
+    }
+
+    private StagingArea createStagingArea() {
+        try {
+            return new StagingArea(new File(workingDir, "staging"), new File(workingDir, GENERATED_FILES_FILE_NAME));
+        } catch (IOException e) {
+            throw new GradleException("Could not prepare staging directory", e);
+        }
+    }
+
+    private GeneratedDirs stage(StagingArea staging, ServiceXml serviceXml, boolean subset) {
+
+        // servicebuilder rewrites every file it generates, even when the content is identical. So we let it write
+        // to a directory that only holds the files it reads and only copy back what actually changed. When only
+        // some entities are regenerated the files of the other entities are needed as well
+
+        try {
+            return new GeneratedDirs(
+                    staging.stage(getImplSrcDir(), "impl", implInputPaths(serviceXml), subset),
+                    staging.stage(getApiSrcDir(), "api", Collections.<String>emptyList(), subset),
+                    staging.stage(getResourceDir(), "resources", Collections.singletonList(MODEL_HINTS_PATH), subset),
+                    staging.stage(getWebappSrcDir(), "webapp", Collections.<String>emptyList(), subset));
+        } catch (IOException e) {
+            throw new GradleException("Could not stage servicebuilder input files", e);
+        }
+    }
+
+    private boolean buildServiceCached(ServiceXml serviceXml, StagingArea staging, GeneratedDirs dirs) {
+        String key = cacheKey(serviceXml);
+
+        ArchiveCache cache = new ArchiveCache(cacheDir, sharedCacheDir, pushToSharedCache);
+        try {
+            File archive = cache.find(key);
+            if (archive != null) {
+                getLogger().lifecycle("Restoring generated service from cache entry {}", key);
+                ArchiveCache.extract(archive, staging.getDir());
+                output.restoredFromCache();
+                return true;
+            }
+        } catch (IOException e) {
+            getLogger().warn("Could not restore generated service from cache entry " + key, e);
+        }
+
+        // the staging area only holds the files servicebuilder reads, so the cache entry contains exactly what
+        // servicebuilder generates and nothing that was written by hand
+
+        if (!buildService(getServiceInputFile(), dirs)) {
+            return false;
+        }
+
+        try {
+            cache.store(key, staging.getDir());
+        } catch (IOException e) {
+            throw new GradleException("Could not store generated service in cache entry " + key, e);
+        }
+        return true;
+    }
+
+    private String cacheKey(ServiceXml serviceXml) {
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, CACHE_KEY_VERSION);
+        Hashing.update(digest, serviceXml.getFingerprint());
+        Hashing.update(digest, String.valueOf(getPluginName()));
+
+        if (getJalopyInputFile() != null) {
+            Hashing.update(digest, hashOf(getJalopyInputFile()));
+        }
+
+        try {
+            Hashing.update(digest, Hashing.contentFingerprint(getClasspath()));
+        } catch (IOException e) {
+            throw new GradleException("Could not read servicebuilder classpath", e);
+        }
+
+        for (String path : implInputPaths(serviceXml)) {
+            Hashing.update(digest, path);
+            Hashing.update(digest, hashOf(new File(getImplSrcDir(), path)));
+        }
+
+        File modelHintsFile = new File(getResourceDir(), MODEL_HINTS_PATH);
+        if (modelHintsFile.isFile()) {
+            Hashing.update(digest, hashOf(modelHintsFile));
+        }
+        return Hashing.hex(digest.digest());
+    }
+
+    private List<String> implInputPaths(ServiceXml serviceXml) {
+        List<String> paths = new ArrayList<String>(implFiles(serviceXml).keySet());
+
+        File[] implRootFiles = getImplSrcDir().listFiles();
+        if (implRootFiles != null) {
+            for (File file : implRootFiles) {
+                if (file.isFile() && file.getName().endsWith(".properties")) {
+                    paths.add(file.getName());
+                }
+            }
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private void syncStagingArea(StagingArea staging) {
+        try {
+            staging.sync();
+        } catch (IOException e) {
+            throw new GradleException("Could not copy generated service files", e);
+        }
+
+        getLogger().lifecycle("Generated service files : {} unchanged, {} updated, {} removed",
+                staging.getUnchangedCount(), staging.getUpdatedCount(), staging.getRemovedCount());
+    }
+
+    private ServiceXml parseServiceInputFile() {
+        try {
+            return ServiceXml.parse(getServiceInputFile());
+        } catch (IOException e) {
+            // let servicebuilder report the problem
+            getLogger().info("Could not parse service input file, regenerating all entities", e);
+            return null;
+        }
+    }
+
+    private Set<String> changedEntities(ServiceXml serviceXml) {
+        if (!getIncremental() || serviceXml == null) {
+            return null;
+        }
+
+        File previousServiceInputFile = new File(workingDir, PREVIOUS_SERVICE_INPUT_FILE_NAME);
+        Properties previousState = loadProperties(new File(workingDir, GENERATION_STATE_FILE_NAME));
+
+        if (!previousServiceInputFile.exists()
+                || !getApiSrcDir().exists()
+                || !settingsFingerprint().equals(previousState.getProperty(SETTINGS_STATE_KEY))) {
+            return null;
+        }
+
+        ServiceXml previous;
+        try {
+            previous = ServiceXml.parse(previousServiceInputFile);
+        } catch (IOException e) {
+            return null;
+        }
+
+        Set<String> changed = serviceXml.changedEntitiesSince(previous);
+        if (changed == null) {
+            return null;
+        }
+
+        // the service interfaces are derived from the hand written implementation classes
+
+        Map<String, String> implFiles = implFiles(serviceXml);
+        for (Map.Entry<String, String> entry : implFiles.entrySet()) {
+            String previousHash = previousState.getProperty(IMPL_STATE_KEY_PREFIX + entry.getKey());
+            if (!hashOf(new File(getImplSrcDir(), entry.getKey())).equals(previousHash)) {
+                changed.add(entry.getValue());
+            }
+        }
+        for (String key : previousState.stringPropertyNames()) {
+            if (key.startsWith(IMPL_STATE_KEY_PREFIX)
+                    && !implFiles.containsKey(key.substring(IMPL_STATE_KEY_PREFIX.length()))) {
+                return null;
+            }
+        }
+
+        if (changed.isEmpty()) {
+            // something we do not track changed, eg the generated files were modified
+            return null;
+        }
+        return serviceXml.withMappedEntities(changed);
+    }
+
+    private boolean buildServiceSubset(ServiceXml serviceXml, Set<String> changedEntities, GeneratedDirs dirs) {
+        Set<String> subset = serviceXml.withDependencies(changedEntities);
+
+        getLogger().lifecycle("Regenerating {} of {} entities : {}", subset.size(),
+                serviceXml.getEntityNames().size(), new TreeSet<String>(subset));
+
+        File subsetServiceInputFile = new File(workingDir, SUBSET_SERVICE_INPUT_FILE_NAME);
+        try {
+            serviceXml.writeSubset(subset, subsetServiceInputFile);
+        } catch (IOException e) {
+            throw new GradleException("Could not write " + subsetServiceInputFile, e);
+        }
+
+        Map<File, String> previousSharedFiles = new HashMap<File, String>();
+        for (File file : sharedFiles(serviceXml, dirs)) {
+            previousSharedFiles.put(file, readUtf8(file));
+        }
+
+        if (!buildService(subsetServiceInputFile, dirs)) {
+            return false;
+        }
+
+        Set<String> otherEntities = new HashSet<String>(serviceXml.getEntityNames());
+        otherEntities.removeAll(subset);
+
+        if (mergeSharedFiles(previousSharedFiles, new AggregateFileMerger(subset, otherEntities))) {
+            return true;
+        }
+
+        // the merged files would not hold all entities, only servicebuilder can tell how to put them together
+
+        getLogger().lifecycle("Could not merge the shared files of the regenerated entities, regenerating all "
+                + "entities");
+        return buildService(getServiceInputFile(), dirs);
+    }
+
+    private boolean mergeSharedFiles(Map<File, String> previousSharedFiles, AggregateFileMerger merger) {
+
+        // servicebuilder rewrites files that list all entities, eg ClpSerializer, using only the entities it was
+        // given. Put the code of the other entities back
+
+        Map<File, String> mergedFiles = new HashMap<File, String>();
+        for (Map.Entry<File, String> entry : previousSharedFiles.entrySet()) {
+            String subsetContent = entry.getKey().isFile() ? readUtf8(entry.getKey()) : "";
+            if (subsetContent.equals(entry.getValue())) {
+                continue;
+            }
+
+            String merged = merger.merge(entry.getValue(), subsetContent);
+            List<String> lost = merger.lostEntities(entry.getValue(), merged);
+            if (!lost.isEmpty()) {
+                getLogger().info("Merging {} would lose entities {}", entry.getKey(), lost);
+                return false;
+            }
+            if (!merged.equals(subsetContent)) {
+                mergedFiles.put(entry.getKey(), merged);
+            }
+        }
+
+        for (Map.Entry<File, String> entry : mergedFiles.entrySet()) {
+            writeUtf8(entry.getValue(), entry.getKey());
+        }
+        getLogger().info("Merged {} shared files", mergedFiles.size());
+        return true;
+    }
+
+    private List<File> sharedFiles(ServiceXml serviceXml, GeneratedDirs dirs) {
+        String packageDirName = serviceXml.getPackagePath().replace('.', '/');
+
+        List<File> candidates = new ArrayList<File>();
+        collectFiles(new File(dirs.apiSrcDir, packageDirName), candidates);
+        collectFiles(new File(dirs.implSrcDir, packageDirName), candidates);
+        collectFiles(new File(dirs.resourceDir, "META-INF"), candidates);
+        collectFiles(new File(dirs.webappSrcDir, "WEB-INF/sql"), candidates);
+        collectFiles(new File(dirs.webappSrcDir, "js/service.js"), candidates);
+
+        // files that are named after an entity only contain code for that entity
+
+        List<File> sharedFiles = new ArrayList<File>();
+        for (File candidate : candidates) {
+            boolean entityFile = false;
+            for (String entityName : serviceXml.getEntityNames()) {
+                if (candidate.getName().startsWith(entityName)) {
+                    entityFile = true;
+                    break;
+                }
+            }
+            if (!entityFile) {
+                sharedFiles.add(candidate);
+            }
+        }
+        return sharedFiles;
+    }
+
+    private Map<String, String> implFiles(ServiceXml serviceXml) {
+        String packageDirName = serviceXml.getPackagePath().replace('.', '/');
+
+        List<File> candidates = new ArrayList<File>();
+        collectFiles(new File(getImplSrcDir(), packageDirName + "/model/impl"), candidates);
+        collectFiles(new File(getImplSrcDir(), packageDirName + "/service/impl"), candidates);
+        collectFiles(new File(getImplSrcDir(), packageDirName + "/service/persistence"), candidates);
+
+        String implSrcDirPath = getImplSrcDir().getAbsolutePath();
+
+        Map<String, String> implFiles = new TreeMap<String, String>();
+        for (File candidate : candidates) {
+            String entityName = implClassEntityName(candidate.getName());
+            if (entityName != null && serviceXml.getEntityNames().contains(entityName)) {
+                String relativePath = candidate.getAbsolutePath().substring(implSrcDirPath.length() + 1);
+                implFiles.put(relativePath.replace(File.separatorChar, '/'), entityName);
+            }
+        }
+        return implFiles;
+    }
+
+    private String implClassEntityName(String fileName) {
+        for (String suffix : IMPL_CLASS_SUFFIXES) {
+            if (fileName.endsWith(suffix)) {
+                return fileName.substring(0, fileName.length() - suffix.length());
+            }
+        }
+        return null;
+    }
+
+    private void saveGenerationState(ServiceXml serviceXml) {
+        Properties state = new Properties();
+        state.setProperty(SETTINGS_STATE_KEY, settingsFingerprint());
+
+        if (serviceXml != null) {
+            for (String implFile : implFiles(serviceXml).keySet()) {
+                state.setProperty(IMPL_STATE_KEY_PREFIX + implFile, hashOf(new File(getImplSrcDir(), implFile)));
+            }
+        }
+
+        File previousServiceInputFile = new File(workingDir, PREVIOUS_SERVICE_INPUT_FILE_NAME);
+        try {
+            FileOperations.copyFile(getServiceInputFile(), previousServiceInputFile);
+        } catch (IOException e) {
+            throw new GradleException("Could not write " + previousServiceInputFile, e);
+        }
+
+        storeProperties(state, new File(workingDir, GENERATION_STATE_FILE_NAME));
+    }
+
+    private String settingsFingerprint() {
+        MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, String.valueOf(getPluginName()));
+        Hashing.update(digest, getImplSrcDir().getAbsolutePath());
+        Hashing.update(digest, getApiSrcDir().getAbsolutePath());
+        Hashing.update(digest, getResourceDir().getAbsolutePath());
+        Hashing.update(digest, getWebappSrcDir().getAbsolutePath());
+
+        if (getJalopyInputFile() != null) {
+            Hashing.update(digest, hashOf(getJalopyInputFile()));
+        }
+
+        for (File file : getClasspath()) {
+            Hashing.update(digest, file.getAbsolutePath());
+            Hashing.update(digest, String.valueOf(file.length()));
+            Hashing.update(digest, String.valueOf(file.lastModified()));
+        }
+        return Hashing.hex(digest.digest());
+    }
+
+    private static void collectFiles(File file, List<File> files) {
+        if (file.isFile()) {
+            files.add(file);
+        } else if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collectFiles(child, files);
+                }
+            }
+        }
+    }
+
+    private static String hashOf(File file) {
+        try {
+            return Hashing.hash(file);
+        } catch (IOException e) {
+            throw new GradleException("Could not read " + file, e);
+        }
+    }
+
+    private static String readUtf8(File file) {
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            throw new GradleException("Could not read " + file, e);
+        }
+    }
+
+    private static void writeUtf8(String content, File file) {
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(content.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new GradleException("Could not write " + file, e);
+        }
+    }
+
+    private static Properties loadProperties(File file) {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // treat a corrupt state file as no state at all
+                properties.clear();
+            }
+        }
+        return properties;
+    }
+
+    private static void storeProperties(Properties properties, File file) {
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new GradleException("Could not write " + file, e);
+        }
+    }
+
+    private void writeReport() {
+        if (reportFile == null) {
+            return;
+        }
+        try {
+            output.writeReport(reportFile);
+        } catch (IOException e) {
+            getLogger().warn("Could not write servicebuilder report " + reportFile, e);
+        }
+    }
+
+    private void createOutputDirectories() {
+        try {
+            FileOperations.mkdirs(getImplSrcDir());
+            FileOperations.mkdirs(new File(getWebappSrcDir(), "WEB-INF/sql"));
+        } catch (IOException e) {
+            throw new GradleException("Could not create output directories", e);
+        }
+    }
+
+    private void prepareWorkingDir() {
+        try {
+            FileOperations.mkdirs(workingDir);
+        } catch (IOException e) {
+            throw new GradleException("Could not prepare working dir " + workingDir, e);
+        }
+    }
+
+    private boolean buildService(File serviceInputFile, GeneratedDirs dirs) {
+        ToolInvocation invocation = new ToolInvocation("com.liferay.portal.tools.servicebuilder.ServiceBuilder",
+                getClasspath());
+
+        // the Jalopy file to use is not a parameter you can pass to service builder it just looks at a number
+        // of predefined locations on the filesystem relative to the working dir. In process the convention is
+        // loaded into Jalopy up front instead, service builder keeps it when it finds none of these files
+
+        if (getJalopyInputFile() != null) {
+            invocation.addWorkingDirFile(JALOPY_FILE_PATH, getJalopyInputFile());
+            invocation.setWorkingDirFileLoader(JALOPY_FILE_PATH, JALOPY_CLASS_NAME, "setConvention");
+        }
+
+        invocation.addClasspathEntry(dirs.resourceDir); //Needed or portlet-model-hints.xml will be overwritten
+
+        invocation.addArg("-Dexternal-properties=com/liferay/portal/tools/dependencies/portal-tools.properties");
+
+        invocation.addArg("-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.Log4JLogger");
+
+        invocation.addArg("service.input.file=" + serviceInputFile.getAbsolutePath());
+
+        invocation.addArg("service.hbm.file=" + new File(dirs.resourceDir, "META-INF/portlet-hbm.xml").getPath());
+
+        invocation.addArg("service.orm.file=" + new File(dirs.resourceDir, "META-INF/portlet-orm.xml").getPath());
+
+        invocation.addArg("service.model.hints.file="
+                + new File(dirs.resourceDir, "META-INF/portlet-model-hints.xml").getPath());
+
+        invocation.addArg("service.spring.file="
+                + new File(dirs.resourceDir, "META-INF/portlet-spring.xml").getPath());
+
+        invocation.addArg("service.spring.base.file="
+                + new File(dirs.resourceDir, "META-INF/base-spring.xml").getPath());
+
+        invocation.addArg("service.spring.cluster.file="
+                + new File(dirs.resourceDir, "META-INF/cluster-spring.xml").getPath());
+
+        invocation.addArg("service.spring.dynamic.data.source.file="
+                + new File(dirs.resourceDir, "META-INF/dynamic-data-source-spring.xml").getPath());
+
+        invocation.addArg("service.spring.hibernate.file="
+                + new File(dirs.resourceDir, "META-INF/hibernate-spring.xml").getPath());
+
+        invocation.addArg("service.spring.infrastructure.file="
+                + new File(dirs.resourceDir, "META-INF/infrastructure-spring.xml").getPath());
+
+        invocation.addArg("service.spring.shard.data.source.file="
+                + new File(dirs.resourceDir, "META-INF/shard-data-source-spring.xml").getPath());
+
+        invocation.addArg("service.api.dir=" + dirs.apiSrcDir.getPath());
+
+        invocation.addArg("service.impl.dir=" + dirs.implSrcDir.getPath());
+
+        invocation.addArg("service.json.file=" + new File(dirs.webappSrcDir, "js/service.js").getPath());
+
+        invocation.addArg("service.sql.dir=" + new File(dirs.webappSrcDir, "WEB-INF/sql").getPath());
+
+        invocation.addArg("service.sql.file=tables.sql");
+
+        invocation.addArg("service.sql.indexes.file=indexes.sql");
+
+        invocation.addArg("service.sql.indexes.properties.file=indexes.properties");
+
+        invocation.addArg("service.sql.sequences.file=sequences.sql");
+
+        invocation.addArg("service.auto.namespace.tables=true");
+
+        invocation.addArg("service.bean.locator.util=com.liferay.util.bean.PortletBeanLocatorUtil");
+
+        invocation.addArg("service.props.util=com.liferay.util.service.ServiceProps");
+
+        invocation.addArg("service.plugin.name=" + getPluginName());
+
+        ToolRunner runner = inProcess ? InProcessToolRunner.getInstance() : ToolWorkerPool.getInstance();
+
+        output.runStarted();
+        return output.runFinished(runner.execute(invocation, output));
+    }
+
+    private boolean getIncremental() {
+        return incremental;
+    }
+
+    private String getPluginName() {
+        return definition.getPluginName();
+    }
+
+    private File getServiceInputFile() {
+        return definition.getServiceInputFile();
+    }
+
+    private File getJalopyInputFile() {
+        return definition.getJalopyInputFile();
+    }
+
+    private File getImplSrcDir() {
+        return definition.getImplSrcDir();
+    }
+
+    private File getApiSrcDir() {
+        return definition.getApiSrcDir();
+    }
+
+    private File getResourceDir() {
+        return definition.getResourceDir();
+    }
+
+    private File getWebappSrcDir() {
+        return definition.getWebappDir();
+    }
+
+    private List<File> getClasspath() {
+        return classpath;
+    }
+
+    private Logger getLogger() {
+        return logger;
+    }
+
+    private static final class GeneratedDirs {
+        private final File implSrcDir;
+        private final File apiSrcDir;
+        private final File resourceDir;
+        private final File webappSrcDir;
+
+        private GeneratedDirs(File implSrcDir, File apiSrcDir, File resourceDir, File webappSrcDir) {
+
+            // service builder does not run in the project dir, all paths passed to it are absolute
+
+            this.implSrcDir = implSrcDir.getAbsoluteFile();
+            this.apiSrcDir = apiSrcDir.getAbsoluteFile();
+            this.resourceDir = resourceDir.getAbsoluteFile();
+            this.webappSrcDir = webappSrcDir.getAbsoluteFile();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The parsed form of a servicebuilder service definition file. Used to work out which entities changed between two
+ * versions of the file and to write a service definition that only contains a subset of the entities.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ServiceXml {
+
+    private final Document document;
+
+    private final String packagePath;
+
+    private final String globalFingerprint;
+
+    private final Map<String, String> entityFingerprints = new LinkedHashMap<String, String>();
+
+    // entities that share a mapping table, both sides need to be regenerated when either one changes
+    private final Map<String, Set<String>> mappedEntities = new HashMap<String, Set<String>>();
+
+    // entities that must be present in the same file for servicebuilder to resolve an entity
+    private final Map<String, Set<String>> referencedEntities = new HashMap<String, Set<String>>();
+
+    private ServiceXml(Document document) {
+        this.document = document;
+
+        Element root = document.getDocumentElement();
+        this.packagePath = root.getAttribute("package-path");
+
+        StringBuilder global = new StringBuilder();
+        appendAttributes(root, global);
+
+        for (Element child : childElements(root)) {
+            if ("entity".equals(child.getTagName())) {
+                addEntity(child);
+            } else {
+                appendCanonical(child, global);
+            }
+        }
+        this.globalFingerprint = global.toString();
+    }
+
+    /**
+     * Parses a service definition file. The DTD is not loaded so this does not require network access.
+     *
+     * @param file the file to parse
+     * @return the parsed service definition
+     * @throws IOException when the file cannot be read or is not well formed
+     */
+    static ServiceXml parse(File file) throws IOException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setValidating(false);
+        factory.setNamespaceAware(false);
+        factory.setIgnoringComments(true);
+
+        try {
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException e) {
+            // not a xerces based parser, the dtd may be fetched
+        }
+
+        try {
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            return new ServiceXml(builder.parse(file));
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        } catch (SAXException e) {
+            throw new IOException("Could not parse " + file + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the package path of the service.
+     *
+     * @return the package path of the service
+     */
+    String getPackagePath() {
+        return packagePath;
+    }
+
+    /**
+     * Returns the names of the entities, in declaration order.
+     *
+     * @return the names of the entities
+     */
+    Set<String> getEntityNames() {
+        return Collections.unmodifiableSet(entityFingerprints.keySet());
+    }
+
+    /**
+     * Returns a string that changes whenever the definition of the service changes in any way that matters to
+     * servicebuilder. Whitespace, comments and attribute order are ignored.
+     *
+     * @return the fingerprint of the service definition
+     */
+    String getFingerprint() {
+        StringBuilder fingerprint = new StringBuilder(globalFingerprint);
+        for (String entityFingerprint : entityFingerprints.values()) {
+            fingerprint.append(entityFingerprint);
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Works out which entities need to be regenerated when moving from a previous version of the service
+     * definition to this one. Entities that share a mapping table with a changed entity are included as well.
+     *
+     * @param previous the previous version of the service definition
+     * @return the names of the entities that need to be regenerated, or null when the change cannot be limited
+     *         to individual entities (eg an entity was removed or a service wide setting changed)
+     */
+    Set<String> changedEntitiesSince(ServiceXml previous) {
+        if (!globalFingerprint.equals(previous.globalFingerprint)) {
+            return null;
+        }
+
+        if (!entityFingerprints.keySet().containsAll(previous.entityFingerprints.keySet())) {
+            return null;
+        }
+
+        Set<String> changed = new HashSet<String>();
+        for (Map.Entry<String, String> entry : entityFingerprints.entrySet()) {
+            if (!entry.getValue().equals(previous.entityFingerprints.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        return withMappedEntities(changed);
+    }
+
+    /**
+     * Returns the given entities plus the entities that share a mapping table with them.
+     *
+     * @param entityNames the names of the entities
+     * @return the entities plus the entities that share a mapping table with them
+     */
+    Set<String> withMappedEntities(Set<String> entityNames) {
+        Set<String> result = new HashSet<String>(entityNames);
+        for (String entityName : entityNames) {
+            Set<String> mapped = mappedEntities.get(entityName);
+            if (mapped != null) {
+                result.addAll(mapped);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the given entities plus all entities they transitively depend on. Servicebuilder can only generate
+     * an entity when the entities it references are declared in the same file.
+     *
+     * @param entityNames the names of the entities
+     * @return the entities plus all entities they transitively depend on
+     */
+    Set<String> withDependencies(Set<String> entityNames) {
+        Set<String> result = new HashSet<String>();
+        LinkedList<String> queue = new LinkedList<String>(entityNames);
+
+        while (!queue.isEmpty()) {
+            String entityName = queue.removeFirst();
+            if (result.add(entityName)) {
+                Set<String> references = referencedEntities.get(entityName);
+                if (references != null) {
+                    queue.addAll(references);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes a copy of the service definition that only contains the given entities.
+     *
+     * @param entityNames the names of the entities to keep
+     * @param file the file to write to
+     * @throws IOException when the file cannot be written
+     */
+    void writeSubset(Set<String> entityNames, File file) throws IOException {
+        Document copy = (Document) document.cloneNode(true);
+        Element root = copy.getDocumentElement();
+
+        for (Element child : childElements(root)) {
+            if ("entity".equals(child.getTagName()) && !entityNames.contains(child.getAttribute("name"))) {
+                root.removeChild(child);
+            }
+        }
+
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+
+            DocumentType doctype = document.getDoctype();
+            if (doctype != null) {
+                if (doctype.getPublicId() != null) {
+                    transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, doctype.getPublicId());
+                }
+                if (doctype.getSystemId() != null) {
+                    transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, doctype.getSystemId());
+                }
+            }
+
+            transformer.transform(new DOMSource(copy), new StreamResult(file));
+        } catch (TransformerException e) {
+            throw new IOException("Could not write " + file + " : " + e.getMessage());
+        }
+    }
+
+    private void addEntity(Element entity) {
+        String name = entity.getAttribute("name");
+
+        StringBuilder fingerprint = new StringBuilder();
+        appendCanonical(entity, fingerprint);
+        entityFingerprints.put(name, fingerprint.toString());
+
+        for (Element child : childElements(entity)) {
+            String target = child.getAttribute("entity");
+
+            if (target.length() == 0 || target.equals(name)) {
+                continue;
+            }
+
+            if ("column".equals(child.getTagName())) {
+                addTo(referencedEntities, name, target);
+
+                if (child.getAttribute("mapping-table").length() > 0) {
+                    addTo(mappedEntities, name, target);
+                    addTo(mappedEntities, target, name);
+                    addTo(referencedEntities, target, name);
+                }
+            } else if ("reference".equals(child.getTagName())
+                    && packagePath.equals(child.getAttribute("package-path"))) {
+                addTo(referencedEntities, name, target);
+            }
+        }
+    }
+
+    private static void addTo(Map<String, Set<String>> map, String key, String value) {
+        Set<String> values = map.get(key);
+        if (values == null) {
+            values = new HashSet<String>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static void appendCanonical(Element element, StringBuilder builder) {
+        builder.append('<').append(element.getTagName());
+        appendAttributes(element, builder);
+        builder.append('>');
+
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                appendCanonical((Element) child, builder);
+            } else if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                builder.append(child.getNodeValue().trim());
+            }
+        }
+        builder.append("</").append(element.getTagName()).append('>');
+    }
+
+    private static void appendAttributes(Element element, StringBuilder builder) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            sorted.put(attribute.getName(), attribute.getValue());
+        }
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            builder.append(' ').append(entry.getKey()).append("=\"").append(entry.getValue()).append('"');
+        }
+    }
+
+    private static List<Element> childElements(Element parent) {
+        List<Element> elements = new ArrayList<Element>();
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                elements.add((Element) children.item(i));
+            }
+        }
+        return elements;
+    }
+}
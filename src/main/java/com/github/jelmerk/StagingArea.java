@@ -0,0 +1,274 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A scratch copy of parts of one or more directories that a tool can write to freely. A staged directory starts out
+ * with only the files the tool reads, so the tool recreates everything it generates. When the tool is done the
+ * staged files are synced back, only touching files whose content actually changed so their modification times
+ * are preserved and downstream tasks stay up to date.
+ * <p/>
+ * The files the tool generated are recorded in a manifest, with the hash of the content that was synced. Generated
+ * files the tool no longer creates are removed on the next sync, unless they were modified since. Files that were
+ * never generated, eg hand written code next to the generated code, are never removed.
+ *
+ * @author Jelmer Kuperus
+ */
+final class StagingArea {
+
+    private final File dir;
+
+    private final File manifestFile;
+
+    private final Properties manifest;
+
+    private final List<Root> roots = new ArrayList<Root>();
+
+    private int unchanged;
+    private int updated;
+    private int removed;
+
+    /**
+     * Constructs a new StagingArea. Anything that was left behind in the directory is removed.
+     *
+     * @param dir the directory the staged copies are created in
+     * @param manifestFile the file the generated files are recorded in
+     * @throws IOException when the directory cannot be cleaned
+     */
+    StagingArea(File dir, File manifestFile) throws IOException {
+        this.dir = dir;
+        this.manifestFile = manifestFile;
+        this.manifest = loadManifest(manifestFile);
+        FileOperations.delete(dir);
+    }
+
+    /**
+     * Returns the directory the staged copies are created in.
+     *
+     * @return the directory the staged copies are created in
+     */
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Returns true if the generated files of a previous sync are known. False otherwise
+     *
+     * @return true if the generated files of a previous sync are known. False otherwise
+     */
+    boolean hasManifest() {
+        return manifestFile.isFile();
+    }
+
+    /**
+     * Stages the files of a directory that the tool reads.
+     *
+     * @param targetDir the directory that is eventually written to
+     * @param name the name of the staged copy, unique within this staging area
+     * @param inputPaths the files and directories, relative to the target directory, that the tool reads. These are
+     *                   copied into the staging area and never recorded as generated
+     * @param withGeneratedFiles true if the files generated by the previous sync are copied into the staging area
+     *                           as well, for a tool that only regenerates some of them
+     * @return the staged copy of the directory
+     * @throws IOException when the files cannot be copied
+     */
+    File stage(File targetDir, String name, List<String> inputPaths, boolean withGeneratedFiles)
+            throws IOException {
+        File stagedDir = new File(dir, name);
+        FileOperations.mkdirs(stagedDir);
+
+        for (String inputPath : inputPaths) {
+            copyTree(new File(targetDir, inputPath), new File(stagedDir, inputPath));
+        }
+
+        if (withGeneratedFiles) {
+            String prefix = name + "/";
+            for (String key : manifest.stringPropertyNames()) {
+                if (key.startsWith(prefix)) {
+                    String relativePath = key.substring(prefix.length());
+                    copyTree(new File(targetDir, relativePath), new File(stagedDir, relativePath));
+                }
+            }
+        }
+
+        roots.add(new Root(stagedDir, targetDir, name, inputPaths));
+        return stagedDir;
+    }
+
+    /**
+     * Copies the files in the staging area to their target directories. Files with identical content are not
+     * touched, generated files that the tool no longer created are removed from the target directories.
+     *
+     * @throws IOException when the files cannot be copied
+     */
+    void sync() throws IOException {
+        Properties generated = new Properties();
+
+        for (Root root : roots) {
+            List<String> stagedFiles = new ArrayList<String>();
+            collectRelativePaths(root.stagedDir, "", stagedFiles);
+
+            for (String relativePath : stagedFiles) {
+                File staged = new File(root.stagedDir, relativePath);
+                File target = new File(root.targetDir, relativePath);
+
+                if (FileOperations.contentEquals(staged, target)) {
+                    unchanged++;
+                } else {
+                    FileOperations.mkdirs(target.getParentFile());
+                    FileOperations.copyFile(staged, target);
+                    updated++;
+                }
+
+                if (!root.isInput(relativePath)) {
+                    generated.setProperty(root.name + "/" + relativePath, Hashing.hash(staged));
+                }
+            }
+
+            String prefix = root.name + "/";
+            for (String key : manifest.stringPropertyNames()) {
+                if (!key.startsWith(prefix) || generated.containsKey(key)) {
+                    continue;
+                }
+                String relativePath = key.substring(prefix.length());
+                File target = new File(root.targetDir, relativePath);
+                if (root.isInput(relativePath) || new File(root.stagedDir, relativePath).exists()) {
+                    continue;
+                }
+                if (target.isFile() && Hashing.hash(target).equals(manifest.getProperty(key))) {
+                    FileOperations.delete(target);
+                    removed++;
+                }
+            }
+        }
+
+        saveManifest(generated, manifestFile);
+    }
+
+    /**
+     * Returns the number of files whose content did not change.
+     *
+     * @return the number of files whose content did not change
+     */
+    int getUnchangedCount() {
+        return unchanged;
+    }
+
+    /**
+     * Returns the number of files that were created or rewritten.
+     *
+     * @return the number of files that were created or rewritten
+     */
+    int getUpdatedCount() {
+        return updated;
+    }
+
+    /**
+     * Returns the number of files that were removed.
+     *
+     * @return the number of files that were removed
+     */
+    int getRemovedCount() {
+        return removed;
+    }
+
+    private static void collectRelativePaths(File file, String relativePath, List<String> relativePaths) {
+        if (file.isFile()) {
+            relativePaths.add(relativePath);
+        } else if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    String childPath = relativePath.length() == 0
+                            ? child.getName() : relativePath + "/" + child.getName();
+                    collectRelativePaths(child, childPath, relativePaths);
+                }
+            }
+        }
+    }
+
+    private static void copyTree(File source, File target) throws IOException {
+        if (source.isFile()) {
+            FileOperations.mkdirs(target.getParentFile());
+            FileOperations.copyFile(source, target);
+        } else if (source.isDirectory()) {
+            FileOperations.mkdirs(target);
+            File[] children = source.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    copyTree(child, new File(target, child.getName()));
+                }
+            }
+        }
+    }
+
+    private static Properties loadManifest(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    private static void saveManifest(Properties properties, File file) throws IOException {
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final class Root {
+        private final File stagedDir;
+        private final File targetDir;
+        private final String name;
+        private final List<String> inputPaths;
+
+        private Root(File stagedDir, File targetDir, String name, List<String> inputPaths) {
+            this.stagedDir = stagedDir;
+            this.targetDir = targetDir;
+            this.name = name;
+            this.inputPaths = inputPaths;
+        }
+
+        private boolean isInput(String relativePath) {
+            for (String inputPath : inputPaths) {
+                if (relativePath.equals(inputPath) || relativePath.startsWith(inputPath + "/")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that writes the {@link ApiSignature signature} of the api of a number
+ * of classes to a file. The file is only rewritten when the signature changed, so tasks that use the file as an input
+ * stay up to date when only method bodies, debug information or javadoc of the classes changed. The task did no work
+ * when the signature did not change.
+ *
+ * @author Jelmer Kuperus
+ */
+public class StoreApiSignature extends DefaultTask {
+
+    private FileCollection classes;
+
+    private File signatureFile;
+
+    /**
+     * Performs the store api signature task.
+     */
+    @TaskAction
+    public void storeApiSignature() {
+        try {
+            String signature = ApiSignature.of(getClasses().getFiles());
+            if (ApiSignature.isStoredIn(signature, getSignatureFile())) {
+                getLogger().info("The api did not change, keeping {}", getSignatureFile());
+                setDidWork(false);
+                return;
+            }
+            ApiSignature.store(signature, getSignatureFile());
+        } catch (IOException e) {
+            throw new GradleException("Could not store the api signature in " + getSignatureFile(), e);
+        }
+    }
+
+    /**
+     * Returns the classes and resources the signature is computed of.
+     *
+     * @return the classes and resources the signature is computed of
+     */
+    @InputFiles
+    public FileCollection getClasses() {
+        return classes;
+    }
+
+    /**
+     * Sets the classes and resources the signature is computed of, eg the output of a source set.
+     * This property is required.
+     *
+     * @param classes the classes and resources the signature is computed of
+     */
+    public void setClasses(FileCollection classes) {
+        this.classes = classes;
+    }
+
+    /**
+     * Returns the file the signature is stored in.
+     *
+     * @return the file the signature is stored in
+     */
+    @OutputFile
+    public File getSignatureFile() {
+        return signatureFile;
+    }
+
+    /**
+     * Sets the file the signature is stored in.
+     * This property is required.
+     *
+     * @param signatureFile the file the signature is stored in
+     */
+    public void setSignatureFile(File signatureFile) {
+        this.signatureFile = signatureFile;
+    }
+}
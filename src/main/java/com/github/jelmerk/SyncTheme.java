@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that keeps a deployed theme in sync with the diffs while you work
+ * on them, so changes show up without building and deploying the war. The diffs are checked for changes a few
+ * times per second and only the files that changed are copied into the exploded theme in the application server.
+ * When a diff is deleted the file of the parent theme it replaced is restored, using the same layers as
+ * {@link MergeTheme}.
+ * <p/>
+ * The task runs until the build is stopped. Changes are detected by polling the size and modification time of the
+ * diffs rather than with a watch service, which is not available on java 6.
+ *
+ * @author Jelmer Kuperus
+ */
+public class SyncTheme extends DefaultTask {
+
+    /**
+     * The default value for the pollInterval property.
+     */
+    public static final int DEFAULT_POLL_INTERVAL = 250;
+
+    private MergeTheme mergeTask;
+
+    private File diffsDir;
+
+    private File deployedThemeDir;
+
+    private int pollInterval = DEFAULT_POLL_INTERVAL;
+
+    /**
+     * Performs the sync theme task.
+     */
+    @TaskAction
+    public void syncTheme() {
+        if (getDiffsDir() == null || !getDiffsDir().isDirectory()) {
+            throw new InvalidUserDataException("Please specify an existing diffsDir");
+        }
+
+        if (getDeployedThemeDir() == null || !getDeployedThemeDir().isDirectory()) {
+            throw new InvalidUserDataException("Please deploy the theme first, " + getDeployedThemeDir()
+                    + " does not exist");
+        }
+
+        if (getPollInterval() <= 0) {
+            throw new InvalidUserDataException("Please specify a valid pollInterval");
+        }
+
+        try {
+            Map<String, String> state = scan();
+
+            // diffs may have changed since the theme was deployed
+            int synced = 0;
+            for (String path : state.keySet()) {
+                File source = new File(getDiffsDir(), path);
+                File target = new File(getDeployedThemeDir(), path);
+                if (!FileOperations.contentEquals(source, target)) {
+                    copy(source, target);
+                    synced++;
+                }
+            }
+            getLogger().lifecycle("Synced {} files to {}, watching {} for changes", synced, getDeployedThemeDir(),
+                    getDiffsDir());
+
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(getPollInterval());
+
+                Map<String, String> current = scan();
+                sync(state, current);
+                state = current;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new GradleException("Could not sync theme to " + getDeployedThemeDir(), e);
+        }
+    }
+
+    private void sync(Map<String, String> previous, Map<String, String> current) throws IOException {
+        long start = System.currentTimeMillis();
+
+        List<String> changed = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        List<String> deleted = new ArrayList<String>();
+        for (String path : previous.keySet()) {
+            if (!current.containsKey(path)) {
+                deleted.add(path);
+            }
+        }
+
+        if (changed.isEmpty() && deleted.isEmpty()) {
+            return;
+        }
+
+        for (String path : changed) {
+            copy(new File(getDiffsDir(), path), new File(getDeployedThemeDir(), path));
+        }
+
+        if (!deleted.isEmpty()) {
+            // the diffs no longer provide these files, a layer below them may
+            Map<String, ThemeLayer.ThemeFile> files = getMergeTask().resolveFiles(getMergeTask().createLayers());
+            for (String path : deleted) {
+                ThemeLayer.ThemeFile file = files.get(path);
+                File target = new File(getDeployedThemeDir(), path);
+                if (file == null) {
+                    FileOperations.delete(target);
+                } else {
+                    copy(file.getSource(), target);
+                }
+            }
+        }
+
+        getLogger().lifecycle("Synced {} changed and {} deleted files in {} ms", changed.size(), deleted.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        // the deployed file may be hard linked to the merged theme or the portal, never write through the link
+        FileOperations.mkdirs(target.getParentFile());
+        FileOperations.delete(target);
+        FileOperations.copyFile(source, target);
+    }
+
+    private Map<String, String> scan() {
+        Map<String, String> state = new HashMap<String, String>();
+        scan(getDiffsDir(), "", state);
+        return state;
+    }
+
+    private static void scan(File dir, String path, Map<String, String> state) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String childPath = path.length() == 0 ? child.getName() : path + "/" + child.getName();
+            if (child.isDirectory()) {
+                scan(child, childPath, state);
+            } else {
+                state.put(childPath, child.length() + ":" + child.lastModified());
+            }
+        }
+    }
+
+    /**
+     * Returns the task that defines the layers of the theme.
+     *
+     * @return the task that defines the layers of the theme
+     */
+    public MergeTheme getMergeTask() {
+        return mergeTask;
+    }
+
+    /**
+     * Sets the task that defines the layers of the theme. Files of these layers are restored when the diff that
+     * replaced them is deleted. Setting this field is mandatory.
+     *
+     * @param mergeTask the task that defines the layers of the theme
+     */
+    public void setMergeTask(MergeTheme mergeTask) {
+        this.mergeTask = mergeTask;
+    }
+
+    /**
+     * Returns the folder that contains the diffs to sync.
+     *
+     * @return the folder that contains the diffs to sync
+     */
+    public File getDiffsDir() {
+        return diffsDir;
+    }
+
+    /**
+     * Sets the folder that contains the diffs to sync.
+     * If unset this value defaults to the diffs dir configured on the theme extension
+     *
+     * @param diffsDir the folder that contains the diffs to sync
+     */
+    public void setDiffsDir(File diffsDir) {
+        this.diffsDir = diffsDir;
+    }
+
+    /**
+     * Returns the folder the theme is deployed to in the application server.
+     *
+     * @return the folder the theme is deployed to in the application server
+     */
+    public File getDeployedThemeDir() {
+        return deployedThemeDir;
+    }
+
+    /**
+     * Sets the folder the theme is deployed to in the application server.
+     * If unset this value defaults to $appServerDirName/webapps/$project.name
+     *
+     * @param deployedThemeDir the folder the theme is deployed to in the application server
+     */
+    public void setDeployedThemeDir(File deployedThemeDir) {
+        this.deployedThemeDir = deployedThemeDir;
+    }
+
+    /**
+     * Returns the number of milliseconds between two checks for changes.
+     *
+     * @return the number of milliseconds between two checks for changes
+     */
+    public int getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Sets the number of milliseconds between two checks for changes.
+     * If unset this value defaults to 250
+     *
+     * @param pollInterval the number of milliseconds between two checks for changes
+     */
+    public void setPollInterval(int pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+}
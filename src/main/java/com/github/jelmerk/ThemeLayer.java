@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of files that is merged into a theme, eg the files of the parent theme or the diffs. Files of layers that
+ * are merged later overwrite files of layers that are merged earlier. Files are selected with ant patterns, just
+ * like the copy tasks in the Liferay plugins SDK do.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ThemeLayer {
+
+    private final String name;
+
+    private final File dir;
+
+    private final String includes;
+
+    private final String excludes;
+
+    private final String targetPath;
+
+    private final boolean immutable;
+
+    private final List<String> knownFiles;
+
+    /**
+     * Constructs a new ThemeLayer.
+     *
+     * @param name the name of the layer, eg unstyled or diffs
+     * @param dir the folder that holds the files of the layer
+     * @param includes comma separated ant patterns of the files that are included. All files if null
+     * @param excludes comma separated ant patterns of the files that are excluded. No files if null
+     * @param targetPath the folder, relative to the theme, the files are merged into. The empty string for the root
+     * @param immutable true if the files of the layer never change, eg the themes of a portal install. Files of
+     *                  immutable layers may be linked into the theme instead of copied
+     */
+    ThemeLayer(String name, File dir, String includes, String excludes, String targetPath, boolean immutable) {
+        this(name, dir, includes, excludes, targetPath, immutable, null);
+    }
+
+    /**
+     * Constructs a new ThemeLayer of which the files are known up front, so the folder does not need to be scanned.
+     *
+     * @param name the name of the layer, eg unstyled or diffs
+     * @param dir the folder that holds the files of the layer
+     * @param includes comma separated ant patterns of the files that are included. All files if null
+     * @param excludes comma separated ant patterns of the files that are excluded. No files if null
+     * @param targetPath the folder, relative to the theme, the files are merged into. The empty string for the root
+     * @param immutable true if the files of the layer never change
+     * @param knownFiles the paths of all files in the folder, relative to the folder and using forward slashes. The
+     *                   folder is scanned if null
+     */
+    ThemeLayer(String name, File dir, String includes, String excludes, String targetPath, boolean immutable,
+               List<String> knownFiles) {
+        this.name = name;
+        this.dir = dir;
+        this.includes = includes;
+        this.excludes = excludes;
+        this.targetPath = targetPath;
+        this.immutable = immutable;
+        this.knownFiles = knownFiles;
+    }
+
+    /**
+     * Returns the name of the layer.
+     *
+     * @return the name of the layer
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns true if the files of the layer never change and may be linked into the theme instead of copied.
+     *
+     * @return true if the files of the layer never change
+     */
+    boolean isImmutable() {
+        return immutable;
+    }
+
+    /**
+     * Returns the folder that holds the files of the layer.
+     *
+     * @return the folder that holds the files of the layer
+     */
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Adds the files of this layer to the files of the theme, replacing files with the same path.
+     *
+     * @param antProject the ant project used to select files
+     * @param files the files of the theme by their path relative to the theme, using forward slashes
+     */
+    void addTo(Project antProject, Map<String, ThemeFile> files) {
+        for (String path : getIncludedFiles(antProject)) {
+            String relativePath = path.replace(File.separatorChar, '/');
+            String themePath = targetPath.length() == 0 ? relativePath : targetPath + "/" + relativePath;
+            files.put(themePath, new ThemeFile(this, new File(dir, path)));
+        }
+    }
+
+    private String[] getIncludedFiles(Project antProject) {
+        if (knownFiles != null) {
+            return selectKnownFiles();
+        }
+
+        FileSet fileSet = new FileSet();
+        fileSet.setDir(dir);
+        fileSet.setIncludes(includes);
+        fileSet.setExcludes(excludes);
+
+        DirectoryScanner scanner = fileSet.getDirectoryScanner(antProject);
+        return scanner.getIncludedFiles();
+    }
+
+    private String[] selectKnownFiles() {
+        // the same selection the directory scanner makes, including its default excludes, without walking the folder
+
+        List<String> includePatterns = includes == null ? Arrays.asList("**") : toPatterns(includes);
+        List<String> excludePatterns = excludes == null ? new ArrayList<String>() : toPatterns(excludes);
+        excludePatterns.addAll(toPatterns(DirectoryScanner.getDefaultExcludes()));
+
+        List<String> selected = new ArrayList<String>();
+        for (String knownFile : knownFiles) {
+            String path = knownFile.replace('/', File.separatorChar);
+            if (matchesAny(includePatterns, path) && !matchesAny(excludePatterns, path)) {
+                selected.add(path);
+            }
+        }
+        return selected.toArray(new String[selected.size()]);
+    }
+
+    private static List<String> toPatterns(String patterns) {
+        return toPatterns(patterns.split("[, ]+"));
+    }
+
+    private static List<String> toPatterns(String[] patterns) {
+        List<String> result = new ArrayList<String>();
+        for (String pattern : patterns) {
+            String normalized = pattern.trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+            if (normalized.length() == 0) {
+                continue;
+            }
+            // a trailing separator means everything below that folder, just like in ant
+            if (normalized.endsWith(File.separator)) {
+                normalized += "**";
+            }
+            result.add(normalized);
+        }
+        return result;
+    }
+
+    private static boolean matchesAny(List<String> patterns, String path) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, path, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A file of the theme and the layer it comes from.
+     */
+    static final class ThemeFile {
+        private final ThemeLayer layer;
+        private final File source;
+
+        ThemeFile(ThemeLayer layer, File source) {
+            this.layer = layer;
+            this.source = source;
+        }
+
+        /**
+         * Returns the layer the file comes from.
+         *
+         * @return the layer the file comes from
+         */
+        ThemeLayer getLayer() {
+            return layer;
+        }
+
+        /**
+         * Returns the file in the folder of the layer.
+         *
+         * @return the file in the folder of the layer
+         */
+        File getSource() {
+            return source;
+        }
+    }
+}
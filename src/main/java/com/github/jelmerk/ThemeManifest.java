@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Records, for every file of a merged theme, the layer and file it was copied from, the hash of its content and
+ * the size and modification time of both the source and the copy. This allows the next merge to only copy the
+ * files that changed, without reading files that did not.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ThemeManifest {
+
+    private static final String SEPARATOR = "|";
+
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * Loads a manifest. Returns an empty manifest if the file does not exist or cannot be read, so everything is
+     * merged again.
+     *
+     * @param file the file the manifest was saved to
+     * @return the manifest
+     */
+    static ThemeManifest load(File file) {
+        ThemeManifest manifest = new ThemeManifest();
+        if (!file.isFile()) {
+            return manifest;
+        }
+
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return manifest;
+        }
+
+        for (String path : properties.stringPropertyNames()) {
+            Entry entry = Entry.parse(properties.getProperty(path));
+            if (entry != null) {
+                manifest.entries.put(path, entry);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Saves the manifest.
+     *
+     * @param file the file to save to
+     * @throws IOException when the file cannot be written
+     */
+    void save(File file) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().format());
+        }
+
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the paths of the files in the manifest.
+     *
+     * @return the paths of the files in the manifest
+     */
+    Set<String> getPaths() {
+        return entries.keySet();
+    }
+
+    /**
+     * Returns the entry of a file.
+     *
+     * @param path the path of the file relative to the theme
+     * @return the entry of the file or null if the manifest does not contain the file
+     */
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Adds or replaces the entry of a file.
+     *
+     * @param path the path of the file relative to the theme
+     * @param entry the entry
+     */
+    void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    /**
+     * The origin and state of a single file of the theme.
+     */
+    static final class Entry {
+        private final String layer;
+        private final String source;
+        private final long sourceLength;
+        private final long sourceLastModified;
+        private final String hash;
+        private final long outputLength;
+        private final long outputLastModified;
+
+        private Entry(String layer, String source, long sourceLength, long sourceLastModified, String hash,
+                      long outputLength, long outputLastModified) {
+            this.layer = layer;
+            this.source = source;
+            this.sourceLength = sourceLength;
+            this.sourceLastModified = sourceLastModified;
+            this.hash = hash;
+            this.outputLength = outputLength;
+            this.outputLastModified = outputLastModified;
+        }
+
+        /**
+         * Creates an entry for a file that was just merged.
+         *
+         * @param layer the name of the layer the file comes from
+         * @param source the file in the folder of the layer
+         * @param hash the hash of the content of the file
+         * @param output the merged file
+         * @return the entry
+         */
+        static Entry of(String layer, File source, String hash, File output) {
+            return new Entry(layer, source.getAbsolutePath(), source.length(), source.lastModified(), hash,
+                    output.length(), output.lastModified());
+        }
+
+        /**
+         * Returns the name of the layer the file comes from.
+         *
+         * @return the name of the layer the file comes from
+         */
+        String getLayer() {
+            return layer;
+        }
+
+        /**
+         * Returns the hash of the content of the file.
+         *
+         * @return the hash of the content of the file
+         */
+        String getHash() {
+            return hash;
+        }
+
+        /**
+         * Returns true if a file is the source this entry was created for and it was not modified since.
+         *
+         * @param file the source file
+         * @return true if the file is the source of this entry and was not modified since
+         */
+        boolean isUnchangedSource(File file) {
+            return source.equals(file.getAbsolutePath()) && file.length() == sourceLength
+                    && file.lastModified() == sourceLastModified;
+        }
+
+        /**
+         * Returns true if the merged file was not modified or deleted since it was merged.
+         *
+         * @param file the merged file
+         * @return true if the merged file was not modified or deleted since it was merged
+         */
+        boolean isUnchangedOutput(File file) {
+            return file.isFile() && file.length() == outputLength && file.lastModified() == outputLastModified;
+        }
+
+        private String format() {
+            return layer + SEPARATOR + sourceLength + SEPARATOR + sourceLastModified + SEPARATOR + hash
+                    + SEPARATOR + outputLength + SEPARATOR + outputLastModified + SEPARATOR + source;
+        }
+
+        private static Entry parse(String value) {
+            // the source goes last, it is the only part that can contain the separator
+            String[] parts = value.split("\\|", 7);
+            if (parts.length != 7) {
+                return null;
+            }
+            try {
+                return new Entry(parts[0], parts[6], Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3],
+                        Long.parseLong(parts[4]), Long.parseLong(parts[5]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.Action;
+import org.gradle.api.Task;
+import org.gradle.api.file.FileCopyDetails;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Packages a theme straight from its layers. As a source of the war it resolves to the files of the layers that
+ * are not overwritten by a later layer, as an action on the files of the war it moves each of these files to its
+ * path in the theme. Files in the output dir of the merge task are generated by other tasks and already packaged
+ * from there, they overwrite the files of the layers.
+ * <p/>
+ * Folders of files generated from the theme by other tasks, eg optimized images, go on top of all that, whether
+ * the theme is packaged from its layers or not. They are sources of the war as well, and a file in such a folder
+ * keeps the files with the same path in the layers, in the output dir of the merge task and in earlier generated
+ * folders out of the war.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ThemeOverlay implements Callable<List<File>>, Action<FileCopyDetails> {
+
+    private static final String GENERATED_LAYER_NAME = "generated";
+
+    private final MergeTheme mergeTask;
+
+    private final List<Task> generatingTasks = new ArrayList<Task>();
+
+    private final List<File> generatedDirs = new ArrayList<File>();
+
+    private List<File> sources;
+
+    private Map<String, String> themePaths;
+
+    /**
+     * Constructs a new ThemeOverlay.
+     *
+     * @param mergeTask the task that defines the layers of the theme
+     */
+    ThemeOverlay(MergeTheme mergeTask) {
+        this.mergeTask = mergeTask;
+    }
+
+    /**
+     * Adds a folder of files generated from the theme on top of the layers. Folders that are added later overwrite
+     * the files of folders that are added earlier.
+     *
+     * @param task the task that writes the folder, the folder is ignored while the task is disabled because it may
+     *             hold files of an earlier build
+     * @param dir the folder
+     */
+    void addGeneratedDir(Task task, File dir) {
+        generatingTasks.add(task);
+        generatedDirs.add(dir);
+    }
+
+    /**
+     * Returns the files of the layers that end up in the theme, followed by the generated folders. Only the
+     * generated folders if the theme is not packaged from its layers.
+     *
+     * @return the files of the layers that end up in the theme, followed by the generated folders
+     */
+    @Override
+    public synchronized List<File> call() {
+        List<File> files = new ArrayList<File>();
+        if (mergeTask.isVirtualOverlay()) {
+            if (sources == null) {
+                resolve();
+            }
+            files.addAll(sources);
+        }
+        files.addAll(getGeneratedDirs());
+        return files;
+    }
+
+    /**
+     * Moves a file of a layer to its path in the theme and excludes files that are overwritten by a generated
+     * folder, leaves all other files alone.
+     *
+     * @param details the file in the war
+     */
+    @Override
+    public void execute(FileCopyDetails details) {
+        String path = details.getFile().getAbsolutePath();
+
+        List<File> dirs = getGeneratedDirs();
+        int rank = -1;
+        String themePath = getThemePaths().get(path);
+        if (themePath != null) {
+            details.setPath(themePath);
+        } else {
+            themePath = relativePath(mergeTask.getOutputDir(), path);
+            for (int i = 0; i < dirs.size() && themePath == null; i++) {
+                themePath = relativePath(dirs.get(i), path);
+                rank = i;
+            }
+            if (themePath == null) {
+                return;
+            }
+        }
+
+        for (int i = rank + 1; i < dirs.size(); i++) {
+            if (new File(dirs.get(i), themePath).isFile()) {
+                details.exclude();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the files of the layers that end up in the theme by their path in the theme. Empty if the theme is
+     * not packaged from its layers.
+     *
+     * @return the files of the layers that end up in the theme by their path in the theme
+     */
+    synchronized Map<String, File> getFiles() {
+        Map<String, File> files = new TreeMap<String, File>();
+        if (!mergeTask.isVirtualOverlay()) {
+            return files;
+        }
+        if (sources == null) {
+            resolve();
+        }
+        for (File source : sources) {
+            files.put(themePaths.get(source.getAbsolutePath()), source);
+        }
+        return files;
+    }
+
+    /**
+     * Returns the files of the generated folders by their path in the theme. These overwrite the files of the layers
+     * and the files in the output dir of the merge task.
+     *
+     * @return the files of the generated folders by their path in the theme
+     */
+    Map<String, File> getGeneratedFiles() {
+
+        // generated folders change while the theme is built, unlike the layers they are not resolved only once
+
+        List<ThemeLayer> layers = new ArrayList<ThemeLayer>();
+        for (File dir : getGeneratedDirs()) {
+            if (dir.isDirectory()) {
+                layers.add(new ThemeLayer(GENERATED_LAYER_NAME, dir, null, null, "", false));
+            }
+        }
+
+        Map<String, File> files = new TreeMap<String, File>();
+        for (Map.Entry<String, ThemeLayer.ThemeFile> entry : mergeTask.resolveFiles(layers).entrySet()) {
+            files.put(entry.getKey(), entry.getValue().getSource());
+        }
+        return files;
+    }
+
+    private synchronized Map<String, String> getThemePaths() {
+        if (!mergeTask.isVirtualOverlay()) {
+            return Collections.emptyMap();
+        }
+        if (themePaths == null) {
+            resolve();
+        }
+        return themePaths;
+    }
+
+    private synchronized List<File> getGeneratedDirs() {
+        List<File> dirs = new ArrayList<File>();
+        for (int i = 0; i < generatedDirs.size(); i++) {
+            if (generatingTasks.get(i).getEnabled()) {
+                dirs.add(generatedDirs.get(i));
+            }
+        }
+        return dirs;
+    }
+
+    private static String relativePath(File dir, String path) {
+        if (dir == null) {
+            return null;
+        }
+        String prefix = dir.getAbsolutePath() + File.separator;
+        return path.startsWith(prefix) ? path.substring(prefix.length()).replace(File.separatorChar, '/') : null;
+    }
+
+    private void resolve() {
+        List<ThemeLayer> layers = mergeTask.createLayers();
+
+        List<File> dirs = new ArrayList<File>();
+        dirs.add(mergeTask.getOutputDir());
+        dirs.addAll(getGeneratedDirs());
+        for (File dir : dirs) {
+            if (dir != null && dir.isDirectory()) {
+                layers.add(new ThemeLayer(GENERATED_LAYER_NAME, dir, null, null, "", false));
+            }
+        }
+
+        List<File> files = new ArrayList<File>();
+        Map<String, String> paths = new HashMap<String, String>();
+
+        for (Map.Entry<String, ThemeLayer.ThemeFile> entry : mergeTask.resolveFiles(layers).entrySet()) {
+            ThemeLayer.ThemeFile file = entry.getValue();
+            if (GENERATED_LAYER_NAME.equals(file.getLayer().getName())) {
+                continue;
+            }
+            files.add(file.getSource());
+            paths.put(file.getSource().getAbsolutePath(), entry.getKey());
+        }
+
+        sources = files;
+        themePaths = paths;
+    }
+}
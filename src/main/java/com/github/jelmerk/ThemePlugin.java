@@ -25,8 +25,11 @@ import org.gradle.api.invocation.Gradle;
 import org.gradle.api.plugins.WarPlugin;
 import org.gradle.api.plugins.WarPluginConvention;
 import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.bundling.War;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Implementation of {@link Plugin} that adds tasks and configuration for creating Liferay themes.
@@ -46,11 +49,32 @@ public class ThemePlugin implements Plugin<Project> {
      */
     public static final String MERGE_THEME_TASK_NAME = "mergeTheme";
 
+    /**
+     * The name of the task that packs the icons of the theme into sprites.
+     */
+    public static final String BUILD_SPRITES_TASK_NAME = "buildSprites";
+
+    /**
+     * The name of the task that precompiles the css of the merged theme.
+     */
+    public static final String SASS_TO_CSS_TASK_NAME = "sassToCss";
+
+    /**
+     * The name of the task that syncs the diffs into the deployed theme.
+     */
+    public static final String SYNC_THEME_TASK_NAME = "syncTheme";
+
     /**
      * The name of the theme extension.
      */
     public static final String THEME_EXTENSION_NAME = "theme";
 
+    private static final String SASS_OUTPUT_DIR = "sass";
+
+    private static final String OPTIMIZED_IMAGES_DIR = "optimized-images";
+
+    private static final String SPRITES_DIR = "sprites";
+
     /**
      * {@inheritDoc}
      */
@@ -65,8 +89,17 @@ public class ThemePlugin implements Plugin<Project> {
         configureMergeTemplateTaskDefaults(project);
         createMergeTemplateTask(project);
 
-        configureBuildThumbnailTaskDefaults(project);
         createBuildThumbnailTask(project);
+
+        createBuildSpritesTask(project);
+
+        createOptimizeImagesTask(project);
+
+        createSassToCssTask(project);
+
+        createSyncThemeTask(project);
+
+        configureWarOverlay(project);
     }
 
     private void configureWar(Project project) {
@@ -94,10 +127,6 @@ public class ThemePlugin implements Plugin<Project> {
         project.getGradle().addBuildListener(new MergeTemplateTaskBuildListener(task, themeExtension, warConvention));
     }
 
-    private void configureBuildThumbnailTaskDefaults(Project project) {
-        project.getGradle().addBuildListener(new BuildThumbnailTaskDefaultsBuildListener(project));
-    }
-
     private void createBuildThumbnailTask(Project project) {
         WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
         ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
@@ -115,59 +144,195 @@ public class ThemePlugin implements Plugin<Project> {
         warTask.dependsOn(task);
     }
 
-    private static final class BuildThumbnailTaskBuildListener extends BuildAdapter {
-        private final BuildThumbnail task;
+    private void createBuildSpritesTask(Project project) {
+        WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
+        ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
+
+        MergeTheme mergeTask = (MergeTheme) project.getTasks().getByName(MERGE_THEME_TASK_NAME);
+
+        BuildSprites task = project.getTasks().create(BUILD_SPRITES_TASK_NAME, BuildSprites.class);
+        task.setOutputDir(new File(project.getBuildDir(), SPRITES_DIR + "/images"));
+
+        // the icons of the theme are in the merged theme or, when the theme is packaged from its layers, in the
+        // layers. The sprites are written to a folder of their own that goes on top of the theme in the war
+        task.setThemeOverlay(new ThemeOverlay(mergeTask));
+
+        project.getGradle().addBuildListener(new BuildSpritesTaskBuildListener(task, themeExtension, warConvention));
+        task.dependsOn(project.getTasks().getByName(MERGE_THEME_TASK_NAME));
+
+        Task warTask = project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
+        warTask.dependsOn(task);
+    }
+
+    private void createOptimizeImagesTask(Project project) {
+        WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
+        MergeTheme mergeTask = (MergeTheme) project.getTasks().getByName(MERGE_THEME_TASK_NAME);
+
+        OptimizeImages task = project.getTasks().create(LiferayBasePlugin.OPTIMIZE_IMAGES_TASK_NAME,
+                OptimizeImages.class);
+        task.setOutputDir(new File(project.getBuildDir(), OPTIMIZED_IMAGES_DIR));
+
+        // the images of the theme are in the merged theme or, when the theme is packaged from its layers, in the
+        // layers. The merged theme is never written to, so the merge task can tell which files it merged changed
+        ThemeOverlay overlay = new ThemeOverlay(mergeTask);
+        overlay.addGeneratedDir(project.getTasks().getByName(BUILD_SPRITES_TASK_NAME),
+                new File(project.getBuildDir(), SPRITES_DIR));
+        task.setThemeOverlay(overlay);
+
+        project.getGradle().addBuildListener(new OptimizeImagesTaskBuildListener(task, warConvention));
+
+        // after every task that writes images of the theme
+        task.dependsOn(project.getTasks().getByName(MERGE_THEME_TASK_NAME),
+                project.getTasks().getByName(BUILD_THUMBNAIL_TASK_NAME),
+                project.getTasks().getByName(BUILD_SPRITES_TASK_NAME));
+
+        Task warTask = project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
+        warTask.dependsOn(task);
+    }
+
+    private void createSassToCssTask(Project project) {
+        MergeTheme mergeTask = (MergeTheme) project.getTasks().getByName(MERGE_THEME_TASK_NAME);
+
+        SassToCss task = project.getTasks().create(SASS_TO_CSS_TASK_NAME, SassToCss.class);
+        task.setSassDir(new File(project.getBuildDir(), SASS_OUTPUT_DIR));
+
+        // the css of the theme is in the merged theme or, when the theme is packaged from its layers, in the layers
+        task.setThemeOverlay(new ThemeOverlay(mergeTask));
+        task.dependsOn(mergeTask);
+
+        project.getGradle().addBuildListener(new SassToCssTaskBuildListener(project, task));
+
+        // the caches are packaged next to the css they were compiled from, so Liferay finds them once deployed
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("dir", new File(project.getBuildDir(), SASS_OUTPUT_DIR));
+        args.put("include", "**/.sass-cache/**/*");
+
+        War warTask = (War) project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
+        warTask.dependsOn(task);
+        warTask.from(project.fileTree(args));
+    }
+
+    private void configureWarOverlay(Project project) {
+        MergeTheme mergeTask = (MergeTheme) project.getTasks().getByName(MERGE_THEME_TASK_NAME);
+        OptimizeImages optimizeTask = (OptimizeImages) project.getTasks()
+                .getByName(LiferayBasePlugin.OPTIMIZE_IMAGES_TASK_NAME);
+
+        // contributes the files of the layers when the theme is packaged from its layers instead of from the merged
+        // theme, and the sprites and optimized images that replace the images of the theme either way
+        ThemeOverlay overlay = new ThemeOverlay(mergeTask);
+        overlay.addGeneratedDir(project.getTasks().getByName(BUILD_SPRITES_TASK_NAME),
+                new File(project.getBuildDir(), SPRITES_DIR));
+        overlay.addGeneratedDir(optimizeTask, optimizeTask.getOutputDir());
+
+        War warTask = (War) project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
+        warTask.from(overlay);
+        warTask.eachFile(overlay);
+    }
+
+    private void createSyncThemeTask(Project project) {
+        ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
+        LiferayPluginExtension liferayExtension = project.getExtensions().getByType(LiferayPluginExtension.class);
+
+        MergeTheme mergeTask = (MergeTheme) project.getTasks().getByName(MERGE_THEME_TASK_NAME);
+
+        SyncTheme task = project.getTasks().create(SYNC_THEME_TASK_NAME, SyncTheme.class);
+        task.setMergeTask(mergeTask);
+
+        project.getGradle().addBuildListener(new SyncThemeTaskBuildListener(task, themeExtension, liferayExtension));
+    }
+
+    private static final class SyncThemeTaskBuildListener extends BuildAdapter {
+        private final SyncTheme task;
         private final ThemePluginExtension themeExtension;
-        private final WarPluginConvention warConvention;
+        private final LiferayPluginExtension liferayExtension;
 
-        private BuildThumbnailTaskBuildListener(BuildThumbnail task,
-                                                ThemePluginExtension themeExtension,
-                                                WarPluginConvention warConvention) {
+        private SyncThemeTaskBuildListener(SyncTheme task,
+                                           ThemePluginExtension themeExtension,
+                                           LiferayPluginExtension liferayExtension) {
             this.task = task;
             this.themeExtension = themeExtension;
-            this.warConvention = warConvention;
+            this.liferayExtension = liferayExtension;
         }
 
         @Override
         public void projectsEvaluated(Gradle gradle) {
+            if (task.getDiffsDir() == null) {
+                task.setDiffsDir(themeExtension.getDiffsDir());
+            }
 
-            // only set the default if nothing was changed from say a configuration closure
+            if (task.getDeployedThemeDir() == null) {
+                task.setDeployedThemeDir(new File(liferayExtension.getAppServerDir(),
+                        "webapps/" + task.getProject().getName()));
+            }
+        }
+    }
 
-            if (task.getOriginalFile() == null) {
-                task.setOriginalFile(new File(themeExtension.getDiffsDir(), "images/screenshot.png"));
+    private static final class BuildSpritesTaskBuildListener extends BuildAdapter {
+        private final BuildSprites task;
+        private final ThemePluginExtension themeExtension;
+        private final WarPluginConvention warConvention;
+
+        private BuildSpritesTaskBuildListener(BuildSprites task,
+                                              ThemePluginExtension themeExtension,
+                                              WarPluginConvention warConvention) {
+            this.task = task;
+            this.themeExtension = themeExtension;
+            this.warConvention = warConvention;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            if (task.getImagesDir() == null) {
+                task.setImagesDir(new File(warConvention.getWebAppDir(), "images"));
             }
 
-            if (task.getThumbnailFile() == null) {
-                task.setThumbnailFile(new File(warConvention.getWebAppDir(), "images/thumbnail.png"));
+            if (!themeExtension.getBuildSprites()) {
+                task.setEnabled(false);
             }
         }
     }
 
-    private static final class BuildThumbnailTaskDefaultsBuildListener extends BuildAdapter {
-        private final Project project;
+    private static final class OptimizeImagesTaskBuildListener extends BuildAdapter {
+        private final OptimizeImages task;
+        private final WarPluginConvention warConvention;
 
-        private BuildThumbnailTaskDefaultsBuildListener(Project project) {
-            this.project = project;
+        private OptimizeImagesTaskBuildListener(OptimizeImages task, WarPluginConvention warConvention) {
+            this.task = task;
+            this.warConvention = warConvention;
         }
 
         @Override
         public void projectsEvaluated(Gradle gradle) {
-            LiferayPluginExtension liferayExtension = project.getExtensions().getByType(LiferayPluginExtension.class);
-            project.getTasks().withType(BuildThumbnail.class, new SetBuildThumbnailDefaultsAction(liferayExtension));
+            if (task.getSourceDir() == null) {
+                task.setSourceDir(warConvention.getWebAppDir());
+            }
         }
+    }
 
-        private static final class SetBuildThumbnailDefaultsAction implements Action<BuildThumbnail> {
-            private final LiferayPluginExtension liferayExtension;
+    private static final class BuildThumbnailTaskBuildListener extends BuildAdapter {
+        private final BuildThumbnail task;
+        private final ThemePluginExtension themeExtension;
+        private final WarPluginConvention warConvention;
 
-            private SetBuildThumbnailDefaultsAction(LiferayPluginExtension liferayExtension) {
-                this.liferayExtension = liferayExtension;
+        private BuildThumbnailTaskBuildListener(BuildThumbnail task,
+                                                ThemePluginExtension themeExtension,
+                                                WarPluginConvention warConvention) {
+            this.task = task;
+            this.themeExtension = themeExtension;
+            this.warConvention = warConvention;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+
+            // only set the default if nothing was changed from say a configuration closure
+
+            if (task.getOriginalFile() == null) {
+                task.setOriginalFile(new File(themeExtension.getDiffsDir(), "images/screenshot.png"));
             }
 
-            @Override
-            public void execute(BuildThumbnail task) {
-                if (task.getClasspath() == null) {
-                    task.setClasspath(liferayExtension.getPortalClasspath());
-                }
+            if (task.getThumbnailFile() == null) {
+                task.setThumbnailFile(new File(warConvention.getWebAppDir(), "images/thumbnail.png"));
             }
         }
     }
@@ -199,6 +364,15 @@ public class ThemePlugin implements Plugin<Project> {
                 task.setParentThemeProjectName(themeExtension.getParentThemeProjectName());
             }
 
+            if (task.getParentThemeProjectName() != null) {
+                // real dependencies rather than executing the task directly, so they take part in up to date
+                // checks and themes that do not depend on each other can be merged in parallel. The thumbnail is
+                // written into the merged theme as well, it must be done before the theme is read
+                Project parentProject = task.getProject().project(task.getParentThemeProjectName());
+                task.dependsOn(parentProject.getPath() + ":" + MERGE_THEME_TASK_NAME,
+                        parentProject.getPath() + ":" + BUILD_THUMBNAIL_TASK_NAME);
+            }
+
             if (task.getDiffsDir() == null) {
                 task.setDiffsDir(themeExtension.getDiffsDir());
             }
@@ -206,6 +380,18 @@ public class ThemePlugin implements Plugin<Project> {
             if (task.getOutputDir() == null) {
                 task.setOutputDir(warConvention.getWebAppDir());
             }
+
+            if (task.getMaterialization() == null) {
+                task.setMaterialization(themeExtension.getMaterialization());
+            }
+
+            if (task.getVirtualOverlay() == null) {
+                task.setVirtualOverlay(themeExtension.getVirtualOverlay());
+            }
+
+            if (task.getParentThemeCacheDir() == null) {
+                task.setParentThemeCacheDir(themeExtension.getParentThemeCacheDir());
+            }
         }
     }
 
@@ -240,6 +426,24 @@ public class ThemePlugin implements Plugin<Project> {
         }
     }
 
+    private static final class SassToCssTaskBuildListener extends BuildAdapter {
+        private final Project project;
+        private final SassToCss task;
+
+        private SassToCssTaskBuildListener(Project project, SassToCss task) {
+            this.project = project;
+            this.task = task;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            if (task.getSourceDir() == null) {
+                WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
+                task.setSourceDir(warConvention.getWebAppDir());
+            }
+        }
+    }
+
     private static final class ThumbnailTaskOnlyIfSpec implements Spec<Task> {
         private final ThemePluginExtension themeExtension;
 
@@ -34,6 +34,16 @@ public class ThemePluginExtension {
 
     private String diffsDirName = "src/main/diffs";
 
+    private String materialization = "copy";
+
+    private boolean virtualOverlay;
+
+    private boolean buildSprites;
+
+    private boolean parentThemeCacheEnabled = true;
+
+    private String parentThemeCacheDirName;
+
     private final Project project;
 
     /**
@@ -123,6 +133,118 @@ public class ThemePluginExtension {
         this.diffsDirName = diffsDirName;
     }
 
+    /**
+     * Returns how the files of the parent theme are placed in the merged theme.
+     *
+     * @return how the files of the parent theme are placed in the merged theme
+     */
+    public String getMaterialization() {
+        return materialization;
+    }
+
+    /**
+     * Sets how the files of the parent theme that ships with the portal are placed in the merged theme. Possible
+     * values are "copy", "hardlink" and "reflink". Links avoid writing a copy of the parent theme for every theme,
+     * files that cannot be linked are copied.
+     * If unset this property defaults to "copy"
+     *
+     * @param materialization how the files of the parent theme are placed in the merged theme
+     */
+    public void setMaterialization(String materialization) {
+        this.materialization = materialization;
+    }
+
+    /**
+     * Returns true if the war is packaged straight from the parent theme and the diffs. False otherwise
+     *
+     * @return true if the war is packaged straight from the parent theme and the diffs. False otherwise
+     */
+    public boolean getVirtualOverlay() {
+        return virtualOverlay;
+    }
+
+    /**
+     * Set to true if the war should be packaged straight from the parent theme and the diffs, without merging them
+     * into the webapp dir first. Every file is then read once and no intermediate copy of the theme is written.
+     * If unset this value defaults to false
+     *
+     * @param virtualOverlay true if the war should be packaged straight from the parent theme and the diffs
+     */
+    public void setVirtualOverlay(boolean virtualOverlay) {
+        this.virtualOverlay = virtualOverlay;
+    }
+
+    /**
+     * Returns true if the icons of the theme are packed into sprites when the theme is built. False otherwise
+     *
+     * @return true if the icons of the theme are packed into sprites when the theme is built. False otherwise
+     */
+    public boolean getBuildSprites() {
+        return buildSprites;
+    }
+
+    /**
+     * Set to true if the icons of the theme should be packed into sprites when the theme is built, instead of by
+     * Liferay when the theme is deployed. If unset this value defaults to false
+     *
+     * @param buildSprites true if the icons of the theme should be packed into sprites when the theme is built
+     */
+    public void setBuildSprites(boolean buildSprites) {
+        this.buildSprites = buildSprites;
+    }
+
+    /**
+     * Returns true if the themes that ship with the portal are read from a cache. False otherwise
+     *
+     * @return true if the themes that ship with the portal are read from a cache. False otherwise
+     */
+    public boolean getParentThemeCacheEnabled() {
+        return parentThemeCacheEnabled;
+    }
+
+    /**
+     * Set to true if the themes that ship with the portal should be read from a cache, which holds a copy of every
+     * theme per portal version together with the list of its files, so the portal does not have to be scanned.
+     * If unset this value defaults to true
+     *
+     * @param parentThemeCacheEnabled true if the themes that ship with the portal should be read from a cache
+     */
+    public void setParentThemeCacheEnabled(boolean parentThemeCacheEnabled) {
+        this.parentThemeCacheEnabled = parentThemeCacheEnabled;
+    }
+
+    /**
+     * Returns the path to the folder that caches the themes that ship with the portal.
+     *
+     * @return the path to the folder that caches the themes that ship with the portal
+     */
+    public String getParentThemeCacheDirName() {
+        if (parentThemeCacheDirName != null) {
+            return parentThemeCacheDirName;
+        }
+        return new File(project.getGradle().getGradleUserHomeDir(), "caches/liferay-plugin/themes").getPath();
+    }
+
+    /**
+     * Sets the path to the folder that caches the themes that ship with the portal.
+     * If unset this value defaults to caches/liferay-plugin/themes in the gradle user home
+     *
+     * @param parentThemeCacheDirName the path to the folder that caches the themes that ship with the portal
+     */
+    public void setParentThemeCacheDirName(String parentThemeCacheDirName) {
+        this.parentThemeCacheDirName = parentThemeCacheDirName;
+    }
+
+    /**
+     * Returns a file pointing to the folder that caches the themes that ship with the portal.
+     *
+     * @return a file pointing to the folder that caches the themes that ship with the portal or null if the cache
+     *         is disabled
+     */
+    public File getParentThemeCacheDir() {
+        return parentThemeCacheEnabled ? project.file(getParentThemeCacheDirName()) : null;
+    }
+
     /**
      * Returns a file pointing to the folder that contains the diffs to the selected parent theme. Diffs are files that
      * overwrite files contained in the parent theme.
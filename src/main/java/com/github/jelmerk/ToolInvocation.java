@@ -0,0 +1,196 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes a single run of the main method of one of the Liferay SDK tools. Runners decide the working directory of
+ * the tool, so all paths passed to it must be absolute. Files the tool only looks for relative to its working
+ * directory are added as working dir files.
+ *
+ * @author Jelmer Kuperus
+ */
+public class ToolInvocation {
+
+    private final String mainClassName;
+
+    private final List<File> classpath = new ArrayList<File>();
+
+    private final List<String> args = new ArrayList<String>();
+
+    private final Map<String, String> systemProperties = new LinkedHashMap<String, String>();
+
+    private final Map<String, File> workingDirFiles = new LinkedHashMap<String, File>();
+
+    private final Map<String, FileLoader> workingDirFileLoaders = new LinkedHashMap<String, FileLoader>();
+
+    /**
+     * Constructs a new ToolInvocation.
+     *
+     * @param mainClassName the name of the class whose main method is invoked
+     * @param classpath the classpath the tool is run with
+     */
+    public ToolInvocation(String mainClassName, Iterable<File> classpath) {
+        this.mainClassName = mainClassName;
+        for (File file : classpath) {
+            this.classpath.add(file);
+        }
+    }
+
+    /**
+     * Returns the name of the class whose main method is invoked.
+     *
+     * @return the name of the class whose main method is invoked
+     */
+    public String getMainClassName() {
+        return mainClassName;
+    }
+
+    /**
+     * Returns the classpath the tool is run with.
+     *
+     * @return the classpath the tool is run with
+     */
+    public List<File> getClasspath() {
+        return Collections.unmodifiableList(classpath);
+    }
+
+    /**
+     * Adds an entry to the classpath the tool is run with.
+     *
+     * @param file the entry to add
+     */
+    public void addClasspathEntry(File file) {
+        classpath.add(file);
+    }
+
+    /**
+     * Returns the arguments passed to the main method of the tool.
+     *
+     * @return the arguments passed to the main method of the tool
+     */
+    public List<String> getArgs() {
+        return Collections.unmodifiableList(args);
+    }
+
+    /**
+     * Adds an argument that is passed to the main method of the tool.
+     *
+     * @param arg the argument to add
+     */
+    public void addArg(String arg) {
+        args.add(arg);
+    }
+
+    /**
+     * Returns the system properties that are set while the tool runs.
+     *
+     * @return the system properties that are set while the tool runs
+     */
+    public Map<String, String> getSystemProperties() {
+        return Collections.unmodifiableMap(systemProperties);
+    }
+
+    /**
+     * Sets a system property for the duration of the tool run.
+     *
+     * @param name the name of the property
+     * @param value the value of the property
+     */
+    public void setSystemProperty(String name, String value) {
+        systemProperties.put(name, value);
+    }
+
+    /**
+     * Returns the files the tool expects to find relative to its working directory, keyed by relative path.
+     *
+     * @return the files the tool expects to find relative to its working directory
+     */
+    public Map<String, File> getWorkingDirFiles() {
+        return Collections.unmodifiableMap(workingDirFiles);
+    }
+
+    /**
+     * Adds a file the tool expects to find at a path relative to its working directory. Runners make sure the tool
+     * finds the file there while it runs.
+     *
+     * @param relativePath the path relative to the working directory, using forward slashes
+     * @param file the file that should be present at that path
+     */
+    public void addWorkingDirFile(String relativePath, File file) {
+        workingDirFiles.put(relativePath, file);
+    }
+
+    /**
+     * Returns the loaders of the working dir files, keyed by relative path.
+     *
+     * @return the loaders of the working dir files
+     */
+    public Map<String, FileLoader> getWorkingDirFileLoaders() {
+        return Collections.unmodifiableMap(workingDirFileLoaders);
+    }
+
+    /**
+     * Sets how the tool is handed a working dir file when it runs inside the build process. Relative paths are
+     * resolved against the working directory of the build process there, so instead of providing the file the static
+     * method is called with it before the tool runs, eg to configure a library the tool reads the file with.
+     *
+     * @param relativePath the path of the working dir file
+     * @param className the name of the class that declares the method
+     * @param methodName the name of a static method that takes a {@link File}
+     */
+    public void setWorkingDirFileLoader(String relativePath, String className, String methodName) {
+        workingDirFileLoaders.put(relativePath, new FileLoader(className, methodName));
+    }
+
+    /**
+     * A static method of the tool that is handed a working dir file.
+     */
+    public static final class FileLoader {
+        private final String className;
+        private final String methodName;
+
+        private FileLoader(String className, String methodName) {
+            this.className = className;
+            this.methodName = methodName;
+        }
+
+        /**
+         * Returns the name of the class that declares the method.
+         *
+         * @return the name of the class that declares the method
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * Returns the name of the method.
+         *
+         * @return the name of the method
+         */
+        public String getMethodName() {
+            return methodName;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+/**
+ * Receives the output of a Liferay SDK tool as it is produced.
+ *
+ * @author Jelmer Kuperus
+ */
+public interface ToolOutputListener {
+
+    /**
+     * Called for every line the tool writes to standard out or standard error.
+     *
+     * @param line the line, without line terminator
+     */
+    void onOutput(String line);
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+/**
+ * Runs the main method of one of the Liferay SDK tools.
+ *
+ * @author Jelmer Kuperus
+ */
+public interface ToolRunner {
+
+    /**
+     * Runs a tool and waits for it to finish.
+     *
+     * @param invocation the tool invocation
+     * @param listener receives the output of the tool as it is produced
+     * @return the exit code of the tool, 0 when the tool returned normally
+     */
+    int execute(ToolInvocation invocation, ToolOutputListener listener);
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Entry point of the worker JVMs managed by {@link ToolWorkerPool}. A worker reads tool invocations from standard in,
+ * runs the main method of the requested class in its own JVM and streams the output of the tool back over standard
+ * out. Workers stay alive between invocations so the classes of the tool only have to be loaded once.
+ * <p/>
+ * This class is loaded in the forked JVM, so it must not depend on anything but the JDK.
+ *
+ * @author Jelmer Kuperus
+ */
+public final class ToolWorker {
+
+    static final byte OUTPUT_FRAME = 1;
+    static final byte RESULT_FRAME = 2;
+
+    private final DataOutputStream out;
+
+    private ToolWorker(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Runs the worker loop until standard in is closed.
+     *
+     * @param args ignored
+     * @throws IOException when communicating with the build process fails
+     */
+    public static void main(String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out)));
+
+        ToolWorker worker = new ToolWorker(out);
+
+        // standard out is the channel back to the build process, anything the tools print is wrapped in frames
+
+        ToolOutputListener listener = new FrameWritingListener(worker);
+        System.setOut(new PrintStream(new LineForwardingOutputStream(listener), true));
+        System.setErr(new PrintStream(new LineForwardingOutputStream(listener), true));
+
+        // tools calling System.exit terminate the worker when exits cannot be trapped, the pool will replace it
+        MainMethodRunner runner = MainMethodRunner.install();
+
+        while (true) {
+            String className;
+            try {
+                className = in.readUTF();
+            } catch (EOFException e) {
+                // the build process went away
+                return;
+            }
+
+            String[] toolArgs = new String[in.readInt()];
+            for (int i = 0; i < toolArgs.length; i++) {
+                toolArgs[i] = in.readUTF();
+            }
+
+            Map<String, String> systemProperties = new HashMap<String, String>();
+            int numSystemProperties = in.readInt();
+            for (int i = 0; i < numSystemProperties; i++) {
+                systemProperties.put(in.readUTF(), in.readUTF());
+            }
+
+            worker.run(runner, className, toolArgs, systemProperties);
+        }
+    }
+
+    private void run(MainMethodRunner runner, String className, String[] args,
+                     Map<String, String> systemProperties) throws IOException {
+
+        MainMethodRunner.Result result = runner.run(ToolWorker.class.getClassLoader(), className, args,
+                systemProperties);
+
+        System.out.flush();
+        System.err.flush();
+
+        synchronized (this) {
+            out.writeByte(RESULT_FRAME);
+            out.writeInt(result.getExitCode());
+            writeString(result.getFailure());
+            out.flush();
+        }
+    }
+
+    private synchronized void writeLine(String line) throws IOException {
+        out.writeByte(OUTPUT_FRAME);
+        writeString(line);
+        out.flush();
+    }
+
+    private void writeString(String value) throws IOException {
+        // not using writeUTF because it cannot handle strings larger than 64k
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static final class FrameWritingListener implements ToolOutputListener {
+        private final ToolWorker worker;
+
+        private FrameWritingListener(ToolWorker worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        public void onOutput(String line) {
+            try {
+                worker.writeLine(line);
+            } catch (IOException e) {
+                // the build process went away, nobody is listening anymore
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
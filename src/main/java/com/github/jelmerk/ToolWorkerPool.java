@@ -0,0 +1,476 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Keeps a bounded pool of warm JVMs that run the Liferay SDK tools. Workers are keyed by a fingerprint of the
+ * classpath and JVM settings they were started with, so a worker is only reused for invocations that would have
+ * resulted in an identical forked JVM. The pool is shared by all tasks and projects in a build and can be kept alive
+ * across builds when the plugin classes are reused by the Gradle daemon.
+ * <p/>
+ * Projects share workers, so a worker is started in a private directory rather than in the directory of a project.
+ * That directory holds the files the current invocation expects relative to its working directory, and it is where
+ * relative paths of the tool resolve, so invocations pass absolute paths for everything else.
+ * <p/>
+ * Unless the maximum number of workers is configured, the pool grows to the number of tools tasks want to run at the
+ * same time, see {@link #requestWorkers(int)}, and to at least the number of processors.
+ *
+ * @author Jelmer Kuperus
+ */
+public final class ToolWorkerPool implements ToolRunner {
+
+    /**
+     * The default maximum number of worker JVMs, unless tasks request more.
+     */
+    public static final int DEFAULT_MAX_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The default number of seconds a worker may stay idle before it is stopped.
+     */
+    public static final int DEFAULT_IDLE_TIMEOUT = 300;
+
+    private static final Logger LOGGER = Logging.getLogger(ToolWorkerPool.class);
+
+    private static final ToolWorkerPool INSTANCE = new ToolWorkerPool();
+
+    private final List<Worker> workers = new ArrayList<Worker>();
+
+    private Integer configuredMaxWorkers;
+    private int requestedWorkers = DEFAULT_MAX_WORKERS;
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private String minHeapSize;
+    private String maxHeapSize;
+
+    private Timer reaper;
+
+    private ToolWorkerPool() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new ShutdownRunnable(this), "tool worker pool shutdown"));
+    }
+
+    /**
+     * Returns the pool shared by all tasks in this JVM.
+     *
+     * @return the pool shared by all tasks in this JVM
+     */
+    public static ToolWorkerPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Configures the pool. Settings only affect workers that are started after this call. Forgets the number of
+     * workers requested by the tasks of the previous build.
+     *
+     * @param maxWorkers the maximum number of worker JVMs that can be alive at the same time. May be null in which
+     *                   case it follows the number of workers tasks request
+     * @param idleTimeout the number of seconds a worker may be idle before it is stopped
+     * @param minHeapSize the initial heap size of the workers, eg 64m. May be null
+     * @param maxHeapSize the maximum heap size of the workers, eg 512m. May be null
+     */
+    public synchronized void configure(Integer maxWorkers, int idleTimeout, String minHeapSize,
+                                       String maxHeapSize) {
+        if (maxWorkers != null && maxWorkers <= 0) {
+            throw new IllegalArgumentException("The maximum number of workers must be at least 1");
+        }
+        this.configuredMaxWorkers = maxWorkers;
+        this.requestedWorkers = DEFAULT_MAX_WORKERS;
+        this.idleTimeout = idleTimeout;
+        this.minHeapSize = minHeapSize;
+        this.maxHeapSize = maxHeapSize;
+        notifyAll();
+    }
+
+    /**
+     * Lets the pool grow to the given number of workers, for a task that is about to run that many tools at the same
+     * time. Has no effect when the maximum number of workers is configured.
+     *
+     * @param workers the number of tools the task runs at the same time
+     */
+    public synchronized void requestWorkers(int workers) {
+        if (workers > requestedWorkers) {
+            requestedWorkers = workers;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Runs a tool in one of the pooled workers, starting a new worker if no compatible worker is idle.
+     * Blocks while the pool is exhausted.
+     *
+     * @param invocation the tool invocation
+     * @param listener receives the output of the tool as it is produced
+     * @return the exit code of the tool, 0 when the tool returned normally
+     */
+    @Override
+    public int execute(ToolInvocation invocation, ToolOutputListener listener) {
+        Worker worker = acquire(invocation);
+
+        boolean healthy = false;
+        try {
+            provideWorkingDirFiles(worker, invocation);
+
+            int exitCode = worker.run(invocation, listener);
+            healthy = true;
+            return exitCode;
+        } catch (IOException e) {
+            throw new GradleException("Lost connection to worker running " + invocation.getMainClassName(), e);
+        } finally {
+            release(worker, healthy);
+        }
+    }
+
+    /**
+     * Stops all idle workers. Busy workers are stopped as soon as they finish.
+     */
+    public synchronized void shutdown() {
+        for (Iterator<Worker> it = workers.iterator(); it.hasNext();) {
+            Worker worker = it.next();
+            if (!worker.busy) {
+                worker.stop();
+                it.remove();
+            } else {
+                worker.retired = true;
+            }
+        }
+        if (reaper != null) {
+            reaper.cancel();
+            reaper = null;
+        }
+    }
+
+    private void provideWorkingDirFiles(Worker worker, ToolInvocation invocation) {
+
+        // relative paths are resolved against the directory the worker was started in
+
+        try {
+            File[] children = worker.dir.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    FileOperations.delete(child);
+                }
+            }
+            for (Map.Entry<String, File> entry : invocation.getWorkingDirFiles().entrySet()) {
+                File target = new File(worker.dir, entry.getKey());
+                FileOperations.mkdirs(target.getParentFile());
+                FileOperations.copyFile(entry.getValue(), target);
+            }
+        } catch (IOException e) {
+            throw new GradleException("Could not provide the working dir files of "
+                    + invocation.getMainClassName() + " in " + worker.dir, e);
+        }
+    }
+
+    private synchronized Worker acquire(ToolInvocation invocation) {
+        String key = fingerprint(invocation);
+
+        while (true) {
+            for (Worker worker : workers) {
+                if (!worker.busy && worker.key.equals(key)) {
+                    worker.busy = true;
+                    return worker;
+                }
+            }
+
+            if (workers.size() >= getMaxWorkers()) {
+                evictIdleWorker();
+            }
+
+            if (workers.size() < getMaxWorkers()) {
+                Worker worker = startWorker(key, invocation);
+                worker.busy = true;
+                workers.add(worker);
+                scheduleReaper();
+                return worker;
+            }
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GradleException("Interrupted while waiting for a worker", e);
+            }
+        }
+    }
+
+    private int getMaxWorkers() {
+        return configuredMaxWorkers != null ? configuredMaxWorkers : requestedWorkers;
+    }
+
+    private synchronized void release(Worker worker, boolean healthy) {
+        worker.busy = false;
+        worker.lastUsed = System.currentTimeMillis();
+
+        if (!healthy || worker.retired) {
+            worker.stop();
+            workers.remove(worker);
+        }
+        notifyAll();
+    }
+
+    private void evictIdleWorker() {
+        Worker leastRecentlyUsed = null;
+        for (Worker worker : workers) {
+            if (!worker.busy && (leastRecentlyUsed == null || worker.lastUsed < leastRecentlyUsed.lastUsed)) {
+                leastRecentlyUsed = worker;
+            }
+        }
+        if (leastRecentlyUsed != null) {
+            leastRecentlyUsed.stop();
+            workers.remove(leastRecentlyUsed);
+        }
+    }
+
+    private synchronized void stopIdleWorkers() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Worker> it = workers.iterator(); it.hasNext();) {
+            Worker worker = it.next();
+            if (!worker.busy && now - worker.lastUsed >= idleTimeout * 1000L) {
+                worker.stop();
+                it.remove();
+            }
+        }
+    }
+
+    private void scheduleReaper() {
+        if (reaper == null && idleTimeout > 0) {
+            long period = Math.max(1000L, idleTimeout * 1000L / 2);
+            reaper = new Timer("tool worker pool reaper", true);
+            reaper.schedule(new ReaperTask(this), period, period);
+        }
+    }
+
+    private Worker startWorker(String key, ToolInvocation invocation) {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+
+        if (minHeapSize != null) {
+            command.add("-Xms" + minHeapSize);
+        }
+        if (maxHeapSize != null) {
+            command.add("-Xmx" + maxHeapSize);
+        }
+
+        StringBuilder classpath = new StringBuilder(workerCodeLocation().getPath());
+        for (File file : invocation.getClasspath()) {
+            classpath.append(File.pathSeparatorChar).append(file.getPath());
+        }
+
+        command.add("-cp");
+        command.add(classpath.toString());
+        command.add(ToolWorker.class.getName());
+
+        File dir = null;
+        try {
+            dir = createWorkerDir();
+
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.directory(dir);
+
+            LOGGER.info("Starting worker JVM for {} in {}", invocation.getMainClassName(), dir);
+            return new Worker(key, dir, processBuilder.start());
+        } catch (IOException e) {
+            deleteWorkerDir(dir);
+            throw new GradleException("Could not start worker JVM for " + invocation.getMainClassName(), e);
+        }
+    }
+
+    private String fingerprint(ToolInvocation invocation) {
+        MessageDigest digest = Hashing.newDigest();
+
+        Hashing.update(digest, String.valueOf(minHeapSize));
+        Hashing.update(digest, String.valueOf(maxHeapSize));
+
+        Hashing.updateClasspath(digest, invocation.getClasspath());
+
+        return Hashing.hex(digest.digest());
+    }
+
+    private static File createWorkerDir() throws IOException {
+        File dir = File.createTempFile("tool-worker", "");
+        FileOperations.delete(dir);
+        FileOperations.mkdirs(dir);
+        return dir;
+    }
+
+    private static void deleteWorkerDir(File dir) {
+        if (dir == null) {
+            return;
+        }
+        try {
+            FileOperations.delete(dir);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete {}", dir);
+        }
+    }
+
+    private File workerCodeLocation() {
+        try {
+            return new File(ToolWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Worker {
+        private final String key;
+        private final File dir;
+        private final Process process;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        private boolean busy;
+        private boolean retired;
+        private long lastUsed = System.currentTimeMillis();
+
+        private Worker(String key, File dir, Process process) {
+            this.key = key;
+            this.dir = dir;
+            this.process = process;
+            this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+
+            Thread errorDrainer = new Thread(new ErrorStreamDrainer(process.getErrorStream()),
+                    "tool worker error stream");
+            errorDrainer.setDaemon(true);
+            errorDrainer.start();
+        }
+
+        private int run(ToolInvocation invocation, ToolOutputListener listener) throws IOException {
+            out.writeUTF(invocation.getMainClassName());
+
+            out.writeInt(invocation.getArgs().size());
+            for (String arg : invocation.getArgs()) {
+                out.writeUTF(arg);
+            }
+
+            Map<String, String> systemProperties = invocation.getSystemProperties();
+
+            out.writeInt(systemProperties.size());
+            for (Map.Entry<String, String> entry : systemProperties.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.flush();
+
+            while (true) {
+                byte frameType = in.readByte();
+
+                if (frameType == ToolWorker.OUTPUT_FRAME) {
+                    listener.onOutput(readString());
+                } else if (frameType == ToolWorker.RESULT_FRAME) {
+                    int exitCode = in.readInt();
+                    String failure = readString();
+                    if (failure.length() > 0) {
+                        listener.onOutput(failure);
+                    }
+                    return exitCode;
+                } else {
+                    throw new IOException("Unexpected frame type " + frameType);
+                }
+            }
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        private void stop() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // nothing we can do, we destroy the process anyway
+            }
+            process.destroy();
+            deleteWorkerDir(dir);
+        }
+    }
+
+    private static final class ErrorStreamDrainer implements Runnable {
+        private final InputStream errorStream;
+
+        private ErrorStreamDrainer(InputStream errorStream) {
+            this.errorStream = errorStream;
+        }
+
+        @Override
+        public void run() {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    LOGGER.warn(line);
+                }
+            } catch (IOException e) {
+                // the worker died
+            }
+        }
+    }
+
+    private static final class ReaperTask extends TimerTask {
+        private final ToolWorkerPool pool;
+
+        private ReaperTask(ToolWorkerPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            pool.stopIdleWorkers();
+        }
+    }
+
+    private static final class ShutdownRunnable implements Runnable {
+        private final ToolWorkerPool pool;
+
+        private ShutdownRunnable(ToolWorkerPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            synchronized (pool) {
+                for (Worker worker : pool.workers) {
+                    worker.stop();
+                }
+                pool.workers.clear();
+            }
+        }
+    }
+}
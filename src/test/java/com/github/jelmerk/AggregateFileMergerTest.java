@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jelmerk;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link AggregateFileMerger}
+ *
+ * @author Jelmer Kuperus
+ */
+public class AggregateFileMergerTest {
+
+    static final String CLP_SERIALIZER = lines(
+            "public class ClpSerializer {",
+            "    public static Object translateInput(BaseModel<?> oldModel) {",
+            "        String oldModelClassName = oldModel.getClass().getName();",
+            "",
+            "        if (oldModelClassName.equals(FooClp.class.getName())) {",
+            "            return translateInputFoo(oldModel);",
+            "        }",
+            "",
+            "        if (oldModelClassName.equals(FooEntryClp.class.getName())) {",
+            "            return translateInputFooEntry(oldModel);",
+            "        }",
+            "",
+            "        return oldModel;",
+            "    }",
+            "",
+            "    public static Object translateInputFoo(BaseModel<?> oldModel) {",
+            "        FooClp oldClpModel = (FooClp) oldModel;",
+            "",
+            "        return oldClpModel.getFooRemoteModel();",
+            "    }",
+            "",
+            "    public static Object translateInputFooEntry(BaseModel<?> oldModel) {",
+            "        FooEntryClp oldClpModel = (FooEntryClp) oldModel;",
+            "",
+            "        return oldClpModel.getFooEntryRemoteModel();",
+            "    }",
+            "}",
+            "");
+
+    AggregateFileMerger merger = new AggregateFileMerger(Collections.singleton("FooEntry"),
+            Collections.singleton("Foo"));
+
+    @Test
+    public void testKeepsCodeOfOtherEntities() {
+        String subset = lines(
+                "public class ClpSerializer {",
+                "    public static Object translateInput(BaseModel<?> oldModel) {",
+                "        String oldModelClassName = oldModel.getClass().getName();",
+                "",
+                "        if (oldModelClassName.equals(FooEntryClp.class.getName())) {",
+                "            return translateInputFooEntry(oldModel);",
+                "        }",
+                "",
+                "        return oldModel;",
+                "    }",
+                "",
+                "    public static Object translateInputFooEntry(BaseModel<?> oldModel) {",
+                "        FooEntryClp oldClpModel = (FooEntryClp) oldModel;",
+                "",
+                "        return oldClpModel.getFooEntryRemoteModel();",
+                "    }",
+                "}",
+                "");
+
+        String merged = merger.merge(CLP_SERIALIZER, subset);
+
+        assertEquals(CLP_SERIALIZER, merged);
+        assertTrue(merger.lostEntities(CLP_SERIALIZER, merged).isEmpty());
+    }
+
+    @Test
+    public void testTakesCodeOfRegeneratedEntities() {
+        String subset = lines(
+                "public class ClpSerializer {",
+                "    public static Object translateInput(BaseModel<?> oldModel) {",
+                "        String oldModelClassName = oldModel.getClass().getName();",
+                "",
+                "        if (oldModelClassName.equals(FooEntryClp.class.getName())) {",
+                "            return translateInputFooEntry(oldModel);",
+                "        }",
+                "",
+                "        return oldModel;",
+                "    }",
+                "",
+                "    public static Object translateInputFooEntry(BaseModel<?> oldModel) {",
+                "        FooEntryClp clpModel = (FooEntryClp) oldModel;",
+                "",
+                "        return clpModel.getFooEntryRemoteModel();",
+                "    }",
+                "}",
+                "");
+
+        String merged = merger.merge(CLP_SERIALIZER, subset);
+
+        assertEquals(CLP_SERIALIZER
+                .replace("FooEntryClp oldClpModel", "FooEntryClp clpModel")
+                .replace("oldClpModel.getFooEntryRemoteModel", "clpModel.getFooEntryRemoteModel"), merged);
+    }
+
+    @Test
+    public void testKeepsTablesOfOtherEntities() {
+        String previous = lines(
+                "create table EX_Foo (",
+                "\tfooId LONG not null primary key,",
+                "\tname VARCHAR(75) null",
+                ");",
+                "",
+                "create table EX_FooEntry (",
+                "\tfooEntryId LONG not null primary key,",
+                "\ttitle VARCHAR(75) null",
+                ");",
+                "");
+        String subset = lines(
+                "create table EX_FooEntry (",
+                "\tfooEntryId LONG not null primary key,",
+                "\tcontent TEXT null",
+                ");",
+                "");
+
+        assertEquals(previous.replace("\ttitle VARCHAR(75) null", "\tcontent TEXT null"),
+                merger.merge(previous, subset));
+    }
+
+    @Test
+    public void testDropsBoilerplateReplacedBySubset() {
+        String previous = lines("build.namespace=EX", "build.number=5", "build.date=1");
+        String subset = lines("build.namespace=EX", "build.number=6", "build.date=2");
+
+        assertEquals(subset, merger.merge(previous, subset));
+    }
+
+    @Test
+    public void testReportsLostEntities() {
+        String merged = lines("public class ClpSerializer {", "}");
+
+        assertEquals(Arrays.asList("Foo"), merger.lostEntities(CLP_SERIALIZER, merged));
+    }
+
+    @Test
+    public void testDoesNotMatchLongerNames() {
+        AggregateFileMerger foodMerger = new AggregateFileMerger(Collections.singleton("Bar"),
+                Collections.singleton("Foo"));
+
+        assertTrue(foodMerger.lostEntities(lines("FoodClp food;"), "").isEmpty());
+        assertEquals(Arrays.asList("Foo"), foodMerger.lostEntities(lines("_fooLocalService"), ""));
+    }
+
+    private static String lines(String... lines) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                content.append('\n');
+            }
+            content.append(lines[i]);
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ApiSignature}
+ *
+ * @author Jelmer Kuperus
+ */
+public class ApiSignatureTest {
+
+    static final String SOURCE = "package com.example;\n"
+            + "public class Foo {\n"
+            + "    public static final int LIMIT = 10;\n"
+            + "    public String name(int index) {\n"
+            + "        return \"foo\" + index;\n"
+            + "    }\n"
+            + "}\n";
+
+    File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("api-signature", "");
+        FileOperations.delete(dir);
+        FileOperations.mkdirs(dir);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileOperations.delete(dir);
+    }
+
+    @Test
+    public void testMethodBodyIsNotPartOfSignature() throws IOException {
+        String changed = SOURCE.replace("return \"foo\" + index;", "return \"bar\" + (index * 2);");
+
+        assertEquals(signatureOf(SOURCE, "-g"), signatureOf(changed, "-g:none"));
+    }
+
+    @Test
+    public void testPrivateMemberIsNotPartOfSignature() throws IOException {
+        String changed = SOURCE.replace("public String name", "private int count;\n"
+                + "    private void reset() {\n        count = 0;\n    }\n    public String name");
+
+        assertEquals(signatureOf(SOURCE), signatureOf(changed));
+    }
+
+    @Test
+    public void testPublicMethodIsPartOfSignature() throws IOException {
+        String changed = SOURCE.replace("public String name", "public void reset() {\n    }\n    public String name");
+
+        assertFalse(signatureOf(SOURCE).equals(signatureOf(changed)));
+    }
+
+    @Test
+    public void testChangedMethodSignatureIsPartOfSignature() throws IOException {
+        String changed = SOURCE.replace("name(int index)", "name(long index)");
+
+        assertFalse(signatureOf(SOURCE).equals(signatureOf(changed)));
+    }
+
+    @Test
+    public void testConstantValueIsPartOfSignature() throws IOException {
+        String changed = SOURCE.replace("LIMIT = 10", "LIMIT = 20");
+
+        assertFalse(signatureOf(SOURCE).equals(signatureOf(changed)));
+    }
+
+    @Test
+    public void testResourceContentIsPartOfSignature() throws IOException {
+        File classes = new File(dir, "classes");
+        write("a=1", new File(classes, "com/example/messages.properties"));
+        String before = ApiSignature.of(Collections.singletonList(classes));
+
+        write("a=2", new File(classes, "com/example/messages.properties"));
+
+        assertFalse(before.equals(ApiSignature.of(Collections.singletonList(classes))));
+    }
+
+    @Test
+    public void testMissingFolderIsIgnored() throws IOException {
+        assertEquals("", ApiSignature.of(Collections.singletonList(new File(dir, "missing"))));
+    }
+
+    @Test
+    public void testStoredSignatureIsFound() throws IOException {
+        String signature = signatureOf(SOURCE);
+        File file = new File(dir, "signature/signature.txt");
+
+        assertFalse(ApiSignature.isStoredIn(signature, file));
+
+        ApiSignature.store(signature, file);
+
+        assertTrue(ApiSignature.isStoredIn(signature, file));
+        assertFalse(ApiSignature.isStoredIn(signatureOf(SOURCE.replace("LIMIT = 10", "LIMIT = 20")), file));
+    }
+
+    private String signatureOf(String source, String... options) throws IOException {
+        File sourceFile = new File(dir, "src/com/example/Foo.java");
+        File classes = new File(dir, "classes");
+        FileOperations.delete(classes);
+        FileOperations.mkdirs(classes);
+        write(source, sourceFile);
+
+        String[] args = new String[options.length + 3];
+        System.arraycopy(options, 0, args, 0, options.length);
+        args[options.length] = "-d";
+        args[options.length + 1] = classes.getPath();
+        args[options.length + 2] = sourceFile.getPath();
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, args));
+
+        return ApiSignature.of(Collections.singletonList(classes));
+    }
+
+    private static void write(String content, File file) throws IOException {
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
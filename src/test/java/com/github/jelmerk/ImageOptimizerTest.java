@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jelmerk;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ImageOptimizer}
+ *
+ * @author Jelmer Kuperus
+ */
+public class ImageOptimizerTest {
+
+    static final byte[] COMMENT = "created by an image editor that likes to leave a note".getBytes();
+
+    @Test
+    public void testRgbPngKeepsPixels() throws IOException {
+        assertRoundTrip(withPngText(encode(image(BufferedImage.TYPE_INT_RGB), "png")), "png");
+    }
+
+    @Test
+    public void testTransparentPngKeepsPixels() throws IOException {
+        assertRoundTrip(withPngText(encode(image(BufferedImage.TYPE_INT_ARGB), "png")), "png");
+    }
+
+    @Test
+    public void testPalettePngKeepsPixels() throws IOException {
+        assertRoundTrip(withPngText(encode(image(BufferedImage.TYPE_BYTE_INDEXED), "png")), "png");
+    }
+
+    @Test
+    public void testGrayPngKeepsPixels() throws IOException {
+        assertRoundTrip(withPngText(encode(image(BufferedImage.TYPE_BYTE_GRAY), "png")), "png");
+    }
+
+    @Test
+    public void testGifKeepsPixels() throws IOException {
+        assertRoundTrip(withGifComment(encode(image(BufferedImage.TYPE_BYTE_INDEXED), "gif")), "gif");
+    }
+
+    @Test
+    public void testJpegKeepsPixels() throws IOException {
+        assertRoundTrip(withJpegComment(encode(image(BufferedImage.TYPE_INT_RGB), "jpg")), "jpg");
+    }
+
+    @Test
+    public void testOptimizedImageIsOptimal() throws IOException {
+        byte[] optimized = ImageOptimizer.optimize(withPngText(encode(image(BufferedImage.TYPE_INT_RGB), "png")),
+                "png");
+
+        assertArrayEquals(optimized, ImageOptimizer.optimize(optimized, "png"));
+    }
+
+    @Test
+    public void testUnparsableImageIsReturned() {
+        byte[] content = "not an image".getBytes();
+
+        assertSame(content, ImageOptimizer.optimize(content, "png"));
+        assertSame(content, ImageOptimizer.optimize(content, "gif"));
+        assertSame(content, ImageOptimizer.optimize(content, "jpg"));
+    }
+
+    private static void assertRoundTrip(byte[] content, String extension) throws IOException {
+        byte[] optimized = ImageOptimizer.optimize(content, extension);
+
+        assertTrue("the " + extension + " image did not get smaller", optimized.length < content.length);
+
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(content));
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(optimized));
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    private static BufferedImage image(int type) {
+        BufferedImage image = new BufferedImage(48, 32, type);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            if (image.getColorModel().hasAlpha()) {
+                graphics.setBackground(new Color(0, 0, 0, 0));
+                graphics.clearRect(0, 0, 48, 32);
+            }
+            graphics.setColor(new Color(200, 40, 40, 180));
+            graphics.fillOval(4, 4, 24, 24);
+            graphics.setColor(Color.BLUE);
+            graphics.drawLine(0, 31, 47, 0);
+            graphics.setColor(new Color(40, 160, 40));
+            graphics.fillRect(30, 8, 14, 18);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, format, out));
+        return out.toByteArray();
+    }
+
+    private static byte[] withPngText(byte[] png) {
+        // a tEXt chunk right after the header chunk, which is 8 + 25 bytes into the file
+        byte[] type = "tEXt".getBytes();
+        byte[] data = new byte[8 + COMMENT.length];
+        System.arraycopy("Comment".getBytes(), 0, data, 0, 7);
+        System.arraycopy(COMMENT, 0, data, 8, COMMENT.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        writeInt(chunk, data.length);
+        chunk.write(type, 0, type.length);
+        chunk.write(data, 0, data.length);
+        writeInt(chunk, (int) crc.getValue());
+        return insert(png, 33, chunk.toByteArray());
+    }
+
+    private static byte[] withGifComment(byte[] gif) {
+        // a comment extension right before the trailer
+        ByteArrayOutputStream extension = new ByteArrayOutputStream();
+        extension.write(0x21);
+        extension.write(0xfe);
+        extension.write(COMMENT.length);
+        extension.write(COMMENT, 0, COMMENT.length);
+        extension.write(0);
+        return insert(gif, gif.length - 1, extension.toByteArray());
+    }
+
+    private static byte[] withJpegComment(byte[] jpeg) {
+        // a comment segment right after the start of image marker
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        segment.write(0xff);
+        segment.write(0xfe);
+        segment.write((COMMENT.length + 2) >> 8);
+        segment.write((COMMENT.length + 2) & 0xff);
+        segment.write(COMMENT, 0, COMMENT.length);
+        return insert(jpeg, 2, segment.toByteArray());
+    }
+
+    private static byte[] insert(byte[] content, int offset, byte[] inserted) {
+        byte[] result = new byte[content.length + inserted.length];
+        System.arraycopy(content, 0, result, 0, offset);
+        System.arraycopy(inserted, 0, result, offset, inserted.length);
+        System.arraycopy(content, offset, result, offset + inserted.length, content.length - offset);
+        return result;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests {@link InProcessToolRunner}
+ *
+ * @author Jelmer Kuperus
+ */
+public class InProcessToolRunnerTest {
+
+    static final String BUILD_PROCESS_PROPERTY = "in.process.tool.runner.test";
+
+    File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("in-process-tool-runner", "");
+        FileOperations.delete(dir);
+        FileOperations.mkdirs(dir);
+
+        // only set in the build process, a worker JVM would print null
+        System.setProperty(BUILD_PROCESS_PROPERTY, "build process");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        System.clearProperty(BUILD_PROCESS_PROPERTY);
+        FileOperations.delete(dir);
+    }
+
+    @Test
+    public void testInvocationWithWorkingDirFilesRunsInProcess() throws IOException {
+        File convention = write("convention", new File(dir, "jalopy.xml"));
+
+        ToolInvocation invocation = new ToolInvocation(ConventionTool.class.getName(), testClasspath());
+        invocation.addArg("arg");
+        invocation.addWorkingDirFile("misc/jalopy.xml", convention);
+        invocation.setWorkingDirFileLoader("misc/jalopy.xml", ConventionTool.class.getName(), "setConvention");
+
+        RecordingListener listener = new RecordingListener();
+        int exitCode = InProcessToolRunner.getInstance().execute(invocation, listener);
+
+        assertEquals(0, exitCode);
+        assertEquals(Arrays.asList("build process", "convention", "arg"), listener.lines);
+        assertFalse(new File("misc/jalopy.xml").exists());
+    }
+
+    @Test
+    public void testExitCodeOfToolIsReturned() {
+        ToolInvocation invocation = new ToolInvocation(ExitingTool.class.getName(), testClasspath());
+
+        RecordingListener listener = new RecordingListener();
+        int exitCode = InProcessToolRunner.getInstance().execute(invocation, listener);
+
+        assertEquals(3, exitCode);
+        assertEquals(Arrays.asList("build process"), listener.lines);
+    }
+
+    private static List<File> testClasspath() {
+        try {
+            return Collections.singletonList(new File(InProcessToolRunnerTest.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI()));
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static File write(String content, File file) throws IOException {
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static final class RecordingListener implements ToolOutputListener {
+        private final List<String> lines = new ArrayList<String>();
+
+        @Override
+        public void onOutput(String line) {
+            lines.add(line);
+        }
+    }
+
+    /**
+     * A tool that prints whether it runs in the build process, the convention it was handed and its arguments.
+     */
+    public static final class ConventionTool {
+
+        private static File convention;
+
+        private ConventionTool() {
+        }
+
+        /**
+         * Loads the convention, like Jalopy.setConvention.
+         *
+         * @param file the convention
+         */
+        public static void setConvention(File file) {
+            convention = file;
+        }
+
+        /**
+         * Runs the tool.
+         *
+         * @param args printed one per line
+         * @throws IOException when the convention cannot be read
+         */
+        public static void main(String[] args) throws IOException {
+            System.out.println(System.getProperty(BUILD_PROCESS_PROPERTY));
+            if (convention == null) {
+                System.out.println("none");
+            } else {
+                BufferedReader reader = new BufferedReader(new FileReader(convention));
+                try {
+                    System.out.println(reader.readLine());
+                } finally {
+                    reader.close();
+                }
+            }
+            for (String arg : args) {
+                System.out.println(arg);
+            }
+        }
+    }
+
+    /**
+     * A tool that prints whether it runs in the build process and calls System.exit.
+     */
+    public static final class ExitingTool {
+
+        private ExitingTool() {
+        }
+
+        /**
+         * Runs the tool.
+         *
+         * @param args ignored
+         */
+        public static void main(String[] args) {
+            System.out.println(System.getProperty(BUILD_PROCESS_PROPERTY));
+            System.exit(3);
+        }
+    }
+}
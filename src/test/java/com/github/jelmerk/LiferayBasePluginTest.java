@@ -27,7 +27,9 @@ import org.junit.Test;
 import java.io.File;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -125,4 +127,15 @@ public class LiferayBasePluginTest {
 
         assertEquals(override, task.getWarFile());
     }
+
+    @Test
+    public void testWorkerPoolDefaults() {
+        plugin.apply(project);
+
+        LiferayPluginExtension liferayExtension = project.getExtensions().getByType(LiferayPluginExtension.class);
+
+        assertNull(liferayExtension.getWorkerPoolSize());
+        assertEquals(ToolWorkerPool.DEFAULT_IDLE_TIMEOUT, liferayExtension.getWorkerIdleTimeout());
+        assertFalse(liferayExtension.getReuseWorkersAcrossBuilds());
+    }
 }
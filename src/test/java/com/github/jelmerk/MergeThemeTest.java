@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jelmerk;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests {@link MergeTheme}
+ *
+ * @author Jelmer Kuperus
+ */
+public class MergeThemeTest {
+
+    File dir;
+    MergeTheme task;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("merge-theme", "");
+        FileOperations.delete(dir);
+        FileOperations.mkdirs(dir);
+
+        Project project = ProjectBuilder.builder().withProjectDir(new File(dir, "project")).build();
+        task = project.getTasks().create("mergeTheme", MergeTheme.class);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileOperations.delete(dir);
+    }
+
+    @Test
+    public void testLaterLayerOverwritesEarlierLayer() throws IOException {
+        ThemeLayer parent = layer("parent", "css/main.css", "css/custom.css", "images/logo.png");
+        ThemeLayer diffs = layer("diffs", "css/custom.css");
+
+        Map<String, ThemeLayer.ThemeFile> files = task.resolveFiles(Arrays.asList(parent, diffs));
+
+        assertEquals(Arrays.asList("css/custom.css", "css/main.css", "images/logo.png"),
+                new ArrayList<String>(files.keySet()));
+        assertSame(diffs, files.get("css/custom.css").getLayer());
+        assertEquals(new File(diffs.getDir(), "css/custom.css"), files.get("css/custom.css").getSource());
+        assertSame(parent, files.get("css/main.css").getLayer());
+    }
+
+    @Test
+    public void testLayerIsFilteredAndMergedIntoTargetPath() throws IOException {
+        File layerDir = createFiles("portal", "css/main.css", "css/base.css", "templates/portal_normal.vm",
+                "css/.svn/entries");
+        ThemeLayer portal = new ThemeLayer("portal", layerDir, "css/", "css/base.css", "styled", true);
+
+        Map<String, ThemeLayer.ThemeFile> files = task.resolveFiles(Arrays.asList(portal));
+
+        assertEquals(Arrays.asList("styled/css/main.css"), new ArrayList<String>(files.keySet()));
+    }
+
+    @Test
+    public void testKnownFilesAreSelectedLikeScannedFiles() throws IOException {
+        List<String> paths = Arrays.asList("css/main.css", "css/base.css", "templates/portal_normal.vm",
+                "css/.svn/entries", "images/.DS_Store");
+        File layerDir = createFiles("portal", paths.toArray(new String[paths.size()]));
+
+        ThemeLayer scanned = new ThemeLayer("portal", layerDir, "css/,images/", "css/base.css", "", true);
+        ThemeLayer known = new ThemeLayer("portal", layerDir, "css/,images/", "css/base.css", "", true, paths);
+
+        assertEquals(task.resolveFiles(Arrays.asList(scanned)).keySet(),
+                task.resolveFiles(Arrays.asList(known)).keySet());
+    }
+
+    private ThemeLayer layer(String name, String... paths) throws IOException {
+        return new ThemeLayer(name, createFiles(name, paths), null, null, "", false);
+    }
+
+    private File createFiles(String name, String... paths) throws IOException {
+        File layerDir = new File(dir, name);
+        for (String path : paths) {
+            File file = new File(layerDir, path);
+            FileOperations.mkdirs(file.getParentFile());
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write((name + " " + path).getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        }
+        return layerDir;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link SassImportGraph}
+ *
+ * @author Jelmer Kuperus
+ */
+public class SassImportGraphTest {
+
+    File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("sass-import-graph", "");
+        FileOperations.delete(dir);
+        FileOperations.mkdirs(dir);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileOperations.delete(dir);
+    }
+
+    @Test
+    public void testPlainAndSassImportsAreParsed() {
+        List<String> locations = SassImportGraph.parseImports(
+                "@import url(\"base.css?t=123\");\n"
+                + "@import url( mixins.css );\n"
+                + "@import \"variables\", 'partials/buttons';\n"
+                + "body { color: red; }\n");
+
+        assertEquals(Arrays.asList("base.css?t=123", "mixins.css", "variables", "partials/buttons"), locations);
+    }
+
+    @Test
+    public void testCssWithoutImportsHasNoImports() {
+        assertTrue(SassImportGraph.parseImports("body { background: url(image.png); }").isEmpty());
+    }
+
+    @Test
+    public void testImportIsResolvedRelativeToTheImporter() throws IOException {
+        write("", new File(dir, "css/base.css"));
+
+        assertEquals(Arrays.asList("css/base.css"), SassImportGraph.resolve(dir, "css/main.css", "base.css?t=1"));
+        assertEquals(Arrays.asList("css/base.css"),
+                SassImportGraph.resolve(dir, "css/portlet/main.css", "../base.css"));
+    }
+
+    @Test
+    public void testImportOfPartialIsResolved() throws IOException {
+        write("", new File(dir, "css/_mixins.css"));
+
+        assertEquals(Arrays.asList("css/mixins.css", "css/_mixins.css"),
+                SassImportGraph.resolve(dir, "css/main.css", "mixins"));
+    }
+
+    @Test
+    public void testUnresolvedImportReturnsEveryCandidate() {
+        assertEquals(Arrays.asList("css/mixins.css", "css/_mixins.css"),
+                SassImportGraph.resolve(dir, "css/main.css", "mixins"));
+    }
+
+    @Test
+    public void testImportOutsideSassDirIsNotResolved() {
+        assertTrue(SassImportGraph.resolve(dir, "css/main.css", "../../base.css").isEmpty());
+        assertTrue(SassImportGraph.resolve(dir, "css/main.css", "/css/base.css").isEmpty());
+        assertTrue(SassImportGraph.resolve(dir, "css/main.css", "http://example.com/base.css").isEmpty());
+    }
+
+    @Test
+    public void testAddedImportRecompilesImporter() throws IOException {
+        write("@import \"mixins\";", new File(dir, "main.css"));
+
+        SassImportGraph graph = new SassImportGraph();
+        graph.update(dir, "main.css");
+        write("", new File(dir, "_mixins.css"));
+
+        assertEquals(set("_mixins.css", "main.css"), graph.withImporters(Collections.singleton("_mixins.css")));
+    }
+
+    @Test
+    public void testRemovedImportRecompilesImporter() throws IOException {
+        write("@import \"base.css\";", new File(dir, "main.css"));
+        write("@import \"mixins.css\";", new File(dir, "base.css"));
+        write("", new File(dir, "mixins.css"));
+
+        SassImportGraph graph = new SassImportGraph();
+        graph.update(dir, "main.css");
+        graph.update(dir, "base.css");
+        graph.remove("mixins.css");
+
+        assertEquals(set("base.css", "main.css", "mixins.css"),
+                graph.withImporters(Collections.singleton("mixins.css")));
+    }
+
+    @Test
+    public void testSavedGraphIsLoaded() throws IOException {
+        write("@import \"base.css\";", new File(dir, "main.css"));
+        write("", new File(dir, "base.css"));
+
+        SassImportGraph graph = new SassImportGraph();
+        graph.update(dir, "main.css");
+        graph.save(new File(dir, "graph/imports.properties"));
+
+        SassImportGraph loaded = SassImportGraph.load(new File(dir, "graph/imports.properties"));
+
+        assertEquals(set("base.css", "main.css"), loaded.withImports(Collections.singleton("main.css")));
+    }
+
+    @Test
+    public void testFilesSharingImportsArePartitionedTogether() throws IOException {
+        write(repeat('x', 10000), new File(dir, "_mixins.css"));
+        write("@import \"mixins\";", new File(dir, "a.css"));
+        write("@import \"mixins\";", new File(dir, "b.css"));
+        write(repeat('x', 20000), new File(dir, "c.css"));
+
+        SassImportGraph graph = new SassImportGraph();
+        for (String path : Arrays.asList("a.css", "b.css", "c.css")) {
+            graph.update(dir, path);
+        }
+
+        List<Set<String>> groups = graph.partition(dir, Arrays.asList("a.css", "b.css", "c.css"), 2);
+
+        assertEquals(2, groups.size());
+        assertTrue(groups.contains(set("a.css", "b.css")));
+        assertTrue(groups.contains(set("c.css")));
+    }
+
+    @Test
+    public void testPartitionHasNoEmptyGroups() throws IOException {
+        write("body {}", new File(dir, "main.css"));
+
+        SassImportGraph graph = new SassImportGraph();
+        graph.update(dir, "main.css");
+
+        List<Set<String>> groups = graph.partition(dir, Collections.singleton("main.css"), 4);
+
+        assertEquals(1, groups.size());
+        assertEquals(set("main.css"), groups.get(0));
+    }
+
+    private static Set<String> set(String... paths) {
+        return new TreeSet<String>(Arrays.asList(paths));
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static File write(String content, File file) throws IOException {
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
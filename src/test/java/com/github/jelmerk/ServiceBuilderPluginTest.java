@@ -16,11 +16,14 @@
 package com.github.jelmerk;
 
 import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.plugins.WarPlugin;
 import org.gradle.testfixtures.ProjectBuilder;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -51,4 +54,30 @@ public class ServiceBuilderPluginTest {
         assertTrue(project.getExtensions().getByName(ServiceBuilderPlugin.SERVICEBUILDER_EXTENSION_NAME)
                 instanceof ServiceBuilderPluginExtension);
     }
+
+    @Test
+    public void testAddedServiceDefinitionContainer() {
+        plugin.apply(project);
+
+        ServiceBuilderPluginExtension extension = project.getExtensions()
+                .getByType(ServiceBuilderPluginExtension.class);
+
+        extension.getServices().create("billing");
+
+        assertEquals("billing", extension.getServices().getByName("billing").getName());
+    }
+
+    @Test
+    public void testServiceApiBuiltByApiJar() {
+        plugin.apply(project);
+
+        Configuration serviceApi = project.getConfigurations()
+                .getByName(ServiceBuilderPlugin.SERVICE_API_CONFIGURATION_NAME);
+        Task apiJar = project.getTasks().getByName(ServiceBuilderPlugin.JAR_SERVICE_API_TASK_NAME);
+
+        assertEquals(1, serviceApi.getArtifacts().size());
+        assertTrue(serviceApi.getArtifacts().getBuildDependencies().getDependencies(null).contains(apiJar));
+        assertTrue(apiJar.getDependsOn().contains(
+                project.getTasks().getByName(ServiceBuilderPlugin.SERVICE_API_SIGNATURE_TASK_NAME)));
+    }
 }
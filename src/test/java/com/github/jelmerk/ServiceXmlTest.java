@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests {@link ServiceXml}
+ *
+ * @author Jelmer Kuperus
+ */
+public class ServiceXmlTest {
+
+    static final String SERVICE_XML = "<?xml version=\"1.0\"?>\n"
+            + "<service-builder package-path=\"com.example\">\n"
+            + "  <namespace>EX</namespace>\n"
+            + "  <entity name=\"Foo\" local-service=\"true\">\n"
+            + "    <column name=\"fooId\" type=\"long\" primary=\"true\" />\n"
+            + "    <column name=\"bars\" type=\"Collection\" entity=\"Bar\" mapping-table=\"EX_Foos_Bars\" />\n"
+            + "  </entity>\n"
+            + "  <entity name=\"Bar\" local-service=\"true\">\n"
+            + "    <column name=\"barId\" type=\"long\" primary=\"true\" />\n"
+            + "  </entity>\n"
+            + "  <entity name=\"Baz\" local-service=\"true\">\n"
+            + "    <column name=\"bazId\" type=\"long\" primary=\"true\" />\n"
+            + "    <column name=\"quxId\" type=\"long\" entity=\"Qux\" />\n"
+            + "  </entity>\n"
+            + "  <entity name=\"Qux\" local-service=\"true\">\n"
+            + "    <column name=\"quxId\" type=\"long\" primary=\"true\" />\n"
+            + "  </entity>\n"
+            + "</service-builder>\n";
+
+    File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("service-xml", "");
+        FileOperations.delete(dir);
+        FileOperations.mkdirs(dir);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileOperations.delete(dir);
+    }
+
+    @Test
+    public void testFingerprintIgnoresFormatting() throws IOException {
+        String reformatted = SERVICE_XML
+                .replace("<entity name=\"Bar\" local-service=\"true\">",
+                        "<!-- the bar -->\n  <entity   local-service=\"true\"\n      name=\"Bar\">")
+                .replace("  <namespace>EX</namespace>", "<namespace>\n    EX\n  </namespace>");
+
+        assertEquals(parse(SERVICE_XML).getFingerprint(), parse(reformatted).getFingerprint());
+    }
+
+    @Test
+    public void testFingerprintChangesWithEntity() throws IOException {
+        String changed = SERVICE_XML.replace("name=\"barId\" type=\"long\"", "name=\"barId\" type=\"int\"");
+
+        assertFalse(parse(SERVICE_XML).getFingerprint().equals(parse(changed).getFingerprint()));
+    }
+
+    @Test
+    public void testChangedEntityIncludesMappedEntities() throws IOException {
+        String changed = SERVICE_XML.replace("name=\"barId\" type=\"long\"", "name=\"barId\" type=\"int\"");
+
+        assertEquals(set("Foo", "Bar"), parse(changed).changedEntitiesSince(parse(SERVICE_XML)));
+    }
+
+    @Test
+    public void testUnchangedEntities() throws IOException {
+        assertEquals(Collections.<String>emptySet(), parse(SERVICE_XML).changedEntitiesSince(parse(SERVICE_XML)));
+    }
+
+    @Test
+    public void testGlobalChangeCannotBeLimitedToEntities() throws IOException {
+        String changed = SERVICE_XML.replace("<namespace>EX</namespace>", "<namespace>EY</namespace>");
+
+        assertNull(parse(changed).changedEntitiesSince(parse(SERVICE_XML)));
+    }
+
+    @Test
+    public void testRemovedEntityCannotBeLimitedToEntities() throws IOException {
+        String changed = SERVICE_XML.substring(0, SERVICE_XML.indexOf("  <entity name=\"Qux\""))
+                + "</service-builder>\n";
+
+        assertNull(parse(changed).changedEntitiesSince(parse(SERVICE_XML)));
+    }
+
+    @Test
+    public void testWithDependencies() throws IOException {
+        ServiceXml serviceXml = parse(SERVICE_XML);
+
+        assertEquals(set("Baz", "Qux"), serviceXml.withDependencies(set("Baz")));
+        assertEquals(set("Qux"), serviceXml.withDependencies(set("Qux")));
+        assertEquals(set("Foo", "Bar"), serviceXml.withDependencies(set("Bar")));
+    }
+
+    @Test
+    public void testWriteSubset() throws IOException {
+        ServiceXml serviceXml = parse(SERVICE_XML);
+
+        File subsetFile = new File(dir, "subset.xml");
+        serviceXml.writeSubset(set("Baz", "Qux"), subsetFile);
+        ServiceXml subset = ServiceXml.parse(subsetFile);
+
+        assertEquals(Arrays.asList("Baz", "Qux"), Arrays.asList(subset.getEntityNames().toArray()));
+        assertEquals("com.example", subset.getPackagePath());
+
+        // the entities that were kept are written as they were
+        String withoutFooAndBar = SERVICE_XML.substring(0, SERVICE_XML.indexOf("  <entity name=\"Foo\""))
+                + SERVICE_XML.substring(SERVICE_XML.indexOf("  <entity name=\"Baz\""));
+        assertEquals(set(), subset.changedEntitiesSince(parse(withoutFooAndBar)));
+    }
+
+    private ServiceXml parse(String content) throws IOException {
+        File file = File.createTempFile("service", ".xml", dir);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return ServiceXml.parse(file);
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link StagingArea}
+ *
+ * @author Jelmer Kuperus
+ */
+public class StagingAreaTest {
+
+    static final String FOO_MODEL = "com/example/model/Foo.java";
+    static final String BAR_MODEL = "com/example/model/Bar.java";
+    static final String BAR_IMPL = "com/example/model/impl/BarImpl.java";
+    static final String UTIL = "com/example/util/Helper.java";
+
+    File dir;
+    File targetDir;
+    File manifestFile;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("staging-area", "");
+        FileOperations.delete(dir);
+        FileOperations.mkdirs(dir);
+
+        targetDir = new File(dir, "src");
+        manifestFile = new File(dir, "work/generated-files.properties");
+
+        write("hand written", new File(targetDir, UTIL));
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileOperations.delete(dir);
+    }
+
+    @Test
+    public void testFilesOfRemovedEntityAreRemoved() throws IOException {
+        StagingArea staging = generate(Collections.<String>emptyList(), false, FOO_MODEL, BAR_MODEL);
+        assertEquals(2, staging.getUpdatedCount());
+        assertTrue(new File(targetDir, BAR_MODEL).isFile());
+
+        staging = generate(Collections.<String>emptyList(), false, FOO_MODEL);
+
+        assertFalse(new File(targetDir, BAR_MODEL).exists());
+        assertTrue(new File(targetDir, FOO_MODEL).isFile());
+        assertTrue(new File(targetDir, UTIL).isFile());
+        assertEquals(1, staging.getUnchangedCount());
+        assertEquals(0, staging.getUpdatedCount());
+        assertEquals(1, staging.getRemovedCount());
+    }
+
+    @Test
+    public void testStagingStartsWithOnlyInputs() throws IOException {
+        generate(Collections.<String>emptyList(), false, FOO_MODEL, BAR_MODEL);
+        write("implementation", new File(targetDir, BAR_IMPL));
+
+        StagingArea staging = new StagingArea(new File(dir, "staging"), manifestFile);
+        File stagedDir = staging.stage(targetDir, "impl", Arrays.asList(BAR_IMPL), false);
+
+        assertTrue(new File(stagedDir, BAR_IMPL).isFile());
+        assertFalse(new File(stagedDir, FOO_MODEL).exists());
+        assertFalse(new File(stagedDir, UTIL).exists());
+    }
+
+    @Test
+    public void testGeneratedFilesAreStagedForPartialRegeneration() throws IOException {
+        generate(Collections.<String>emptyList(), false, FOO_MODEL, BAR_MODEL);
+
+        StagingArea staging = generate(Collections.<String>emptyList(), true, FOO_MODEL);
+
+        assertTrue(new File(targetDir, BAR_MODEL).isFile());
+        assertEquals(0, staging.getRemovedCount());
+    }
+
+    @Test
+    public void testModifiedGeneratedFileIsKept() throws IOException {
+        generate(Collections.<String>emptyList(), false, FOO_MODEL, BAR_MODEL);
+        write("modified by hand", new File(targetDir, BAR_MODEL));
+
+        StagingArea staging = generate(Collections.<String>emptyList(), false, FOO_MODEL);
+
+        assertEquals("modified by hand", read(new File(targetDir, BAR_MODEL)));
+        assertEquals(0, staging.getRemovedCount());
+    }
+
+    @Test
+    public void testInputsAreNeverRemoved() throws IOException {
+        write("implementation", new File(targetDir, BAR_IMPL));
+        generate(Arrays.asList(BAR_IMPL), false, FOO_MODEL, BAR_MODEL);
+
+        generate(Collections.<String>emptyList(), false, FOO_MODEL);
+
+        assertEquals("implementation", read(new File(targetDir, BAR_IMPL)));
+    }
+
+    @Test
+    public void testRewrittenInputIsSynced() throws IOException {
+        write("build.number=1", new File(targetDir, "service.properties"));
+
+        StagingArea staging = new StagingArea(new File(dir, "staging"), manifestFile);
+        File stagedDir = staging.stage(targetDir, "impl", Arrays.asList("service.properties"), false);
+        write("build.number=2", new File(stagedDir, "service.properties"));
+        staging.sync();
+
+        assertEquals("build.number=2", read(new File(targetDir, "service.properties")));
+    }
+
+    private StagingArea generate(List<String> inputPaths, boolean withGeneratedFiles, String... generatedPaths)
+            throws IOException {
+        StagingArea staging = new StagingArea(new File(dir, "staging"), manifestFile);
+        File stagedDir = staging.stage(targetDir, "impl", inputPaths, withGeneratedFiles);
+        for (String path : generatedPaths) {
+            write("generated " + path, new File(stagedDir, path));
+        }
+        staging.sync();
+        return staging;
+    }
+
+    private static String read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += in.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private static File write(String content, File file) throws IOException {
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
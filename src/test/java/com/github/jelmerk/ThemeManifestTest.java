@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ThemeManifest}
+ *
+ * @author Jelmer Kuperus
+ */
+public class ThemeManifestTest {
+
+    File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("theme-manifest", "");
+        FileOperations.delete(dir);
+        FileOperations.mkdirs(dir);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileOperations.delete(dir);
+    }
+
+    @Test
+    public void testSavedManifestIsLoaded() throws IOException {
+        File source = write("body {}", new File(dir, "diffs|with separator/css/main.css"));
+        File output = write("body {}", new File(dir, "theme/css/main.css"));
+
+        ThemeManifest manifest = new ThemeManifest();
+        manifest.put("css/main.css", ThemeManifest.Entry.of("diffs", source, "abc", output));
+        manifest.save(new File(dir, "manifest/manifest.properties"));
+
+        ThemeManifest loaded = ThemeManifest.load(new File(dir, "manifest/manifest.properties"));
+
+        assertEquals(manifest.getPaths(), loaded.getPaths());
+        ThemeManifest.Entry entry = loaded.get("css/main.css");
+        assertEquals("diffs", entry.getLayer());
+        assertEquals("abc", entry.getHash());
+        assertTrue(entry.isUnchangedSource(source));
+        assertTrue(entry.isUnchangedOutput(output));
+    }
+
+    @Test
+    public void testMissingManifestIsEmpty() {
+        assertTrue(ThemeManifest.load(new File(dir, "missing.properties")).getPaths().isEmpty());
+    }
+
+    @Test
+    public void testMalformedEntryIsSkipped() throws IOException {
+        File file = write("css/main.css=diffs|1|2|abc\nimages/logo.png=diffs|x|2|abc|4|5|/logo.png\n",
+                new File(dir, "manifest.properties"));
+
+        ThemeManifest manifest = ThemeManifest.load(file);
+
+        assertTrue(manifest.getPaths().isEmpty());
+        assertNull(manifest.get("css/main.css"));
+    }
+
+    @Test
+    public void testModifiedOutputIsChanged() throws IOException {
+        File source = write("body {}", new File(dir, "diffs/css/main.css"));
+        File output = write("body {}", new File(dir, "theme/css/main.css"));
+        ThemeManifest.Entry entry = ThemeManifest.Entry.of("diffs", source, "abc", output);
+
+        write("body { color: red }", output);
+
+        assertFalse(entry.isUnchangedOutput(output));
+    }
+
+    @Test
+    public void testTouchedOutputIsChanged() throws IOException {
+        File source = write("body {}", new File(dir, "diffs/css/main.css"));
+        File output = write("body {}", new File(dir, "theme/css/main.css"));
+        ThemeManifest.Entry entry = ThemeManifest.Entry.of("diffs", source, "abc", output);
+
+        assertTrue(output.setLastModified(output.lastModified() - 10000));
+
+        assertFalse(entry.isUnchangedOutput(output));
+    }
+
+    @Test
+    public void testDeletedOutputIsChanged() throws IOException {
+        File source = write("body {}", new File(dir, "diffs/css/main.css"));
+        File output = write("body {}", new File(dir, "theme/css/main.css"));
+        ThemeManifest.Entry entry = ThemeManifest.Entry.of("diffs", source, "abc", output);
+
+        FileOperations.delete(output);
+
+        assertFalse(entry.isUnchangedOutput(output));
+    }
+
+    @Test
+    public void testOtherSourceIsChanged() throws IOException {
+        File source = write("body {}", new File(dir, "diffs/css/main.css"));
+        File other = write("body {}", new File(dir, "classic/css/main.css"));
+        assertTrue(other.setLastModified(source.lastModified()));
+        ThemeManifest.Entry entry = ThemeManifest.Entry.of("diffs", source, "abc", source);
+
+        assertFalse(entry.isUnchangedSource(other));
+    }
+
+    private static File write(String content, File file) throws IOException {
+        FileOperations.mkdirs(file.getParentFile());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}